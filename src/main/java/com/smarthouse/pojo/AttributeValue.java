@@ -6,7 +6,8 @@ import javax.persistence.*;
 public class AttributeValue {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "attributevalue_id")
+    @SequenceGenerator(name = "attributevalue_id", sequenceName = "attributevalue_id_seq", allocationSize = 50)
     private int id;
 
     private String value;
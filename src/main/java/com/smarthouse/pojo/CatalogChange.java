@@ -0,0 +1,49 @@
+package com.smarthouse.pojo;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * CatalogChange is a row of catalog change log. Rows are written by
+ * triggers of catalog tables with txid of the transaction which made
+ * the change of product, category, attribute or visualization on any
+ * node. Stock and votes of products are not logged.
+ */
+@Entity
+public class CatalogChange {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private long version;
+
+    private String entity;
+
+    private String changedKey;
+
+    private long txid;
+
+    private LocalDateTime created;
+
+    public CatalogChange() {
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public String getEntity() {
+        return entity;
+    }
+
+    public String getChangedKey() {
+        return changedKey;
+    }
+
+    public long getTxid() {
+        return txid;
+    }
+
+    public LocalDateTime getCreated() {
+        return created;
+    }
+}
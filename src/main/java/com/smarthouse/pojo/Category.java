@@ -6,7 +6,8 @@ import javax.persistence.*;
 public class Category {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "category_id")
+    @SequenceGenerator(name = "category_id", sequenceName = "category_id_seq", allocationSize = 50)
     private int id;
 
     private String description;
@@ -0,0 +1,36 @@
+package com.smarthouse.pojo;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * IdempotencyKey is a key sent by client with createOrder. Key is claimed
+ * before order is created, and gets orderId when order is saved, so
+ * retried call with the same key returns the same order.
+ */
+@Entity
+public class IdempotencyKey {
+
+    @Id
+    private String idempotencyKey;
+
+    //Null while order is being created
+    private Integer orderId;
+
+    private LocalDateTime created;
+
+    public IdempotencyKey() {
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public Integer getOrderId() {
+        return orderId;
+    }
+
+    public LocalDateTime getCreated() {
+        return created;
+    }
+}
@@ -6,12 +6,13 @@ import javax.persistence.*;
 public class OrderItem {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "orderitem_id")
+    @SequenceGenerator(name = "orderitem_id", sequenceName = "orderitem_id_seq", allocationSize = 50)
     private int id;
 
     private int amount;
 
-    private int totalprice;
+    private long totalprice;
 
     @ManyToOne
     @JoinColumn(name = "productCard")
@@ -24,7 +25,7 @@ public class OrderItem {
     public OrderItem() {
     }
 
-    public OrderItem(int amount, int totalprice, ProductCard productCard, OrderMain orderMain) {
+    public OrderItem(int amount, long totalprice, ProductCard productCard, OrderMain orderMain) {
         this.amount = amount;
         this.totalprice = totalprice;
         this.productCard = productCard;
@@ -47,11 +48,11 @@ public class OrderItem {
         this.amount = amount;
     }
 
-    public int getTotalprice() {
+    public long getTotalprice() {
         return totalprice;
     }
 
-    public void setTotalprice(int totalprice) {
+    public void setTotalprice(long totalprice) {
         this.totalprice = totalprice;
     }
 
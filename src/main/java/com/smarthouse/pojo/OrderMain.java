@@ -1,17 +1,24 @@
 package com.smarthouse.pojo;
 
+import com.smarthouse.service.util.enums.EnumOrderStatus;
+
 import javax.persistence.*;
+import java.time.LocalDateTime;
 
 @Entity
 public class OrderMain {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "ordermain_orderid")
+    @SequenceGenerator(name = "ordermain_orderid", sequenceName = "ordermain_orderid_seq", allocationSize = 50)
     private int orderId;
 
     private String address;
 
-    private int status;
+    @Convert(converter = OrderStatusConverter.class)
+    private EnumOrderStatus status;
+
+    private LocalDateTime created;
 
     @ManyToOne
     @JoinColumn(name = "customer", nullable = false)
@@ -20,10 +27,11 @@ public class OrderMain {
     public OrderMain() {
     }
 
-    public OrderMain(String address, int status, Customer customer) {
+    public OrderMain(String address, EnumOrderStatus status, Customer customer) {
         this.address = address;
         this.status = status;
         this.customer = customer;
+        this.created = LocalDateTime.now();
     }
 
     public int getOrderId() {
@@ -42,14 +50,22 @@ public class OrderMain {
         this.address = address;
     }
 
-    public int getStatus() {
+    public EnumOrderStatus getStatus() {
         return status;
     }
 
-    public void setStatus(int status) {
+    public void setStatus(EnumOrderStatus status) {
         this.status = status;
     }
 
+    public LocalDateTime getCreated() {
+        return created;
+    }
+
+    public void setCreated(LocalDateTime created) {
+        this.created = created;
+    }
+
     public Customer getCustomer() {
         return customer;
     }
@@ -0,0 +1,21 @@
+package com.smarthouse.pojo;
+
+import com.smarthouse.service.util.enums.EnumOrderStatus;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+//Keeps ordermain.status as the int code, so partial indexes can filter on it
+@Converter
+public class OrderStatusConverter implements AttributeConverter<EnumOrderStatus, Integer> {
+
+    @Override
+    public Integer convertToDatabaseColumn(EnumOrderStatus status) {
+        return status == null ? null : status.getCode();
+    }
+
+    @Override
+    public EnumOrderStatus convertToEntityAttribute(Integer code) {
+        return code == null ? null : EnumOrderStatus.fromCode(code);
+    }
+}
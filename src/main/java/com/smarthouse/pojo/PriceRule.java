@@ -0,0 +1,79 @@
+package com.smarthouse.pojo;
+
+import javax.persistence.*;
+
+/**
+ * PriceRule gives discount in basis points (100 is 1%) when amount of
+ * product in order line is at least minAmount. Rule is for one product,
+ * for products of one category, or for all products when both are null.
+ */
+@Entity
+public class PriceRule {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "pricerule_id")
+    @SequenceGenerator(name = "pricerule_id", sequenceName = "pricerule_id_seq", allocationSize = 50)
+    private int id;
+
+    @ManyToOne
+    @JoinColumn(name = "productCard")
+    ProductCard productCard;
+
+    @ManyToOne
+    @JoinColumn(name = "category")
+    Category category;
+
+    private int minAmount;
+
+    private int discount;
+
+    public PriceRule() {
+    }
+
+    public PriceRule(ProductCard productCard, Category category, int minAmount, int discount) {
+        this.productCard = productCard;
+        this.category = category;
+        this.minAmount = minAmount;
+        this.discount = discount;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public ProductCard getProductCard() {
+        return productCard;
+    }
+
+    public void setProductCard(ProductCard productCard) {
+        this.productCard = productCard;
+    }
+
+    public Category getCategory() {
+        return category;
+    }
+
+    public void setCategory(Category category) {
+        this.category = category;
+    }
+
+    public int getMinAmount() {
+        return minAmount;
+    }
+
+    public void setMinAmount(int minAmount) {
+        this.minAmount = minAmount;
+    }
+
+    public int getDiscount() {
+        return discount;
+    }
+
+    public void setDiscount(int discount) {
+        this.discount = discount;
+    }
+}
@@ -6,7 +6,8 @@ import javax.persistence.*;
 public class Visualization {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "visualization_id")
+    @SequenceGenerator(name = "visualization_id", sequenceName = "visualization_id_seq", allocationSize = 50)
     private int id;
 
     private int type;
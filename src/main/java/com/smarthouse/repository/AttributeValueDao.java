@@ -3,6 +3,7 @@ package com.smarthouse.repository;
 import com.smarthouse.pojo.AttributeName;
 import com.smarthouse.pojo.AttributeValue;
 import com.smarthouse.pojo.ProductCard;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.Repository;
 
 import java.util.List;
@@ -11,4 +12,8 @@ public interface AttributeValueDao extends Repository<AttributeValue, Integer> {
     AttributeValue save(AttributeValue attributeValue);
     List<AttributeValue> findByProductCard(ProductCard productCard);
     List<AttributeValue> findByAttributeName(AttributeName attributeName);
+
+    //Rows of sku, attribute name and value for CatalogSnapshot.build
+    @Query("select p.sku, a.name, v.value from AttributeValue v join v.productCard p join v.attributeName a order by v.id")
+    List<Object[]> findAllForSnapshot();
 }
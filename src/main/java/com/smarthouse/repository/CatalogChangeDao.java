@@ -0,0 +1,43 @@
+package com.smarthouse.repository;
+
+import com.smarthouse.pojo.CatalogChange;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface CatalogChangeDao extends Repository<CatalogChange, Long> {
+
+    //Current version of catalog: every transaction with smaller txid is finished
+    @Query(value = "SELECT txid_snapshot_xmin(txid_current_snapshot())", nativeQuery = true)
+    long findCurrentVersion();
+
+    //Changes of transactions with smaller txid were removed from log, 0 when nothing was removed
+    @Query(value = "SELECT coalesce(max(txid), 0) FROM catalogchangehorizon", nativeQuery = true)
+    long findHorizon();
+
+    //Rows of entity and key changed by transactions not finished before version
+    @Query("select distinct c.entity, c.changedKey from CatalogChange c where c.txid >= :version")
+    List<Object[]> findChangedSince(@Param("version") long version);
+
+    //The biggest txid of rows written before time, null when there are no such rows
+    @Query("select max(c.txid) from CatalogChange c where c.created < :before")
+    Long findLastTxidBefore(@Param("before") LocalDateTime before);
+
+    //Horizon is never moved back, rows of other nodes which raised it at the same time are joined by the next call
+    @Modifying
+    @Transactional
+    @Query(value = "WITH removed AS (DELETE FROM catalogchangehorizon RETURNING txid) " +
+            "INSERT INTO catalogchangehorizon (txid) SELECT greatest(:txid, coalesce(max(txid), 0)) FROM removed",
+            nativeQuery = true)
+    int raiseHorizon(@Param("txid") long txid);
+
+    @Modifying
+    @Transactional
+    @Query("delete from CatalogChange c where c.txid < :txid")
+    int deleteBefore(@Param("txid") long txid);
+}
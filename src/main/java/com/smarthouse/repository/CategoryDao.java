@@ -1,6 +1,7 @@
 package com.smarthouse.repository;
 
 import com.smarthouse.pojo.Category;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.Repository;
 
 import java.util.List;
@@ -12,4 +13,8 @@ public interface CategoryDao  extends Repository<Category, Integer> {
     List<Category> findByDescriptionIgnoreCase(String description);
     List<Category> findByNameIgnoreCase(String name);
     List<Category> findByCategory(Category category);
+
+    //Rows of id, name, description and parent id for CatalogSnapshot.build
+    @Query("select c.id, c.name, c.description, p.id from Category c left join c.category p")
+    List<Object[]> findAllForSnapshot();
 }
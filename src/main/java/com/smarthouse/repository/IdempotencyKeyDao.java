@@ -0,0 +1,41 @@
+package com.smarthouse.repository;
+
+import com.smarthouse.pojo.IdempotencyKey;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+public interface IdempotencyKeyDao extends Repository<IdempotencyKey, String> {
+    IdempotencyKey findByIdempotencyKey(String idempotencyKey);
+
+    //1 when key is new, or its order was not saved since staleBefore and the claim is taken over
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO idempotencykey (idempotencykey, created) VALUES (:key, :now) " +
+            "ON CONFLICT (idempotencykey) DO UPDATE SET created = :now " +
+            "WHERE idempotencykey.orderid IS NULL AND idempotencykey.created < :staleBefore", nativeQuery = true)
+    int claim(@Param("key") String key, @Param("now") LocalDateTime now, @Param("staleBefore") LocalDateTime staleBefore);
+
+    //Native query flushes the order saved in the same transaction before its id is referenced
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE idempotencykey SET orderid = :orderId " +
+            "WHERE idempotencykey = :key AND orderid IS NULL AND created = :claimed", nativeQuery = true)
+    int complete(@Param("key") String key, @Param("claimed") LocalDateTime claimed, @Param("orderId") int orderId);
+
+    //Claim of order which was not created, if it was not taken over
+    @Modifying
+    @Transactional
+    @Query("delete from IdempotencyKey k " +
+            "where k.idempotencyKey = :key and k.orderId is null and k.created = :claimed")
+    int release(@Param("key") String key, @Param("claimed") LocalDateTime claimed);
+
+    @Modifying
+    @Transactional
+    @Query("delete from IdempotencyKey k where k.created < :before")
+    int deleteCreatedBefore(@Param("before") LocalDateTime before);
+}
@@ -3,12 +3,70 @@ package com.smarthouse.repository;
 import com.smarthouse.pojo.OrderItem;
 import com.smarthouse.pojo.OrderMain;
 import com.smarthouse.pojo.ProductCard;
+import com.smarthouse.service.analytics.SalesTotal;
+import com.smarthouse.service.util.enums.EnumOrderStatus;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.query.Param;
 
+import javax.persistence.QueryHint;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface OrderItemDao extends Repository<OrderItem, Integer> {
     OrderItem save(OrderItem orderItem);
+    List<OrderItem> save(Iterable<OrderItem> orderItems);
     List<OrderItem> findByOrderMain(OrderMain orderMain);
     List<OrderItem> findByProductCard(ProductCard productCard);
+
+    //Rows of sku and sold amount of every ordered product
+    @Query("select p.sku, sum(oi.amount) from OrderItem oi join oi.productCard p group by p.sku")
+    List<Object[]> sumAmountsBySku();
+
+    //Rows of sku and sold amount of ordered products of skus
+    @Query("select oi.productCard.sku, sum(oi.amount) from OrderItem oi " +
+            "where oi.productCard.sku in :skus group by oi.productCard.sku")
+    List<Object[]> sumAmountsBySkuIn(@Param("skus") Collection<String> skus);
+
+    //Rows of orderId and sku in order of items, for co-occurrence of products in orders, read only inside transaction
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "1000"))
+    @Query("select o.orderId, p.sku from OrderItem oi join oi.orderMain o join oi.productCard p " +
+            "where o.status in :statuses order by o.orderId, oi.id")
+    Stream<Object[]> streamSkusOfOrders(@Param("statuses") Collection<EnumOrderStatus> statuses);
+
+    //Products most often ordered together with the product
+    @Query("select p.sku from OrderItem oi join oi.orderMain o join oi.productCard p " +
+            "where o.status in :statuses and p.sku <> :sku and o in " +
+            "(select so.orderMain from OrderItem so where so.productCard.sku = :sku) " +
+            "group by p.sku order by count(distinct o) desc, p.sku")
+    List<String> findAlsoBought(@Param("sku") String sku, @Param("statuses") Collection<EnumOrderStatus> statuses,
+                                Pageable pageable);
+
+    //Sales reports aggregated in DB
+
+    @Query("select new com.smarthouse.service.analytics.SalesTotal(p.sku, p.name, sum(oi.amount), sum(oi.totalprice)) " +
+            "from OrderItem oi join oi.productCard p join oi.orderMain o " +
+            "where o.status in :statuses and o.created >= :from and o.created < :to " +
+            "group by p.sku, p.name order by sum(oi.totalprice) desc")
+    List<SalesTotal> sumSalesBySku(@Param("statuses") Collection<EnumOrderStatus> statuses,
+                                   @Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+
+    @Query("select new com.smarthouse.service.analytics.SalesTotal(c.id, c.name, sum(oi.amount), sum(oi.totalprice)) " +
+            "from OrderItem oi join oi.productCard p join p.category c join oi.orderMain o " +
+            "where o.status in :statuses and o.created >= :from and o.created < :to " +
+            "group by c.id, c.name order by sum(oi.totalprice) desc")
+    List<SalesTotal> sumSalesByCategory(@Param("statuses") Collection<EnumOrderStatus> statuses,
+                                        @Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+
+    //Rows of day, amount and revenue
+    @Query(value = "SELECT CAST(o.created AS DATE) AS day, SUM(oi.amount) AS amount, SUM(oi.totalprice) AS revenue " +
+            "FROM orderitem oi JOIN ordermain o ON o.orderid = oi.ordermain " +
+            "WHERE o.status IN :statuses AND o.created >= :from AND o.created < :to " +
+            "GROUP BY day ORDER BY day", nativeQuery = true)
+    List<Object[]> sumSalesByDay(@Param("statuses") Collection<Integer> statusCodes,
+                                 @Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
 }
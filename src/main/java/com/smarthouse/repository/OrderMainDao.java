@@ -2,12 +2,32 @@ package com.smarthouse.repository;
 
 import com.smarthouse.pojo.Customer;
 import com.smarthouse.pojo.OrderMain;
+import com.smarthouse.service.util.enums.EnumOrderStatus;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface OrderMainDao extends Repository<OrderMain, Integer> {
     OrderMain save(OrderMain orderMain);
     List<OrderMain> findByCustomer(Customer customer);
     OrderMain findByOrderId(Integer orderId);
+    List<OrderMain> findByCustomerAndStatus(Customer customer, EnumOrderStatus status);
+    Slice<OrderMain> findByStatus(EnumOrderStatus status, Pageable pageable);
+
+    //Rows of orderId and created time of orders with status
+    @Query("select o.orderId, o.created from OrderMain o where o.status = :status")
+    List<Object[]> findCreatedByStatus(@Param("status") EnumOrderStatus status);
+
+    @Modifying
+    @Transactional
+    @Query("update OrderMain o set o.status = :to where o.orderId in :ids and o.status = :from")
+    int updateStatus(@Param("ids") Collection<Integer> orderIds,
+                     @Param("from") EnumOrderStatus from, @Param("to") EnumOrderStatus to);
 }
@@ -0,0 +1,18 @@
+package com.smarthouse.repository;
+
+import com.smarthouse.pojo.PriceRule;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.Repository;
+
+import java.util.List;
+
+public interface PriceRuleDao extends Repository<PriceRule, Integer> {
+    PriceRule save(PriceRule priceRule);
+    void delete(Integer id);
+    PriceRule findById(Integer id);
+
+    //Rows of sku, category id, min amount and discount for PriceTable
+    @Query("select p.sku, c.id, r.minAmount, r.discount from PriceRule r " +
+            "left join r.productCard p left join r.category c")
+    List<Object[]> findAllForTable();
+}
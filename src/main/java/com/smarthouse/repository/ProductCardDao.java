@@ -2,9 +2,15 @@ package com.smarthouse.repository;
 
 import com.smarthouse.pojo.Category;
 import com.smarthouse.pojo.ProductCard;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface ProductCardDao  extends Repository<ProductCard, String> {
@@ -13,9 +19,51 @@ public interface ProductCardDao  extends Repository<ProductCard, String> {
     void delete(String sku);
     ProductCard findBySku(String sku);
     Boolean exists(String sku);
+    List<ProductCard> findBySkuIn(Collection<String> skus);
     List<ProductCard> findByNameIgnoreCase(String name);
     List<ProductCard> findByProductDescriptionIgnoreCase(String productDescription);
     List<ProductCard> findByCategory(Category category);
+    List<ProductCard> findByNameStartingWithIgnoreCaseOrderByLikesDesc(String prefix, Pageable pageable);
     List<ProductCard> findByCategory(Category category, Sort sort);
     List<ProductCard> findAllBy(Sort sort);
+
+    //Ranges of price ordered by price, served by indexes on (category, price) and (price)
+    List<ProductCard> findByCategoryAndPriceBetweenOrderByPriceAscSkuAsc(Category category, int from, int to,
+                                                                         Pageable pageable);
+    List<ProductCard> findByPriceBetweenOrderByPriceAscSkuAsc(int from, int to, Pageable pageable);
+
+    //Rows of sku, category id, likes and dislikes without loading of entities
+    @Query("select p.sku, c.id, p.likes, p.dislikes from ProductCard p left join p.category c")
+    List<Object[]> findAllVotes();
+
+    //Rows for CatalogSnapshot.build
+    @Query("select p.sku, p.name, p.price, p.amount, p.likes, p.dislikes, p.productDescription, c.id " +
+            "from ProductCard p left join p.category c")
+    List<Object[]> findAllForSnapshot();
+
+    @Query("select p.sku from ProductCard p where p.category = :category")
+    List<String> findSkusByCategory(@Param("category") Category category);
+
+    @Query("select p.sku from ProductCard p")
+    List<String> findAllSkus();
+
+    //Prices are changed by percent in one statement, result out of int range fails the whole update,
+    //positive price is never rounded down below 1
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE productcard SET price = GREATEST(LEAST(price, 1), " +
+            "CAST(round(CAST(price AS NUMERIC) * (100 + :percent) / 100) AS INTEGER)) WHERE category = :category",
+            nativeQuery = true)
+    int repriceByCategory(@Param("category") int categoryId, @Param("percent") int percent);
+
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE productcard SET price = GREATEST(LEAST(price, 1), " +
+            "CAST(round(CAST(price AS NUMERIC) * (100 + :percent) / 100) AS INTEGER))", nativeQuery = true)
+    int repriceAll(@Param("percent") int percent);
+
+    @Modifying
+    @Transactional
+    @Query("update ProductCard p set p.likes = p.likes + :likes, p.dislikes = p.dislikes + :dislikes where p.sku = :sku")
+    int addVotes(@Param("sku") String sku, @Param("likes") int likes, @Param("dislikes") int dislikes);
 }
@@ -2,11 +2,28 @@ package com.smarthouse.repository;
 
 import com.smarthouse.pojo.ProductCard;
 import com.smarthouse.pojo.Visualization;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface VisualizationDao extends Repository<Visualization, Integer> {
     Visualization save(Visualization visualization);
     List<Visualization> findByProductCard(ProductCard productCard);
+
+    //Products are fetched in the same query, not one select per product
+    @Query("select v from Visualization v join fetch v.productCard p left join fetch p.category " +
+            "where p.sku in :skus order by v.id")
+    List<Visualization> findByProductCardSkuIn(@Param("skus") Collection<String> skus);
+
+    //Rows of sku, type and url without loading of entities
+    @Query("select v.productCard.sku, v.type, v.url from Visualization v " +
+            "where v.productCard.sku in :skus order by v.id")
+    List<Object[]> findUrlsByProductCardSkuIn(@Param("skus") Collection<String> skus);
+
+    //Rows of sku, type and url of all products for CatalogSnapshot.build
+    @Query("select p.sku, v.type, v.url from Visualization v join v.productCard p order by v.id")
+    List<Object[]> findAllForSnapshot();
 }
@@ -2,16 +2,42 @@ package com.smarthouse.service;
 
 import com.smarthouse.repository.*;
 import com.smarthouse.pojo.*;
+import com.smarthouse.service.cart.CartStore;
+import com.smarthouse.service.catalog.CatalogLookup;
+import com.smarthouse.service.catalog.CatalogSnapshotManager;
+import com.smarthouse.service.catalog.ProductView;
+import com.smarthouse.service.execution.AdmissionController;
+import com.smarthouse.service.idempotency.IdempotencyStore;
+import com.smarthouse.service.invalidation.InvalidationBus;
+import com.smarthouse.service.notification.RestockNotifier;
+import com.smarthouse.service.popularity.PopularityTracker;
+import com.smarthouse.service.pricing.CartQuote;
+import com.smarthouse.service.pricing.Money;
+import com.smarthouse.service.pricing.PricingEngine;
+import com.smarthouse.service.recommendation.RecommendationEngine;
+import com.smarthouse.service.reservation.ReservationExpiry;
+import com.smarthouse.service.search.Autocomplete;
+import com.smarthouse.service.search.Completion;
+import com.smarthouse.service.search.NumericAttributeIndex;
+import com.smarthouse.service.util.enums.EnumCachedEntity;
+import com.smarthouse.service.util.enums.EnumCompletionType;
+import com.smarthouse.service.util.enums.EnumOrderStatus;
 import com.smarthouse.service.util.validators.EmailValidator;
 import com.smarthouse.service.util.enums.EnumProductSorter;
 import com.smarthouse.service.util.enums.EnumSearcher;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.persistence.NoResultException;
 import javax.validation.ValidationException;
-import java.util.LinkedHashSet;
-import java.util.List;
-import java.util.Set;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Supplier;
+
+import static com.smarthouse.service.util.enums.EnumOrderStatus.CREATED;
+import static com.smarthouse.service.util.enums.EnumOrderStatus.SUBMITTED;
 
 public class ShopManager {
 
@@ -22,6 +48,21 @@ public class ShopManager {
     private OrderItemDao orderItemDao;
     private VisualizationDao visualizationDao;
     private AttributeValueDao attributeValueDao;
+    private PriceRuleDao priceRuleDao;
+    private PopularityTracker popularityTracker;
+    private CatalogSnapshotManager catalogSnapshotManager;
+    private InvalidationBus invalidationBus;
+    private CatalogLookup catalogLookup;
+    private AdmissionController admissionController;
+    private CartStore cartStore;
+    private PricingEngine pricingEngine;
+    private Autocomplete autocomplete;
+    private RecommendationEngine recommendationEngine;
+    private ReservationExpiry reservationExpiry;
+    private IdempotencyStore idempotencyStore;
+    private RestockNotifier restockNotifier;
+    private NumericAttributeIndex numericAttributeIndex;
+    private PlatformTransactionManager transactionManager;
 
     public ShopManager() {
     }
@@ -39,6 +80,66 @@ public class ShopManager {
         this.attributeValueDao = attributeValueDao;
     }
 
+    public void setPriceRuleDao(PriceRuleDao priceRuleDao) {
+        this.priceRuleDao = priceRuleDao;
+    }
+
+    public void setPopularityTracker(PopularityTracker popularityTracker) {
+        this.popularityTracker = popularityTracker;
+    }
+
+    public void setCatalogSnapshotManager(CatalogSnapshotManager catalogSnapshotManager) {
+        this.catalogSnapshotManager = catalogSnapshotManager;
+    }
+
+    public void setInvalidationBus(InvalidationBus invalidationBus) {
+        this.invalidationBus = invalidationBus;
+    }
+
+    public void setCatalogLookup(CatalogLookup catalogLookup) {
+        this.catalogLookup = catalogLookup;
+    }
+
+    public void setAdmissionController(AdmissionController admissionController) {
+        this.admissionController = admissionController;
+    }
+
+    public void setCartStore(CartStore cartStore) {
+        this.cartStore = cartStore;
+    }
+
+    public void setAutocomplete(Autocomplete autocomplete) {
+        this.autocomplete = autocomplete;
+    }
+
+    public void setRecommendationEngine(RecommendationEngine recommendationEngine) {
+        this.recommendationEngine = recommendationEngine;
+    }
+
+    public void setReservationExpiry(ReservationExpiry reservationExpiry) {
+        this.reservationExpiry = reservationExpiry;
+    }
+
+    public void setIdempotencyStore(IdempotencyStore idempotencyStore) {
+        this.idempotencyStore = idempotencyStore;
+    }
+
+    public void setRestockNotifier(RestockNotifier restockNotifier) {
+        this.restockNotifier = restockNotifier;
+    }
+
+    public void setNumericAttributeIndex(NumericAttributeIndex numericAttributeIndex) {
+        this.numericAttributeIndex = numericAttributeIndex;
+    }
+
+    public void setPricingEngine(PricingEngine pricingEngine) {
+        this.pricingEngine = pricingEngine;
+    }
+
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
     /**
      * Method createOrder is add or update new Customer into database
      * and also add order info in DB with compute total price
@@ -52,39 +153,318 @@ public class ShopManager {
      * @throws NoResultException   if amount of products in our order
      *                             less than on warehouse
      * @throws ValidationException if email is not valid
+     * @throws com.smarthouse.service.execution.OverloadedException
+     *                             if shop is overloaded, order was not created
      */
     public void createOrder(String email, String name, String phone,
                             String address, int amount, String sku) {
+        admit(() -> doCreateOrder(email, name, phone, address, amount, sku));
+    }
+
+    /**
+     * Method createOrder with idempotency key is createOrder which may be
+     * retried by client. Call with key that already has order returns
+     * that order, without admission and without any other work.
+     *
+     * @param idempotencyKey key generated by client once for the order, the same for retries
+     * @return OrderMain created order, or order created by the first call with the key
+     * @throws NoResultException   if amount of products in our order
+     *                             less than on warehouse
+     * @throws ValidationException if email or key is not valid, or order
+     *                             with the key is being created by other call
+     * @throws com.smarthouse.service.execution.OverloadedException
+     *                             if shop is overloaded, order was not created
+     */
+    public OrderMain createOrder(String idempotencyKey, String email, String name, String phone,
+                                 String address, int amount, String sku) {
+        if (idempotencyKey == null || idempotencyKey.isEmpty() || idempotencyKey.length() > 64)
+            throw new ValidationException("Idempotency key must have from 1 to 64 characters");
+        if (idempotencyStore == null)
+            return admit(() -> doCreateOrder(email, name, phone, address, amount, sku));
+
+        OrderMain existing = findIdempotentOrder(idempotencyKey);
+        if (existing != null)
+            return existing;
+        return admit(() -> doCreateOrderOnce(idempotencyKey, email, name, phone, address, amount, sku));
+    }
+
+    private OrderMain doCreateOrderOnce(String idempotencyKey, String email, String name, String phone,
+                                       String address, int amount, String sku) {
+
+        //Key is claimed by other call, or by other node before filters of this node knew it
+        LocalDateTime claimed = idempotencyStore.claim(idempotencyKey);
+        if (claimed == null) {
+            OrderMain existing = findIdempotentOrder(idempotencyKey);
+            if (existing == null)
+                throw new ValidationException("Order with key " + idempotencyKey + " is being created");
+            return existing;
+        }
+
+        //Order and its key are committed together, the key is released only when nothing was saved
+        OrderMain orderMain;
+        try {
+            orderMain = inTransaction(() -> {
+                OrderMain saved = saveOrder(email, name, phone, address, amount, sku);
+                if (!idempotencyStore.complete(idempotencyKey, claimed, saved.getOrderId()))
+                    throw new ValidationException("Order with key " + idempotencyKey + " was claimed by other call");
+                return saved;
+            });
+        } catch (RuntimeException e) {
+            idempotencyStore.release(idempotencyKey, claimed);
+            throw e;
+        }
+        reservationCreated(orderMain);
+        return orderMain;
+    }
+
+    private OrderMain doCreateOrder(String email, String name, String phone,
+                                    String address, int amount, String sku) {
+        OrderMain orderMain = inTransaction(() -> saveOrder(email, name, phone, address, amount, sku));
+        reservationCreated(orderMain);
+        return orderMain;
+    }
+
+    private OrderMain saveOrder(String email, String name, String phone,
+                                String address, int amount, String sku) {
 
         EmailValidator emailValidator = new EmailValidator();
 
         if (!emailValidator.validate(email))
             throw new ValidationException("Email not valid");
 
-        if (!isRequiredAmountOfProductCardAvailable(sku, amount))
+        ProductCard productCard = findProduct(sku);
+        if (productCard == null || amount > productCard.getAmount())
             throw new NoResultException();
 
-        ProductCard productCard = productCardDao.findBySku(sku);
-        int totalPrice = productCard.getPrice() * amount;
+        long totalPrice = linePrice(productCard, amount);
         Customer customer = new Customer(email, name, true, phone);
         customer = customerDao.save(customer);
-        OrderMain orderMain = new OrderMain(address, 1, customer);
+        OrderMain orderMain = new OrderMain(address, CREATED, customer);
         orderMain = orderMainDao.save(orderMain);
         orderItemDao.save(new OrderItem(amount, totalPrice, productCard, orderMain));
+        return orderMain;
+    }
+
+
+    /**
+     * Method addToCart add amount of product to cart in memory,
+     * nothing is saved to DB until checkout
+     *
+     * @param cartId id of cart, for example id of session or email
+     * @param sku    unique id of product
+     * @param amount amount of products for add
+     * @throws NoResultException     if product with this sku not exist
+     * @throws ValidationException   if amount is not positive
+     * @throws IllegalStateException if carts are not configured
+     */
+    public void addToCart(String cartId, String sku, int amount) {
+        if (amount <= 0)
+            throw new ValidationException("Amount must be positive");
+        if (findProduct(sku) == null)
+            throw new NoResultException("Product " + sku + " not exist");
+        carts().add(cartId, sku, amount);
+    }
+
+    //Set amount of product in cart, 0 remove product from cart
+    public void changeCartAmount(String cartId, String sku, int amount) {
+        if (amount < 0)
+            throw new ValidationException("Amount must not be negative");
+        carts().setAmount(cartId, sku, amount);
+    }
+
+    public void removeFromCart(String cartId, String sku) {
+        carts().remove(cartId, sku);
+    }
+
+    //Move products of anonymous cart to cart of customer after login
+    public void mergeCarts(String fromCartId, String toCartId) {
+        carts().merge(fromCartId, toCartId);
+    }
+
+    //Return amounts of products by sku, empty if cart not exist
+    public Map<String, Integer> getCart(String cartId) {
+        return carts().get(cartId);
+    }
+
+    //Prices of products in cart with discounts and the total
+    public CartQuote getCartQuote(String cartId) {
+        if (pricingEngine == null)
+            throw new IllegalStateException("Pricing of carts is not configured");
+        return pricingEngine.quote(carts().get(cartId));
+    }
+
+    /**
+     * Method checkout make one order with all products of cart.
+     * Products are read by one query, order is saved in one transaction
+     * and cart is given back only when the transaction is rolled back.
+     *
+     * @param cartId  id of cart
+     * @param email   user email address for identy each user by primary key
+     * @param name    name of user (optional)
+     * @param phone   phone number of user (optional)
+     * @param address address for receive order
+     * @return OrderMain created order
+     * @throws NoResultException     if cart is empty, product not exist or
+     *                               amount of product is less than in cart
+     * @throws ValidationException   if email is not valid
+     * @throws IllegalStateException if carts are not configured
+     */
+    public OrderMain checkout(String cartId, String email, String name, String phone, String address) {
+        return admit(() -> doCheckout(cartId, email, name, phone, address));
+    }
+
+    private OrderMain doCheckout(String cartId, String email, String name, String phone, String address) {
+
+        if (!new EmailValidator().validate(email))
+            throw new ValidationException("Email not valid");
+
+        Map<String, Integer> items = carts().take(cartId);
+        if (items.isEmpty())
+            throw new NoResultException("Cart is empty");
+
+        OrderMain orderMain;
+        try {
+            orderMain = inTransaction(() -> saveCartOrder(items, email, name, phone, address));
+        } catch (RuntimeException e) {
+            //Order was rolled back, give products back, customer may fix cart and try again
+            cartStore.addAll(cartId, items);
+            throw e;
+        }
+        reservationCreated(orderMain);
+        return orderMain;
+    }
+
+    private OrderMain saveCartOrder(Map<String, Integer> items, String email, String name,
+                                    String phone, String address) {
+        Map<String, ProductCard> products = new HashMap<>();
+        for (ProductCard productCard : productCardDao.findBySkuIn(items.keySet()))
+            products.put(productCard.getSku(), productCard);
+
+        for (Map.Entry<String, Integer> item : items.entrySet()) {
+            ProductCard productCard = products.get(item.getKey());
+            if (productCard == null || item.getValue() > productCard.getAmount())
+                throw new NoResultException("This amount of product " + item.getKey() + " not exist on our warehouse");
+        }
+
+        Customer customer = customerDao.save(new Customer(email, name, true, phone));
+        OrderMain orderMain = orderMainDao.save(new OrderMain(address, CREATED, customer));
+
+        List<OrderItem> orderItems = new ArrayList<>(items.size());
+        for (Map.Entry<String, Integer> item : items.entrySet()) {
+            ProductCard productCard = products.get(item.getKey());
+            orderItems.add(new OrderItem(item.getValue(), linePrice(productCard, item.getValue()), productCard, orderMain));
+        }
+        orderItemDao.save(orderItems);
+        return orderMain;
+    }
+
+    /**
+     * Method saveProductCard add or update product and tell caches
+     * of all nodes that the product was changed
+     *
+     * @param productCard product for save
+     * @return ProductCard saved product
+     */
+    public ProductCard saveProductCard(ProductCard productCard) {
+        ProductCard saved = productCardDao.save(productCard);
+        productsChanged(Collections.singleton(saved.getSku()));
+        return saved;
     }
 
+    /**
+     * Method savePriceRule add or update rule of discount and tell
+     * PricingEngine of all nodes to compile rules again
+     *
+     * @param priceRule rule for save
+     * @return PriceRule saved rule
+     * @throws ValidationException if discount is not from 0 to 10000
+     *                             basis points or min amount is not positive
+     */
+    public PriceRule savePriceRule(PriceRule priceRule) {
+        if (priceRule.getDiscount() < 0 || priceRule.getDiscount() > 10000)
+            throw new ValidationException("Discount must be from 0 to 10000 basis points");
+        if (priceRule.getMinAmount() < 1)
+            throw new ValidationException("Min amount must be positive");
+
+        PriceRule saved = priceRuleDao.save(priceRule);
+        if (invalidationBus != null)
+            invalidationBus.publish(EnumCachedEntity.PRICE_RULE, String.valueOf(saved.getId()));
+        else if (pricingEngine != null)
+            pricingEngine.reload();
+        return saved;
+    }
+
+    /**
+     * Method repriceProducts change prices of many products by percent
+     * with one update statement, prices are rounded half up and a
+     * positive price is never reduced below 1
+     *
+     * @param category category of products, or null for all products
+     * @param percent  change of price, for example 10 or -15
+     * @return int amount of changed products
+     * @throws ValidationException if percent is -100 or less
+     */
+    public int repriceProducts(Category category, int percent) {
+        if (percent <= -100)
+            throw new ValidationException("Price can't be reduced by " + percent + "%");
+
+        List<String> skus = category == null ? productCardDao.findAllSkus() : productCardDao.findSkusByCategory(category);
+        int changed = category == null
+                ? productCardDao.repriceAll(percent)
+                : productCardDao.repriceByCategory(category.getId(), percent);
+        productsChanged(skus);
+        return changed;
+    }
+
+    /**
+     * Method saveAttributeValue add or update value of attribute and tell
+     * caches of all nodes that attributes of the product were changed
+     *
+     * @param attributeValue value of attribute for save
+     * @return AttributeValue saved value
+     */
+    public AttributeValue saveAttributeValue(AttributeValue attributeValue) {
+        AttributeValue saved = attributeValueDao.save(attributeValue);
+        catalogChanged(EnumCachedEntity.ATTRIBUTE, skuOf(saved.getProductCard()));
+        return saved;
+    }
+
+    /**
+     * Method saveVisualization add or update image of product and tell
+     * caches of all nodes that images of the product were changed
+     *
+     * @param visualization image for save
+     * @return Visualization saved image
+     */
+    public Visualization saveVisualization(Visualization visualization) {
+        Visualization saved = visualizationDao.save(visualization);
+        catalogChanged(EnumCachedEntity.VISUALIZATION, skuOf(saved.getProductCard()));
+        return saved;
+    }
+
+    public Category saveCategory(Category category) {
+        Category saved = categoryDao.save(category);
+        if (invalidationBus != null)
+            invalidationBus.publish(EnumCachedEntity.CATEGORY, String.valueOf(saved.getId()));
+        return saved;
+    }
 
     //Return product availabitity in storehouse by amount
     public boolean isRequiredAmountOfProductCardAvailable(String sku, int amount) {
 
-        ProductCard productCard = productCardDao.findBySku(sku);
-        int productCardAmount = productCard.getAmount();
+        ProductView view = findDegraded(sku);
+        if (view != null)
+            return amount <= view.getAmount();
 
-        return amount <= productCardAmount;
+        ProductCard productCard = findProduct(sku);
+
+        return productCard != null && amount <= productCard.getAmount();
     }
 
     //Return product availabitity in storehouse
     public boolean isProductAvailable(String sku) {
+        if (findDegraded(sku) != null)
+            return true;
         return productCardDao.exists(sku);
     }
 
@@ -96,36 +476,59 @@ public class ShopManager {
      * @return void type
      * @throws NoResultException if amount of products in our order
      *                           less than on warehouse
+     * @throws com.smarthouse.service.execution.OverloadedException
+     *                           if shop is overloaded, order was not submitted
      */
     public void submitOrder(String email) {
+        admit(() -> doSubmitOrder(email));
+    }
+
+    private void doSubmitOrder(String email) {
 
         if (validateOrder(email) && customerDao.exists(email)) {
             Customer customer = customerDao.findByEmail(email);
-            List<OrderMain> ordersByCustomer = getOrdersByCustomer(customer);
+            List<OrderMain> pendingOrders = orderMainDao.findByCustomerAndStatus(customer, CREATED);
+            Set<String> changedSkus = new LinkedHashSet<>();
 
-            for (OrderMain om : ordersByCustomer) {
+            List<Set<String>> submittedOrders = new ArrayList<>(pendingOrders.size());
+            List<Integer> submittedIds = new ArrayList<>(pendingOrders.size());
 
-                if (om.getStatus() != 1)
-                    continue;
+            for (OrderMain om : pendingOrders) {
 
-                List<OrderItem> orderItemsByOrderMain = getItemOrdersByOrderMain(om);
+                //Items in order of adding, recommendations count only the first ones of big orders
+                List<OrderItem> orderItemsByOrderMain = new ArrayList<>(getItemOrdersByOrderMain(om));
+                orderItemsByOrderMain.sort(Comparator.comparingInt(OrderItem::getId));
+                Set<String> orderSkus = new LinkedHashSet<>();
                 for (OrderItem oi : orderItemsByOrderMain) {
                     ProductCard productCard = productCardDao.findBySku(oi.getProductCard().getSku());
                     int newAmount = productCard.getAmount() - oi.getAmount();
                     productCard.setAmount(newAmount);
                     productCardDao.save(productCard);
+                    changedSkus.add(productCard.getSku());
+                    orderSkus.add(productCard.getSku());
+
+                    if (popularityTracker != null)
+                        popularityTracker.purchase(productCard.getSku(), oi.getAmount());
                 }
 
-                om.setStatus(2);
+                om.setStatus(SUBMITTED);
                 orderMainDao.save(om);
+                submittedOrders.add(orderSkus);
+                submittedIds.add(om.getOrderId());
             }
+
+            if (reservationExpiry != null)
+                reservationExpiry.ordersClosed(submittedIds);
+            productsChanged(changedSkus);
+            if (recommendationEngine != null)
+                submittedOrders.forEach(recommendationEngine::orderSubmitted);
         } else
             throw new NoResultException("This amount of products not exist on our warehouse");
     }
 
     /**
      * Method validateOrder need for check amount of ProductCard
-     * on warehouse.
+     * on warehouse. Only orders still waiting for submit are checked.
      *
      * @param email is  a user email for making changes
      * @return boolean type. True if amount in order >= amount on
@@ -134,9 +537,9 @@ public class ShopManager {
     public boolean validateOrder(String email) {
         boolean isExist = true;
         Customer customer = customerDao.findByEmail(email);
-        List<OrderMain> ordersByCustomer = getOrdersByCustomer(customer);
+        List<OrderMain> pendingOrders = orderMainDao.findByCustomerAndStatus(customer, CREATED);
         l1:
-        for (OrderMain om : ordersByCustomer) {
+        for (OrderMain om : pendingOrders) {
             List<OrderItem> itemOrdersByOrderMain = getItemOrdersByOrderMain(om);
             for (OrderItem oi : itemOrdersByOrderMain) {
                 if (!isProductAvailable(oi.getProductCard().getSku())) {
@@ -153,6 +556,50 @@ public class ShopManager {
         return orderMainDao.findByCustomer(customer);
     }
 
+    public List<OrderMain> getOrdersByCustomer(Customer customer, EnumOrderStatus status) {
+        return orderMainDao.findByCustomerAndStatus(customer, status);
+    }
+
+    /**
+     * Method getOrdersByStatus need for back-office jobs that sweep
+     * orders in one status page by page, ordered by orderId.
+     * Workers that move orders out of the status should always
+     * ask for page 0, because moved orders leave the result.
+     *
+     * @param status status of orders for find
+     * @param page   zero based number of page
+     * @param size   max amount of orders in page
+     * @return List<OrderMain> orders of the page, empty after the last one
+     */
+    public List<OrderMain> getOrdersByStatus(EnumOrderStatus status, int page, int size) {
+        return orderMainDao.findByStatus(status, new PageRequest(page, size, Sort.Direction.ASC, "orderId")).getContent();
+    }
+
+    /**
+     * Method changeOrdersStatus need for move many orders to next status
+     * with one update statement. Orders that are not in status from
+     * any more (for example moved by other worker) are skipped.
+     *
+     * @param orderIds ids of orders for update
+     * @param from     status which orders must have now
+     * @param to       new status of orders
+     * @return int amount of updated orders
+     * @throws ValidationException if status from can't be changed to status to
+     */
+    public int changeOrdersStatus(Collection<Integer> orderIds, EnumOrderStatus from, EnumOrderStatus to) {
+
+        if (!from.canTransitionTo(to))
+            throw new ValidationException("Order status can't be changed from " + from + " to " + to);
+
+        if (orderIds.isEmpty())
+            return 0;
+
+        int changed = orderMainDao.updateStatus(orderIds, from, to);
+        if (from == CREATED && reservationExpiry != null)
+            reservationExpiry.ordersClosed(orderIds);
+        return changed;
+    }
+
     public List<OrderItem> getItemOrdersByOrderMain(OrderMain orderMain) {
         return orderItemDao.findByOrderMain(orderMain);
     }
@@ -225,6 +672,21 @@ public class ShopManager {
 
 // Methods for getting lists of various items
 
+    //Product for page of product, null if it not exist. Result must not be changed
+    public ProductCard getProductCard(String sku) {
+        ProductView view = findDegraded(sku);
+        if (view == null)
+            return findProduct(sku);
+
+        Category category = view.getCategoryId() == 0 ? null : getCategory(view.getCategoryId());
+        return new ProductCard(view.getSku(), view.getName(), view.getPrice(), view.getAmount(),
+                view.getLikes(), view.getDislikes(), view.getProductDescription(), category);
+    }
+
+    public Category getCategory(Integer id) {
+        return catalogLookup != null ? catalogLookup.findCategoryById(id) : categoryDao.findById(id);
+    }
+
     public List<Category> getRootCategory() {
         return categoryDao.findByCategory(null);
     }
@@ -242,6 +704,30 @@ public class ShopManager {
         return visualizationDao.findByProductCard(productCard);
     }
 
+    /**
+     * Method getVisualListByProducts need for read Visualizations of many
+     * products with one query, for example for a page of products
+     *
+     * @param productCards products for find Visualizations
+     * @return Map<String, Map<Integer, List<Visualization>>> Visualizations
+     * by sku of product and then by type, in order of products
+     */
+    public Map<String, Map<Integer, List<Visualization>>> getVisualListByProducts(Collection<ProductCard> productCards) {
+
+        Map<String, Map<Integer, List<Visualization>>> result = new LinkedHashMap<>();
+        for (ProductCard productCard : productCards)
+            result.put(productCard.getSku(), new TreeMap<>());
+
+        if (result.isEmpty())
+            return result;
+
+        for (Visualization v : visualizationDao.findByProductCardSkuIn(result.keySet()))
+            result.get(v.getProductCard().getSku())
+                    .computeIfAbsent(v.getType(), type -> new ArrayList<>()).add(v);
+
+        return result;
+    }
+
     public List<AttributeValue> getAttrValuesByProduct(ProductCard productCard) {
         return attributeValueDao.findByProductCard(productCard);
     }
@@ -264,7 +750,7 @@ public class ShopManager {
             case SORT_BY_HIGH_PRICE:
                 sort = new Sort(new Sort.Order(Sort.Direction.DESC, "price")); break;
             case SORT_BY_POPULARITY:
-                sort = new Sort(new Sort.Order(Sort.Direction.ASC, "likes")); break;
+                sort = new Sort(new Sort.Order(Sort.Direction.DESC, "likes")); break;
             case SORT_BY_UNPOPULARITY:
                 sort = new Sort(new Sort.Order(Sort.Direction.ASC, "dislikes")); break;
             default:
@@ -274,8 +760,263 @@ public class ShopManager {
         return category == null ? productCardDao.findAllBy(sort) : productCardDao.findByCategory(category, sort);
     }
 
+    /**
+     * Method likeProduct add one like to product. When PopularityTracker
+     * is set, like is only counted in memory and saved to DB by its flush.
+     *
+     * @param sku unique id of product
+     * @throws NoResultException if product with this sku not exist
+     */
+    public void likeProduct(String sku) {
+        boolean counted = popularityTracker != null
+                ? popularityTracker.like(sku)
+                : productCardDao.addVotes(sku, 1, 0) > 0;
+
+        if (!counted)
+            throw new NoResultException("Product " + sku + " not exist");
+    }
+
+    public void dislikeProduct(String sku) {
+        boolean counted = popularityTracker != null
+                ? popularityTracker.dislike(sku)
+                : productCardDao.addVotes(sku, 0, 1) > 0;
+
+        if (!counted)
+            throw new NoResultException("Product " + sku + " not exist");
+    }
+
+    /**
+     * Method autocomplete need for suggestions of search box on every
+     * typed letter. With Autocomplete they are taken from memory and
+     * tolerate one typo, without it names of products are searched in DB.
+     *
+     * @param prefix typed text
+     * @param limit  max amount of completions
+     * @return List<Completion> products and categories from the most popular
+     */
+    public List<Completion> autocomplete(String prefix, int limit) {
+        if (autocomplete != null)
+            return autocomplete.complete(prefix, limit);
+
+        List<Completion> result = new ArrayList<>();
+        if (prefix == null || prefix.trim().isEmpty() || limit <= 0)
+            return result;
+        for (ProductCard productCard : productCardDao.findByNameStartingWithIgnoreCaseOrderByLikesDesc(
+                prefix.trim(), new PageRequest(0, limit)))
+            result.add(new Completion(EnumCompletionType.PRODUCT, productCard.getSku(), productCard.getName(),
+                    productCard.getLikes()));
+        return result;
+    }
+
+    /**
+     * Method findProductsByPrice need for filter products by price, only
+     * products of the page are read by index of price
+     *
+     * @param category category of products, or null for all products
+     * @param from     min price, inclusive
+     * @param to       max price, inclusive
+     * @param page     zero based number of page
+     * @param size     max amount of products in page
+     * @return List<ProductCard> products from the cheapest
+     */
+    public List<ProductCard> findProductsByPrice(Category category, int from, int to, int page, int size) {
+        if (from > to || size <= 0)
+            return new ArrayList<>();
+
+        PageRequest pageRequest = new PageRequest(page, size);
+        return category == null
+                ? productCardDao.findByPriceBetweenOrderByPriceAscSkuAsc(from, to, pageRequest)
+                : productCardDao.findByCategoryAndPriceBetweenOrderByPriceAscSkuAsc(category, from, to, pageRequest);
+    }
+
+    /**
+     * Method findProductsByAttributeRange need for filter products by
+     * numeric attribute. With NumericAttributeIndex skus are taken from
+     * memory, without it all values of attribute are read and parsed.
+     *
+     * @param attributeName name of attribute
+     * @param from          min value, inclusive
+     * @param to            max value, inclusive
+     * @param limit         max amount of products
+     * @return List<ProductCard> products from the least value
+     */
+    public List<ProductCard> findProductsByAttributeRange(String attributeName, double from, double to, int limit) {
+        if (numericAttributeIndex != null)
+            return findProductsInOrder(numericAttributeIndex.range(attributeName, from, to, limit));
+
+        //Pairs of parsed value and product
+        List<Object[]> matched = new ArrayList<>();
+        for (AttributeValue attributeValue : attributeValueDao.findByAttributeName(new AttributeName(attributeName))) {
+            Double value = NumericAttributeIndex.parse(attributeValue.getValue());
+            if (value != null && value >= from && value <= to && attributeValue.getProductCard() != null)
+                matched.add(new Object[]{value, attributeValue.getProductCard()});
+        }
+        matched.sort(Comparator.comparingDouble((Object[] pair) -> (Double) pair[0])
+                .thenComparing(pair -> ((ProductCard) pair[1]).getSku()));
+
+        Map<String, ProductCard> result = new LinkedHashMap<>();
+        for (Object[] pair : matched)
+            if (result.size() < limit)
+                result.putIfAbsent(((ProductCard) pair[1]).getSku(), (ProductCard) pair[1]);
+        return new ArrayList<>(result.values());
+    }
+
+    /**
+     * Method watchProduct need for tell subscribed customer when product
+     * is in stock again
+     *
+     * @param sku   unique id of product
+     * @param email email of customer
+     * @throws NoResultException     if product or customer not exist
+     * @throws IllegalStateException if notifications are not configured
+     */
+    public void watchProduct(String sku, String email) {
+        if (restockNotifier == null)
+            throw new IllegalStateException("Back in stock notifications are not configured");
+        if (productCardDao.findBySku(sku) == null)
+            throw new NoResultException("Product " + sku + " not exist");
+        if (!customerDao.exists(email))
+            throw new NoResultException("Customer " + email + " not exist");
+        restockNotifier.watch(sku, email);
+    }
+
+    /**
+     * Method getMostPopular return most popular products. With PopularityTracker
+     * the ranking is taken from memory and products are read by one query,
+     * without it products are sorted by likes in DB.
+     *
+     * @param category category of products, or null for all products
+     * @param limit    max amount of products
+     * @return List<ProductCard> products ordered from most popular
+     */
+    public List<ProductCard> getMostPopular(Category category, int limit) {
+
+        if (popularityTracker == null) {
+            List<ProductCard> sorted = sortProductCard(category, EnumProductSorter.SORT_BY_POPULARITY);
+            return sorted.subList(0, Math.min(limit, sorted.size()));
+        }
+
+        return findProductsInOrder(popularityTracker.getTopSkus(category == null ? null : category.getId(), limit));
+    }
+
+    /**
+     * Method getAlsoBought return products which were most often bought
+     * together with the product. With RecommendationEngine they are taken
+     * from memory, without it orders of the product are grouped in DB.
+     *
+     * @param sku   unique id of product
+     * @param limit max amount of products
+     * @return List<ProductCard> products from the most often bought together
+     */
+    public List<ProductCard> getAlsoBought(String sku, int limit) {
+        if (limit <= 0)
+            return new ArrayList<>();
+
+        List<String> skus = recommendationEngine != null
+                ? recommendationEngine.getRelated(sku, limit)
+                : orderItemDao.findAlsoBought(sku, RecommendationEngine.SUBMITTED_STATUSES, new PageRequest(0, limit));
+        return findProductsInOrder(skus);
+    }
+
     //Private helpful methods
 
+    private OrderMain findIdempotentOrder(String idempotencyKey) {
+        Integer orderId = idempotencyStore.find(idempotencyKey);
+        return orderId == null ? null : orderMainDao.findByOrderId(orderId);
+    }
+
+    private CartStore carts() {
+        if (cartStore == null)
+            throw new IllegalStateException("Carts are not configured");
+        return cartStore;
+    }
+
+    //Call is run in one transaction, or as it is when there is no transaction manager
+    private <T> T inTransaction(Supplier<T> call) {
+        if (transactionManager == null)
+            return call.get();
+        return new TransactionTemplate(transactionManager).execute(status -> call.get());
+    }
+
+    //Order waits for submit until timeout of reservation
+    private void reservationCreated(OrderMain orderMain) {
+        if (reservationExpiry != null)
+            reservationExpiry.orderCreated(orderMain);
+    }
+
+    //Products read by one query in order of skus, missing products are skipped
+    private List<ProductCard> findProductsInOrder(List<String> skus) {
+        if (skus.isEmpty())
+            return new ArrayList<>();
+
+        Map<String, ProductCard> bySku = new HashMap<>();
+        for (ProductCard productCard : productCardDao.findBySkuIn(skus))
+            bySku.put(productCard.getSku(), productCard);
+
+        List<ProductCard> result = new ArrayList<>(skus.size());
+        for (String sku : skus) {
+            ProductCard productCard = bySku.get(sku);
+            if (productCard != null)
+                result.add(productCard);
+        }
+        return result;
+    }
+
+    //Price of order line with discounts, without PricingEngine discounts are not used
+    private long linePrice(ProductCard productCard, int amount) {
+        Money price = pricingEngine != null
+                ? pricingEngine.price(productCard, amount)
+                : Money.of(productCard.getPrice()).times(amount);
+        return price.getAmount();
+    }
+
+    private void admit(Runnable call) {
+        admit(() -> {
+            call.run();
+            return null;
+        });
+    }
+
+    private <T> T admit(Supplier<T> call) {
+        return admissionController != null ? admissionController.call(call) : call.get();
+    }
+
+    //While orders are overloaded products are read from snapshot, which may be a few seconds old
+    private ProductView findDegraded(String sku) {
+        if (admissionController == null || catalogSnapshotManager == null || !admissionController.isDegraded())
+            return null;
+        return catalogSnapshotManager.findProduct(sku);
+    }
+
+    //Concurrent reads of one sku share one query when CatalogLookup is set
+    private ProductCard findProduct(String sku) {
+        return catalogLookup != null ? catalogLookup.findBySku(sku) : productCardDao.findBySku(sku);
+    }
+
+    private void productsChanged(Collection<String> skus) {
+        catalogChanged(EnumCachedEntity.PRODUCT, skus);
+    }
+
+    //Keys are skus of products whose data of type were changed
+    private void catalogChanged(EnumCachedEntity type, Collection<String> skus) {
+        if (skus.isEmpty())
+            return;
+
+        if (invalidationBus != null) {
+            invalidationBus.publish(type, skus);
+            return;
+        }
+        //Without bus only caches of this node are told
+        if (catalogSnapshotManager != null)
+            catalogSnapshotManager.markChanged();
+        if (numericAttributeIndex != null)
+            numericAttributeIndex.invalidate(type, skus);
+    }
+
+    private static Collection<String> skuOf(ProductCard productCard) {
+        return productCard == null ? Collections.emptyList() : Collections.singletonList(productCard.getSku());
+    }
+
     private Set<ProductCard> getProductsByCategoryDescription(String criteria) {
 
         Set<ProductCard> result = new LinkedHashSet<>();
@@ -0,0 +1,59 @@
+package com.smarthouse.service.analytics;
+
+import com.smarthouse.pojo.OrderItem;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+
+//Splits list of OrderItems in halves, sums of each key are long[]{amount, revenue}
+class SalesAggregationTask extends RecursiveTask<Map<String, long[]>> {
+
+    private static final int THRESHOLD = 10_000;
+
+    private final List<OrderItem> items;
+    private final Function<OrderItem, String> classifier;
+    private final int from;
+    private final int to;
+
+    SalesAggregationTask(List<OrderItem> items, Function<OrderItem, String> classifier, int from, int to) {
+        this.items = items;
+        this.classifier = classifier;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    protected Map<String, long[]> compute() {
+
+        if (to - from <= THRESHOLD) {
+            Map<String, long[]> sums = new HashMap<>();
+            for (int i = from; i < to; i++) {
+                OrderItem item = items.get(i);
+                long[] sum = sums.computeIfAbsent(classifier.apply(item), k -> new long[2]);
+                sum[0] += item.getAmount();
+                sum[1] += item.getTotalprice();
+            }
+            return sums;
+        }
+
+        int middle = (from + to) >>> 1;
+        SalesAggregationTask left = new SalesAggregationTask(items, classifier, from, middle);
+        left.fork();
+        Map<String, long[]> right = new SalesAggregationTask(items, classifier, middle, to).compute();
+        Map<String, long[]> result = left.join();
+
+        for (Map.Entry<String, long[]> sum : right.entrySet()) {
+            long[] total = result.get(sum.getKey());
+            if (total == null) {
+                result.put(sum.getKey(), sum.getValue());
+            } else {
+                total[0] += sum.getValue()[0];
+                total[1] += sum.getValue()[1];
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,89 @@
+package com.smarthouse.service.analytics;
+
+import com.smarthouse.pojo.OrderItem;
+import com.smarthouse.repository.OrderItemDao;
+import com.smarthouse.service.util.enums.EnumOrderStatus;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+import static com.smarthouse.service.util.enums.EnumOrderStatus.*;
+
+/**
+ * SalesAnalytics builds sales reports. Reports for dashboards are grouped
+ * in DB and read only orders of the requested period, so the whole order
+ * history is never loaded. For ad-hoc analysis of OrderItems that are
+ * already in memory there is aggregate, which splits work with fork-join.
+ */
+public class SalesAnalytics {
+
+    //Orders that are paid and not cancelled
+    private static final List<EnumOrderStatus> SOLD = Arrays.asList(SUBMITTED, PROCESSING, SHIPPED, DELIVERED);
+
+    private final OrderItemDao orderItemDao;
+    private final ForkJoinPool pool;
+
+    public SalesAnalytics(OrderItemDao orderItemDao) {
+        this(orderItemDao, ForkJoinPool.commonPool());
+    }
+
+    public SalesAnalytics(OrderItemDao orderItemDao, ForkJoinPool pool) {
+        this.orderItemDao = orderItemDao;
+        this.pool = pool;
+    }
+
+    //Reports for period from (inclusive) to (exclusive), ordered by revenue
+
+    public List<SalesTotal> getSalesBySku(LocalDateTime from, LocalDateTime to) {
+        return orderItemDao.sumSalesBySku(SOLD, from, to);
+    }
+
+    public List<SalesTotal> getSalesByCategory(LocalDateTime from, LocalDateTime to) {
+        return orderItemDao.sumSalesByCategory(SOLD, from, to);
+    }
+
+    //Report ordered by day, key of each row is day in ISO format
+    public List<SalesTotal> getSalesByDay(LocalDate from, LocalDate to) {
+        List<Integer> codes = new ArrayList<>(SOLD.size());
+        for (EnumOrderStatus status : SOLD)
+            codes.add(status.getCode());
+
+        List<Object[]> rows = orderItemDao.sumSalesByDay(codes, from.atStartOfDay(), to.atStartOfDay());
+        List<SalesTotal> result = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            LocalDate day = ((Date) row[0]).toLocalDate();
+            result.add(new SalesTotal(day.toString(), null, toLong(row[1]), toLong(row[2])));
+        }
+        return result;
+    }
+
+    /**
+     * Method aggregate sums amount and revenue of OrderItems in memory
+     * in parallel.
+     *
+     * @param items      OrderItems for analysis
+     * @param classifier function that returns key of report row for item,
+     *                   for example sku or category name
+     * @return Map<String, SalesTotal> report rows by key
+     */
+    public Map<String, SalesTotal> aggregate(List<OrderItem> items, Function<OrderItem, String> classifier) {
+        Map<String, long[]> sums = pool.invoke(
+                new SalesAggregationTask(items, classifier, 0, items.size()));
+
+        Map<String, SalesTotal> result = new HashMap<>(sums.size() * 2);
+        for (Map.Entry<String, long[]> sum : sums.entrySet()) {
+            long[] value = sum.getValue();
+            result.put(sum.getKey(), new SalesTotal(sum.getKey(), null, value[0], value[1]));
+        }
+        return result;
+    }
+
+    //Native SUM comes as BigInteger or BigDecimal depending on column type
+    private static long toLong(Object value) {
+        return ((Number) value).longValue();
+    }
+}
@@ -0,0 +1,41 @@
+package com.smarthouse.service.analytics;
+
+/**
+ * SalesTotal is one row of sales report: amount of sold items and revenue
+ * for a key, which is sku, category id or day depending on the report.
+ */
+public class SalesTotal {
+
+    private final String key;
+    private final String name;
+    private final long amount;
+    private final long revenue;
+
+    public SalesTotal(String key, String name, long amount, long revenue) {
+        this.key = key;
+        this.name = name;
+        this.amount = amount;
+        this.revenue = revenue;
+    }
+
+    //Constructor for JPQL "select new" grouped by category id
+    public SalesTotal(Integer key, String name, long amount, long revenue) {
+        this(String.valueOf(key), name, amount, revenue);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public long getRevenue() {
+        return revenue;
+    }
+}
@@ -0,0 +1,282 @@
+package com.smarthouse.service.cart;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * CartStore keeps carts of customers in memory until checkout, so adding
+ * a product to cart does not touch the database. Cart is amounts of
+ * products by sku, in order of adding.
+ * <p>
+ * Carts not used for ttl are dropped. When there are more than maxCarts
+ * carts, least recently used carts are dropped. Every snapshot period
+ * changed carts are written to snapshot file, and read back on start,
+ * so carts survive restart of the node.
+ * <p>
+ * Every change of one cart is made inside ConcurrentHashMap.compute,
+ * so changes of one cart never run at the same time.
+ */
+public class CartStore {
+
+    private static final Logger log = LoggerFactory.getLogger(CartStore.class);
+
+    private static final int MAGIC = 0x43415254;
+
+    private final Path snapshotFile;
+    private final int maxCarts;
+    private final long ttlMillis;
+    private final long snapshotPeriodSeconds;
+
+    private final ConcurrentMap<String, Cart> carts = new ConcurrentHashMap<>();
+    private final AtomicBoolean changed = new AtomicBoolean();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param snapshotFile          file for snapshots, or null for carts only in memory
+     * @param maxCarts              max amount of carts
+     * @param ttlMinutes            time after last use when cart is dropped
+     * @param snapshotPeriodSeconds period of snapshots and of dropping old carts
+     */
+    public CartStore(Path snapshotFile, int maxCarts, long ttlMinutes, long snapshotPeriodSeconds) {
+        this.snapshotFile = snapshotFile;
+        this.maxCarts = maxCarts;
+        this.ttlMillis = TimeUnit.MINUTES.toMillis(ttlMinutes);
+        this.snapshotPeriodSeconds = snapshotPeriodSeconds;
+    }
+
+    public void start() {
+        load();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cart-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::maintainQuietly,
+                snapshotPeriodSeconds, snapshotPeriodSeconds, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        if (scheduler != null)
+            scheduler.shutdown();
+        maintainQuietly();
+    }
+
+    //Add amount to amount of product in cart, cart is created when not exist
+    public void add(String cartId, String sku, int amount) {
+        change(cartId, true, cart -> cart.items.merge(sku, amount, Integer::sum));
+    }
+
+    //Set amount of product in cart, 0 remove product from cart
+    public void setAmount(String cartId, String sku, int amount) {
+        change(cartId, amount > 0, cart -> {
+            if (amount > 0)
+                cart.items.put(sku, amount);
+            else
+                cart.items.remove(sku);
+        });
+    }
+
+    public void remove(String cartId, String sku) {
+        setAmount(cartId, sku, 0);
+    }
+
+    /**
+     * Method merge move products of one cart to other, for example cart
+     * of anonymous visitor to cart of customer after login. Amounts of
+     * the same product are summed.
+     *
+     * @param fromCartId cart for move, it is dropped
+     * @param toCartId   cart which gets products
+     */
+    public void merge(String fromCartId, String toCartId) {
+        if (fromCartId.equals(toCartId))
+            return;
+        Cart from = carts.remove(fromCartId);
+        if (from != null)
+            addAll(toCartId, from.copyItems());
+    }
+
+    public void addAll(String cartId, Map<String, Integer> items) {
+        if (!items.isEmpty())
+            change(cartId, true, cart -> items.forEach((sku, amount) -> cart.items.merge(sku, amount, Integer::sum)));
+    }
+
+    //Return copy of cart, empty if cart not exist
+    public Map<String, Integer> get(String cartId) {
+        AtomicReference<Map<String, Integer>> result = new AtomicReference<>(Collections.emptyMap());
+        carts.computeIfPresent(cartId, (id, cart) -> {
+            cart.touched = System.currentTimeMillis();
+            result.set(cart.copyItems());
+            return cart;
+        });
+        return result.get();
+    }
+
+    //Drop cart and return its products, for checkout
+    public Map<String, Integer> take(String cartId) {
+        Cart cart = carts.remove(cartId);
+        if (cart == null)
+            return Collections.emptyMap();
+        changed.set(true);
+        return cart.copyItems();
+    }
+
+    public void clear() {
+        carts.clear();
+        changed.set(true);
+    }
+
+    public int size() {
+        return carts.size();
+    }
+
+    //Drop carts not used for ttl and write snapshot if carts were changed
+    public void maintain() {
+        long expired = System.currentTimeMillis() - ttlMillis;
+        if (carts.values().removeIf(cart -> cart.touched < expired))
+            changed.set(true);
+
+        if (snapshotFile != null && changed.getAndSet(false)) {
+            try {
+                write();
+            } catch (IOException | RuntimeException e) {
+                changed.set(true);
+                throw new IllegalStateException("Snapshot of carts was not written to " + snapshotFile, e);
+            }
+        }
+    }
+
+    //Private helpful methods
+
+    private void change(String cartId, boolean create, Consumer<Cart> change) {
+        boolean[] created = {false};
+        carts.compute(cartId, (id, cart) -> {
+            if (cart == null) {
+                if (!create)
+                    return null;
+                cart = new Cart();
+                created[0] = true;
+            }
+            change.accept(cart);
+            cart.touched = System.currentTimeMillis();
+            return cart.items.isEmpty() ? null : cart;
+        });
+        changed.set(true);
+
+        if (created[0] && carts.size() > maxCarts)
+            evictOldest();
+    }
+
+    //Drop oldest carts until 90% of maxCarts is left, one thread does it at a time
+    private void evictOldest() {
+        if (!evicting.compareAndSet(false, true))
+            return;
+        try {
+            List<Map.Entry<String, Cart>> entries = new ArrayList<>(carts.entrySet());
+            int excess = entries.size() - maxCarts * 9 / 10;
+            if (excess <= 0)
+                return;
+            entries.sort(Comparator.comparingLong(e -> e.getValue().touched));
+            for (int i = 0; i < excess; i++)
+                carts.remove(entries.get(i).getKey(), entries.get(i).getValue());
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    //Written to temp file and moved, so reader never sees half of snapshot
+    private void write() throws IOException {
+        Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            for (String cartId : carts.keySet()) {
+                long[] touched = {0};
+                Map<String, Integer> items = copy(cartId, touched);
+                if (items == null)
+                    continue;
+
+                out.writeBoolean(true);
+                out.writeUTF(cartId);
+                out.writeLong(touched[0]);
+                out.writeInt(items.size());
+                for (Map.Entry<String, Integer> item : items.entrySet()) {
+                    out.writeUTF(item.getKey());
+                    out.writeInt(item.getValue());
+                }
+            }
+            out.writeBoolean(false);
+        }
+        Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void load() {
+        if (snapshotFile == null || !Files.exists(snapshotFile))
+            return;
+
+        long expired = System.currentTimeMillis() - ttlMillis;
+        int loaded = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("File is not a snapshot of carts");
+
+            while (in.readBoolean()) {
+                String cartId = in.readUTF();
+                Cart cart = new Cart();
+                cart.touched = in.readLong();
+                int size = in.readInt();
+                for (int i = 0; i < size; i++)
+                    cart.items.put(in.readUTF(), in.readInt());
+
+                if (cart.touched >= expired && carts.putIfAbsent(cartId, cart) == null)
+                    loaded++;
+            }
+            log.info("{} carts loaded from {}", loaded, snapshotFile);
+        } catch (IOException e) {
+            log.warn("Carts were not loaded from {}", snapshotFile, e);
+        }
+    }
+
+    //Copy of items without changing time of use, null if cart not exist
+    private Map<String, Integer> copy(String cartId, long[] touched) {
+        AtomicReference<Map<String, Integer>> result = new AtomicReference<>();
+        carts.computeIfPresent(cartId, (id, cart) -> {
+            touched[0] = cart.touched;
+            result.set(cart.copyItems());
+            return cart;
+        });
+        return result.get();
+    }
+
+    private void maintainQuietly() {
+        try {
+            maintain();
+        } catch (RuntimeException e) {
+            log.warn("Maintenance of carts failed", e);
+        }
+    }
+
+    //Changed only inside compute of its key
+    private static final class Cart {
+        final Map<String, Integer> items = new LinkedHashMap<>();
+        volatile long touched;
+
+        Map<String, Integer> copyItems() {
+            return new LinkedHashMap<>(items);
+        }
+    }
+}
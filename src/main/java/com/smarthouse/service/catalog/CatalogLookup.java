@@ -0,0 +1,101 @@
+package com.smarthouse.service.catalog;
+
+import com.smarthouse.pojo.Category;
+import com.smarthouse.pojo.ProductCard;
+import com.smarthouse.repository.CategoryDao;
+import com.smarthouse.repository.ProductCardDao;
+import com.smarthouse.service.invalidation.InvalidationListener;
+import com.smarthouse.service.util.cache.SingleFlight;
+import com.smarthouse.service.util.enums.EnumCachedEntity;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CatalogLookup reads ProductCards and Categories by key so that many
+ * threads asking for the same key at the same time share one query.
+ * Unknown skus are remembered for a short time, until the product is
+ * saved or the time is over.
+ * <p>
+ * Threads which shared a query get the same object, so results must
+ * not be changed by the caller. Inside a transaction entity is read by
+ * the caller's own persistence context, because the shared object belongs
+ * to the context of other thread and can't be linked to new entities.
+ */
+public class CatalogLookup implements InvalidationListener {
+
+    private final ProductCardDao productCardDao;
+    private final CategoryDao categoryDao;
+    private final long missingTtlNanos;
+    private final int maxMissing;
+
+    private final SingleFlight<String, ProductCard> productFlights = new SingleFlight<>();
+    private final SingleFlight<Integer, Category> categoryFlights = new SingleFlight<>();
+    private final ConcurrentMap<String, Long> missingUntil = new ConcurrentHashMap<>();
+    //Changed by every invalidation, so a query started before it can't remember a sku as missing
+    private final AtomicLong generation = new AtomicLong();
+
+    public CatalogLookup(ProductCardDao productCardDao, CategoryDao categoryDao,
+                         long missingTtlMillis, int maxMissing) {
+        this.productCardDao = productCardDao;
+        this.categoryDao = categoryDao;
+        this.missingTtlNanos = TimeUnit.MILLISECONDS.toNanos(missingTtlMillis);
+        this.maxMissing = maxMissing;
+    }
+
+    //Return null if product with this sku not exist
+    public ProductCard findBySku(String sku) {
+        if (TransactionSynchronizationManager.isActualTransactionActive())
+            return productCardDao.findBySku(sku);
+
+        Long until = missingUntil.get(sku);
+        if (until != null) {
+            if (until - System.nanoTime() > 0)
+                return null;
+            missingUntil.remove(sku, until);
+        }
+
+        long started = generation.get();
+        ProductCard productCard = productFlights.load(sku, productCardDao::findBySku);
+        if (productCard == null)
+            rememberMissing(sku, started);
+        return productCard;
+    }
+
+    public Category findCategoryById(Integer id) {
+        if (TransactionSynchronizationManager.isActualTransactionActive())
+            return categoryDao.findById(id);
+        return categoryFlights.load(id, categoryDao::findById);
+    }
+
+    @Override
+    public void invalidate(EnumCachedEntity type, Collection<String> keys) {
+        if (type != EnumCachedEntity.PRODUCT)
+            return;
+        generation.incrementAndGet();
+        for (String sku : keys)
+            missingUntil.remove(sku);
+    }
+
+    @Override
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        missingUntil.clear();
+    }
+
+    private void rememberMissing(String sku, long started) {
+        long now = System.nanoTime();
+        if (missingUntil.size() >= maxMissing)
+            missingUntil.values().removeIf(until -> until - now <= 0);
+        if (missingUntil.size() >= maxMissing)
+            return;
+
+        missingUntil.put(sku, now + missingTtlNanos);
+        if (generation.get() != started)
+            missingUntil.remove(sku);
+    }
+}
@@ -0,0 +1,406 @@
+package com.smarthouse.service.catalog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * CatalogSnapshot is an immutable copy of all ProductCards, Categories,
+ * AttributeValues and Visualizations, kept outside of the heap in a direct
+ * or memory mapped ByteBuffer, so a big catalog does not make GC pauses longer.
+ * <p>
+ * Layout: header, then sections of fixed width records for products ordered
+ * by sku, categories ordered by id, attributes and visualizations ordered by
+ * sku, then pool of strings. Product record has offsets of sku, name and
+ * description in the pool, category id (0 when product has no category),
+ * price, amount, likes and dislikes. Each string is saved in the pool once
+ * as length and UTF-8 bytes, so repeated names and descriptions take no
+ * extra space.
+ * <p>
+ * Header keeps version of catalog in DB from which the snapshot was built,
+ * txid of catalog change log since format 3, and CRC32 of everything after
+ * header, which is checked by open.
+ */
+public final class CatalogSnapshot {
+
+    static final int MAGIC = 0x43544C47;
+    static final int FORMAT = 3;
+
+    static final int HEADER_SIZE = 48;
+    static final int RECORD_SIZE = 32;
+    static final int CATEGORY_SIZE = 16;
+    static final int ATTRIBUTE_SIZE = 12;
+    static final int VISUALIZATION_SIZE = 12;
+
+    //Fields of product record
+    static final int SKU = 0;
+    static final int NAME = 4;
+    static final int DESCRIPTION = 8;
+    static final int CATEGORY = 12;
+    static final int PRICE = 16;
+    static final int AMOUNT = 20;
+    static final int LIKES = 24;
+    static final int DISLIKES = 28;
+
+    //Fields of category record
+    static final int CATEGORY_ID = 0;
+    static final int CATEGORY_NAME = 4;
+    static final int CATEGORY_DESCRIPTION = 8;
+    static final int CATEGORY_PARENT = 12;
+
+    //Header fields
+    private static final int VERSION_FIELD = 8;
+    private static final int CHECKSUM_FIELD = 16;
+    private static final int COUNTS_FIELD = 20;
+    private static final int POOL_FIELD = 36;
+
+    private static final int NULL_STRING = -1;
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int categories;
+    private final int attributes;
+    private final int visualizations;
+    private final int categoriesOffset;
+    private final int attributesOffset;
+    private final int visualizationsOffset;
+
+    private CatalogSnapshot(ByteBuffer buffer) {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT)
+            throw new IllegalArgumentException("Buffer is not a catalog snapshot of format " + FORMAT);
+        this.buffer = buffer;
+        this.size = buffer.getInt(COUNTS_FIELD);
+        this.categories = buffer.getInt(COUNTS_FIELD + 4);
+        this.attributes = buffer.getInt(COUNTS_FIELD + 8);
+        this.visualizations = buffer.getInt(COUNTS_FIELD + 12);
+        this.categoriesOffset = HEADER_SIZE + size * RECORD_SIZE;
+        this.attributesOffset = categoriesOffset + categories * CATEGORY_SIZE;
+        this.visualizationsOffset = attributesOffset + attributes * ATTRIBUTE_SIZE;
+    }
+
+    //Snapshot of products only, with version 0
+    public static CatalogSnapshot build(List<Object[]> rows) {
+        List<Object[]> none = Collections.emptyList();
+        return build(0, rows, none, none, none);
+    }
+
+    /**
+     * Method build make snapshot in direct buffer
+     *
+     * @param version        version of catalog in DB, read before rows
+     * @param products       rows of sku, name, price, amount, likes, dislikes,
+     *                       product description and category id (may be null)
+     * @param categories     rows of id, name, description and parent id (may be null)
+     * @param attributes     rows of sku, attribute name and value
+     * @param visualizations rows of sku, type and url, in order of id
+     * @return CatalogSnapshot with all rows
+     */
+    public static CatalogSnapshot build(long version, List<Object[]> products, List<Object[]> categories,
+                                        List<Object[]> attributes, List<Object[]> visualizations) {
+        Pool pool = new Pool(HEADER_SIZE + RECORD_SIZE * products.size() + CATEGORY_SIZE * categories.size()
+                + ATTRIBUTE_SIZE * attributes.size() + VISUALIZATION_SIZE * visualizations.size());
+
+        ByteBuffer records = ByteBuffer.allocate(pool.offset - HEADER_SIZE);
+
+        //Records are sorted by bytes of sku for binary search
+        for (Object[] row : sortBySku(products)) {
+            records.putInt(pool.intern((String) row[0]));
+            records.putInt(pool.intern((String) row[1]));
+            records.putInt(pool.intern((String) row[6]));
+            records.putInt(row[7] == null ? 0 : (Integer) row[7]);
+            records.putInt((Integer) row[2]);
+            records.putInt((Integer) row[3]);
+            records.putInt((Integer) row[4]);
+            records.putInt((Integer) row[5]);
+        }
+
+        List<Object[]> sortedCategories = new ArrayList<>(categories);
+        sortedCategories.sort(Comparator.comparingInt(row -> (Integer) row[0]));
+        for (Object[] row : sortedCategories) {
+            records.putInt((Integer) row[0]);
+            records.putInt(pool.intern((String) row[1]));
+            records.putInt(pool.intern((String) row[2]));
+            records.putInt(row[3] == null ? 0 : (Integer) row[3]);
+        }
+
+        for (Object[] row : sortBySku(attributes)) {
+            records.putInt(pool.intern((String) row[0]));
+            records.putInt(pool.intern((String) row[1]));
+            records.putInt(pool.intern((String) row[2]));
+        }
+
+        for (Object[] row : sortBySku(visualizations)) {
+            records.putInt(pool.intern((String) row[0]));
+            records.putInt((Integer) row[1]);
+            records.putInt(pool.intern((String) row[2]));
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(pool.offset).order(ByteOrder.BIG_ENDIAN);
+        buffer.position(HEADER_SIZE);
+        records.flip();
+        buffer.put(records);
+        for (byte[] bytes : pool.strings)
+            buffer.putInt(bytes.length).put(bytes);
+
+        int poolOffset = HEADER_SIZE + records.limit();
+        buffer.putInt(0, MAGIC).putInt(4, FORMAT).putLong(VERSION_FIELD, version)
+                .putInt(COUNTS_FIELD, products.size()).putInt(COUNTS_FIELD + 4, categories.size())
+                .putInt(COUNTS_FIELD + 8, attributes.size()).putInt(COUNTS_FIELD + 12, visualizations.size())
+                .putInt(POOL_FIELD, poolOffset).putInt(POOL_FIELD + 4, pool.offset - poolOffset);
+        buffer.putInt(CHECKSUM_FIELD, checksum(buffer));
+        buffer.clear();
+
+        return new CatalogSnapshot(buffer.asReadOnlyBuffer());
+    }
+
+    /**
+     * Method open map snapshot which was saved by write, file is not read
+     * into memory, only checked once
+     *
+     * @param path file of snapshot
+     * @return CatalogSnapshot mapped from file
+     * @throws IOException if file is not a snapshot of this format or is damaged
+     */
+    public static CatalogSnapshot open(Path path) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE)
+                throw new IOException("File " + path + " is not a catalog snapshot");
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT)
+            throw new IOException("File " + path + " is not a catalog snapshot of format " + FORMAT);
+        if (buffer.getInt(CHECKSUM_FIELD) != checksum(buffer))
+            throw new IOException("Catalog snapshot " + path + " is damaged");
+        return new CatalogSnapshot(buffer);
+    }
+
+    //Written to temp file and moved, so mapped old file is never changed
+    public void write(Path path) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer source = buffer.duplicate();
+            source.clear();
+            while (source.hasRemaining())
+                channel.write(source);
+            channel.force(false);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    //Version of catalog in DB when snapshot was built
+    public long getVersion() {
+        return buffer.getLong(VERSION_FIELD);
+    }
+
+    //Amount of products
+    public int size() {
+        return size;
+    }
+
+    public int categoryCount() {
+        return categories;
+    }
+
+    //Size of snapshot in bytes
+    public int byteSize() {
+        return buffer.capacity();
+    }
+
+    //Return index of product, or -1 if product with this sku not exist
+    public int indexOf(String sku) {
+        byte[] key = sku.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = size - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int cmp = compareString(intAt(middle, SKU), key);
+            if (cmp < 0)
+                low = middle + 1;
+            else if (cmp > 0)
+                high = middle - 1;
+            else
+                return middle;
+        }
+        return -1;
+    }
+
+    //Return view of product, or null if product with this sku not exist
+    public ProductView find(String sku) {
+        int index = indexOf(sku);
+        return index < 0 ? null : new ProductView(this, index);
+    }
+
+    //View for walking through all products, move it with ProductView.moveTo
+    public ProductView cursor() {
+        return new ProductView(this, 0);
+    }
+
+    //Return view of category, or null if category with this id not exist
+    public CategoryView findCategory(int id) {
+        int low = 0;
+        int high = categories - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int cmp = Integer.compare(categoryIntAt(middle, CATEGORY_ID), id);
+            if (cmp < 0)
+                low = middle + 1;
+            else if (cmp > 0)
+                high = middle - 1;
+            else
+                return new CategoryView(this, middle);
+        }
+        return null;
+    }
+
+    //Values of attributes of product by name of attribute
+    public Map<String, String> findAttributes(String sku) {
+        Map<String, String> result = new LinkedHashMap<>();
+        byte[] key = sku.getBytes(StandardCharsets.UTF_8);
+        for (int i = lowerBound(attributesOffset, ATTRIBUTE_SIZE, attributes, key); i < attributes; i++) {
+            int record = attributesOffset + i * ATTRIBUTE_SIZE;
+            if (compareString(buffer.getInt(record), key) != 0)
+                break;
+            result.put(string(buffer.getInt(record + 4)), string(buffer.getInt(record + 8)));
+        }
+        return result;
+    }
+
+    //Rows of sku, type and url of product, in order of id as from VisualizationDao
+    public List<Object[]> findVisualizations(String sku) {
+        List<Object[]> result = new ArrayList<>();
+        byte[] key = sku.getBytes(StandardCharsets.UTF_8);
+        for (int i = lowerBound(visualizationsOffset, VISUALIZATION_SIZE, visualizations, key); i < visualizations; i++) {
+            int record = visualizationsOffset + i * VISUALIZATION_SIZE;
+            if (compareString(buffer.getInt(record), key) != 0)
+                break;
+            result.add(new Object[]{sku, buffer.getInt(record + 4), string(buffer.getInt(record + 8))});
+        }
+        return result;
+    }
+
+    int intAt(int index, int field) {
+        return buffer.getInt(HEADER_SIZE + index * RECORD_SIZE + field);
+    }
+
+    String stringAt(int index, int field) {
+        return string(intAt(index, field));
+    }
+
+    int categoryIntAt(int index, int field) {
+        return buffer.getInt(categoriesOffset + index * CATEGORY_SIZE + field);
+    }
+
+    String categoryStringAt(int index, int field) {
+        return string(categoryIntAt(index, field));
+    }
+
+    //Private helpful methods
+
+    private String string(int offset) {
+        if (offset == NULL_STRING)
+            return null;
+
+        byte[] bytes = new byte[buffer.getInt(offset)];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = buffer.get(offset + 4 + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    //Index of the first record with sku not less than key, sku is the first field of record
+    private int lowerBound(int sectionOffset, int recordSize, int count, byte[] key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareString(buffer.getInt(sectionOffset + middle * recordSize), key) < 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    private int compareString(int offset, byte[] key) {
+        int length = buffer.getInt(offset);
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = (buffer.get(offset + 4 + i) & 0xFF) - (key[i] & 0xFF);
+            if (cmp != 0)
+                return cmp;
+        }
+        return length - key.length;
+    }
+
+    private static int checksum(ByteBuffer buffer) {
+        ByteBuffer body = buffer.duplicate();
+        body.clear().position(HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    //Stable sort, so rows of one sku keep their order
+    private static List<Object[]> sortBySku(List<Object[]> rows) {
+        List<byte[]> skus = new ArrayList<>(rows.size());
+        Integer[] order = new Integer[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            skus.add(((String) rows.get(i)[0]).getBytes(StandardCharsets.UTF_8));
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> compare(skus.get(a), skus.get(b)));
+
+        List<Object[]> sorted = new ArrayList<>(rows.size());
+        for (Integer i : order)
+            sorted.add(rows.get(i));
+        return sorted;
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        int common = Math.min(a.length, b.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (cmp != 0)
+                return cmp;
+        }
+        return a.length - b.length;
+    }
+
+    //Strings of snapshot, each saved once
+    private static final class Pool {
+        final Map<String, Integer> dictionary = new HashMap<>();
+        final List<byte[]> strings = new ArrayList<>();
+        int offset;
+
+        Pool(int offset) {
+            this.offset = offset;
+        }
+
+        int intern(String value) {
+            if (value == null)
+                return NULL_STRING;
+
+            Integer result = dictionary.get(value);
+            if (result == null) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                result = offset;
+                offset += 4 + bytes.length;
+                strings.add(bytes);
+                dictionary.put(value, result);
+            }
+            return result;
+        }
+    }
+}
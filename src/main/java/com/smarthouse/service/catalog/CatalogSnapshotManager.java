@@ -0,0 +1,253 @@
+package com.smarthouse.service.catalog;
+
+import com.smarthouse.repository.AttributeValueDao;
+import com.smarthouse.repository.CatalogChangeDao;
+import com.smarthouse.repository.CategoryDao;
+import com.smarthouse.repository.ProductCardDao;
+import com.smarthouse.repository.VisualizationDao;
+import com.smarthouse.service.invalidation.InvalidationListener;
+import com.smarthouse.service.util.enums.EnumCachedEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CatalogSnapshotManager keeps current CatalogSnapshot. After markChanged
+ * the snapshot is built again from DB by background thread and swapped,
+ * readers keep using the old snapshot until the new one is ready.
+ * Many changes between two checks give one rebuild.
+ * <p>
+ * With snapshot file every built snapshot is saved, and on start the file
+ * is mapped instead of reading the whole catalog from DB. Entities changed
+ * in DB after version of the file are read from catalog change log and
+ * marked as changed, so find methods give null for them until the next
+ * rebuild, and the node serves everything else at once.
+ * <p>
+ * Version of snapshot is txid below which every transaction was finished
+ * before the snapshot was read, so changes of transactions committed later
+ * in other order are never missed. Stock and votes are not logged, so they
+ * are refreshed by rebuild soon after start. Rows of the log older than
+ * retention are removed every hour, a file older than removed rows is not
+ * used.
+ */
+public class CatalogSnapshotManager implements InvalidationListener {
+
+    private static final Logger log = LoggerFactory.getLogger(CatalogSnapshotManager.class);
+
+    private final ProductCardDao productCardDao;
+    private final CategoryDao categoryDao;
+    private final AttributeValueDao attributeValueDao;
+    private final VisualizationDao visualizationDao;
+    private final CatalogChangeDao catalogChangeDao;
+    private final Path snapshotFile;
+    private final long checkPeriodSeconds;
+    private final AtomicBoolean changed = new AtomicBoolean();
+    private long retentionHours = 24 * 7;
+
+    //Changed entities by "TYPE:key", value is number of change
+    private final ConcurrentMap<String, Long> dirty = new ConcurrentHashMap<>();
+    private final AtomicLong changes = new AtomicLong();
+    //Number of change when all entities were changed, and last change covered by snapshot
+    private volatile long allDirty;
+    private volatile long covered;
+
+    private volatile CatalogSnapshot snapshot;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param snapshotFile       file for snapshot, or null to build it from DB on every start
+     * @param checkPeriodSeconds period of checks for rebuild
+     */
+    public CatalogSnapshotManager(ProductCardDao productCardDao, CategoryDao categoryDao,
+                                  AttributeValueDao attributeValueDao, VisualizationDao visualizationDao,
+                                  CatalogChangeDao catalogChangeDao, Path snapshotFile, long checkPeriodSeconds) {
+        this.productCardDao = productCardDao;
+        this.categoryDao = categoryDao;
+        this.attributeValueDao = attributeValueDao;
+        this.visualizationDao = visualizationDao;
+        this.catalogChangeDao = catalogChangeDao;
+        this.snapshotFile = snapshotFile;
+        this.checkPeriodSeconds = checkPeriodSeconds;
+    }
+
+    //Rows of catalog change log are kept for it, nodes stopped for longer build snapshot from DB
+    public void setRetentionHours(long retentionHours) {
+        this.retentionHours = retentionHours;
+    }
+
+    public void start() {
+        if (!openFile())
+            rebuild();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "catalog-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::rebuildIfChanged,
+                checkPeriodSeconds, checkPeriodSeconds, TimeUnit.SECONDS);
+        scheduler.scheduleWithFixedDelay(this::purgeChangeLogQuietly, 1, 1, TimeUnit.HOURS);
+    }
+
+    public void stop() {
+        if (scheduler != null)
+            scheduler.shutdown();
+    }
+
+    public CatalogSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    //Return null if product not exist in snapshot or was changed after it
+    public ProductView findProduct(String sku) {
+        CatalogSnapshot current = snapshot;
+        return current == null || isDirty(EnumCachedEntity.PRODUCT, sku) ? null : current.find(sku);
+    }
+
+    public CategoryView findCategory(int id) {
+        CatalogSnapshot current = snapshot;
+        return current == null || isDirty(EnumCachedEntity.CATEGORY, String.valueOf(id)) ? null : current.findCategory(id);
+    }
+
+    //Return null if product not exist in snapshot or its attributes were changed after it
+    public Map<String, String> findAttributes(String sku) {
+        CatalogSnapshot current = snapshot;
+        if (current == null || isDirty(EnumCachedEntity.ATTRIBUTE, sku) || current.indexOf(sku) < 0)
+            return null;
+        return current.findAttributes(sku);
+    }
+
+    //Rows of sku, type and url, null if product not exist in snapshot or its images were changed after it
+    public List<Object[]> findVisualizations(String sku) {
+        CatalogSnapshot current = snapshot;
+        if (current == null || isDirty(EnumCachedEntity.VISUALIZATION, sku) || current.indexOf(sku) < 0)
+            return null;
+        return current.findVisualizations(sku);
+    }
+
+    public void markChanged() {
+        changed.set(true);
+    }
+
+    @Override
+    public void invalidate(EnumCachedEntity type, Collection<String> keys) {
+        if (type == EnumCachedEntity.PRICE_RULE)
+            return;
+        for (String key : keys)
+            dirty.put(type.name() + ':' + key, changes.incrementAndGet());
+        markChanged();
+    }
+
+    @Override
+    public void invalidateAll() {
+        allDirty = changes.incrementAndGet();
+        markChanged();
+    }
+
+    public synchronized void rebuild() {
+        changed.set(false);
+        long started = changes.get();
+
+        //Version is read first, changes made during reading are applied again later
+        long version = catalogChangeDao.findCurrentVersion();
+        CatalogSnapshot built = CatalogSnapshot.build(version, productCardDao.findAllForSnapshot(),
+                categoryDao.findAllForSnapshot(), attributeValueDao.findAllForSnapshot(),
+                visualizationDao.findAllForSnapshot());
+
+        snapshot = built;
+        covered = started;
+        dirty.values().removeIf(change -> change <= started);
+
+        if (snapshotFile != null) {
+            try {
+                built.write(snapshotFile);
+            } catch (IOException e) {
+                log.warn("Catalog snapshot was not saved to {}", snapshotFile, e);
+            }
+        }
+    }
+
+    /**
+     * Method purgeChangeLog remove rows of catalog change log written
+     * before time. Horizon is raised before rows are removed, so a node
+     * never misses removed changes.
+     *
+     * @param before time of the oldest row to keep
+     * @return int amount of removed rows
+     */
+    public int purgeChangeLog(LocalDateTime before) {
+        Long last = catalogChangeDao.findLastTxidBefore(before);
+        if (last == null)
+            return 0;
+        catalogChangeDao.raiseHorizon(last + 1);
+        return catalogChangeDao.deleteBefore(last + 1);
+    }
+
+    //Private helpful methods
+
+    private boolean isDirty(EnumCachedEntity type, String key) {
+        return allDirty > covered || dirty.containsKey(type.name() + ':' + key);
+    }
+
+    //Return false if snapshot must be built from DB
+    private boolean openFile() {
+        if (snapshotFile == null || !Files.exists(snapshotFile))
+            return false;
+
+        try {
+            CatalogSnapshot mapped = CatalogSnapshot.open(snapshotFile);
+            if (mapped.getVersion() > catalogChangeDao.findCurrentVersion()) {
+                log.info("Catalog snapshot {} is newer than DB, it is built again", snapshotFile);
+                return false;
+            }
+            if (mapped.getVersion() < catalogChangeDao.findHorizon()) {
+                log.info("Changes after catalog snapshot {} are not in log any more", snapshotFile);
+                return false;
+            }
+
+            for (Object[] row : catalogChangeDao.findChangedSince(mapped.getVersion()))
+                dirty.put(row[0] + ":" + row[1], changes.incrementAndGet());
+            //Stock and votes are not in log, they are read by the next rebuild
+            markChanged();
+
+            snapshot = mapped;
+            log.info("Catalog snapshot {} of version {} is mapped, {} entities changed after it",
+                    snapshotFile, mapped.getVersion(), dirty.size());
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Catalog snapshot {} can't be used", snapshotFile, e);
+            return false;
+        }
+    }
+
+    private void purgeChangeLogQuietly() {
+        try {
+            int purged = purgeChangeLog(LocalDateTime.now().minusHours(retentionHours));
+            if (purged > 0)
+                log.info("{} rows of catalog change log were removed", purged);
+        } catch (RuntimeException e) {
+            log.warn("Catalog change log was not purged", e);
+        }
+    }
+
+    private void rebuildIfChanged() {
+        if (!changed.get())
+            return;
+        try {
+            rebuild();
+        } catch (RuntimeException e) {
+            //Try again with next check
+            changed.set(true);
+            log.warn("Catalog snapshot was not rebuilt", e);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.smarthouse.service.catalog;
+
+import static com.smarthouse.service.catalog.CatalogSnapshot.*;
+
+/**
+ * CategoryView shows one category of CatalogSnapshot with the same
+ * getters as Category, parent is given by id.
+ */
+public final class CategoryView {
+
+    private final CatalogSnapshot snapshot;
+    private final int index;
+
+    CategoryView(CatalogSnapshot snapshot, int index) {
+        this.snapshot = snapshot;
+        this.index = index;
+    }
+
+    public int getId() {
+        return snapshot.categoryIntAt(index, CATEGORY_ID);
+    }
+
+    public String getName() {
+        return snapshot.categoryStringAt(index, CATEGORY_NAME);
+    }
+
+    public String getDescription() {
+        return snapshot.categoryStringAt(index, CATEGORY_DESCRIPTION);
+    }
+
+    //Return 0 for root category
+    public int getParentId() {
+        return snapshot.categoryIntAt(index, CATEGORY_PARENT);
+    }
+}
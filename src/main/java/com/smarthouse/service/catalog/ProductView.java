@@ -0,0 +1,64 @@
+package com.smarthouse.service.catalog;
+
+import static com.smarthouse.service.catalog.CatalogSnapshot.*;
+
+/**
+ * ProductView shows one product of CatalogSnapshot with the same getters
+ * as ProductCard. Numbers are read straight from the snapshot without
+ * allocation, strings are decoded on each call. One view can be moved
+ * through all products instead of making a view per product.
+ */
+public final class ProductView {
+
+    private final CatalogSnapshot snapshot;
+    private int index;
+
+    ProductView(CatalogSnapshot snapshot, int index) {
+        this.snapshot = snapshot;
+        this.index = index;
+    }
+
+    public ProductView moveTo(int index) {
+        if (index < 0 || index >= snapshot.size())
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + snapshot.size());
+        this.index = index;
+        return this;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getSku() {
+        return snapshot.stringAt(index, SKU);
+    }
+
+    public String getName() {
+        return snapshot.stringAt(index, NAME);
+    }
+
+    public String getProductDescription() {
+        return snapshot.stringAt(index, DESCRIPTION);
+    }
+
+    //Return 0 if product has no category
+    public int getCategoryId() {
+        return snapshot.intAt(index, CATEGORY);
+    }
+
+    public int getPrice() {
+        return snapshot.intAt(index, PRICE);
+    }
+
+    public int getAmount() {
+        return snapshot.intAt(index, AMOUNT);
+    }
+
+    public int getLikes() {
+        return snapshot.intAt(index, LIKES);
+    }
+
+    public int getDislikes() {
+        return snapshot.intAt(index, DISLIKES);
+    }
+}
@@ -0,0 +1,125 @@
+package com.smarthouse.service.execution;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * AdmissionController limits how many calls of one kind work at the same
+ * time, for example calls that write orders. A call over the limit is not
+ * queued but fails at once with OverloadedException, so waiting time of
+ * callers stays bounded when the database slows down.
+ * <p>
+ * The limit follows observed latency. A call that finished within target
+ * latency while the limit was in use adds 1/limit to it, so the limit grows
+ * by one per limit fast calls. A slower call cuts the limit by the ratio of
+ * target to observed latency, but not more than by half and not more than
+ * once per target latency, so one batch of slow calls is counted once.
+ * <p>
+ * After a rejected or slow call the controller stays degraded for
+ * retryAfterMillis. Callers may use it to serve reads from caches.
+ */
+public class AdmissionController {
+
+    private static final double MAX_DECREASE = 0.5;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetNanos;
+    private final long retryAfterMillis;
+
+    //Guarded by this
+    private double limit;
+    private int inFlight;
+    private long lastDecrease;
+    private long rejected;
+
+    private volatile long degradedUntil;
+
+    public AdmissionController(int initialLimit, int minLimit, int maxLimit,
+                               long targetLatencyMillis, long retryAfterMillis) {
+        if (minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit)
+            throw new IllegalArgumentException("Wrong limits: " + minLimit + " <= " + initialLimit + " <= " + maxLimit);
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.retryAfterMillis = retryAfterMillis;
+        this.degradedUntil = System.nanoTime();
+        this.lastDecrease = degradedUntil - targetNanos;
+    }
+
+    /**
+     * Method call run the call if the limit is not reached
+     *
+     * @param call work for run in the current thread
+     * @return T result of call
+     * @throws OverloadedException if the limit is reached, call is not run
+     */
+    public <T> T call(Supplier<T> call) {
+        acquire();
+        long start = System.nanoTime();
+        try {
+            return call.get();
+        } finally {
+            release(System.nanoTime() - start);
+        }
+    }
+
+    public void run(Runnable call) {
+        call(() -> {
+            call.run();
+            return null;
+        });
+    }
+
+    public boolean isDegraded() {
+        return degradedUntil - System.nanoTime() > 0;
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    //Amount of calls rejected from start
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    //Private helpful methods
+
+    private synchronized void acquire() {
+        if (inFlight >= (int) limit) {
+            rejected++;
+            degrade();
+            throw new OverloadedException("Limit of " + (int) limit + " calls is reached", retryAfterMillis);
+        }
+        inFlight++;
+    }
+
+    private synchronized void release(long latencyNanos) {
+        boolean used = inFlight * 2 >= (int) limit;
+        inFlight--;
+
+        if (latencyNanos <= targetNanos) {
+            if (used)
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            return;
+        }
+
+        degrade();
+        long now = System.nanoTime();
+        if (now - lastDecrease < targetNanos)
+            return;
+        lastDecrease = now;
+        double gradient = Math.max(MAX_DECREASE, (double) targetNanos / latencyNanos);
+        limit = Math.max(minLimit, limit * gradient);
+    }
+
+    private void degrade() {
+        degradedUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryAfterMillis);
+    }
+}
@@ -0,0 +1,22 @@
+package com.smarthouse.service.execution;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * OverloadedException means the call was not started because the shop
+ * is overloaded. Nothing was changed, so the call can be repeated
+ * after getRetryAfterMillis.
+ */
+public class OverloadedException extends RejectedExecutionException {
+
+    private final long retryAfterMillis;
+
+    public OverloadedException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
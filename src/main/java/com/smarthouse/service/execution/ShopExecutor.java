@@ -0,0 +1,100 @@
+package com.smarthouse.service.execution;
+
+import com.smarthouse.service.util.enums.EnumExecutionMode;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ShopExecutor runs calls of ShopManager on other threads.
+ * <p>
+ * With VIRTUAL_THREADS every call gets its own virtual thread, so waiting
+ * on JDBC does not hold an OS thread and the amount of calls in flight is
+ * not limited by a thread pool. The amount of calls which work at the same
+ * time is limited by permits, which should follow the size of connection
+ * pool. A call that gets no permit during admission timeout fails with
+ * RejectedExecutionException.
+ * <p>
+ * With PLATFORM_THREADS calls are run by a fixed pool with one thread per
+ * permit, as it was before.
+ */
+public class ShopExecutor {
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final int maxPermits;
+    private final long admissionTimeoutMillis;
+
+    public ShopExecutor(EnumExecutionMode mode, int permits, long admissionTimeoutMillis) {
+        this.maxPermits = permits;
+        this.permits = new Semaphore(permits, true);
+        this.admissionTimeoutMillis = admissionTimeoutMillis;
+        this.executor = mode == EnumExecutionMode.VIRTUAL_THREADS
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("shop-", 0).factory())
+                : Executors.newFixedThreadPool(permits, platformThreads());
+    }
+
+    public <T> CompletableFuture<T> submit(Callable<T> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                result.complete(admit(call));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    public CompletableFuture<Void> run(Runnable call) {
+        return submit(() -> {
+            call.run();
+            return null;
+        });
+    }
+
+    //Waits for result, exceptions of call are thrown as they are
+    public <T> T call(Callable<T> call) {
+        try {
+            return submit(call).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    //Calls which work now
+    public int getActiveCalls() {
+        return maxPermits - permits.availablePermits();
+    }
+
+    //Calls which wait for permit
+    public int getWaitingCalls() {
+        return permits.getQueueLength();
+    }
+
+    public void stop() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(admissionTimeoutMillis + 5000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private <T> T admit(Callable<T> call) throws Exception {
+        if (!permits.tryAcquire(admissionTimeoutMillis, TimeUnit.MILLISECONDS))
+            throw new RejectedExecutionException("No free permit for " + admissionTimeoutMillis + " ms");
+        try {
+            return call.call();
+        } finally {
+            permits.release();
+        }
+    }
+
+    private static ThreadFactory platformThreads() {
+        AtomicInteger number = new AtomicInteger();
+        return r -> new Thread(r, "shop-platform-" + number.getAndIncrement());
+    }
+}
@@ -0,0 +1,369 @@
+package com.smarthouse.service.export;
+
+import com.smarthouse.service.util.enums.EnumExportFormat;
+import com.smarthouse.service.util.enums.EnumOrderStatus;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.*;
+
+/**
+ * OrderExporter writes all orders with their items and customers to a file,
+ * one line per OrderItem (one line with empty item for order without items),
+ * ordered by orderId.
+ * <p>
+ * Rows are read through one forward-only cursor, fetchSize rows at a time,
+ * and every line is encoded into one reused buffer which is written to
+ * FileChannel when it is full. So memory does not depend on amount of orders.
+ * <p>
+ * CSV follows RFC 4180: values with comma, quote or line break are quoted,
+ * quotes inside are doubled and line breaks are written as they are.
+ * <p>
+ * Export may be stopped at any moment. resume cuts the file before the last
+ * order which could be written partly and returns orderId to continue after.
+ * Orders are written in order of orderId, so all orders before it are full.
+ * NDJSON has no line breaks inside rows and is scanned back from the end.
+ * CSV is read once from the start, because only quotes before a line break
+ * tell whether it ends a row.
+ */
+public class OrderExporter {
+
+    private static final String QUERY = "SELECT o.orderid, o.created, o.status, o.address, " +
+            "c.email, c.name, c.phone, oi.id, oi.productcard, oi.amount, oi.totalprice " +
+            "FROM ordermain o JOIN customer c ON c.email = o.customer " +
+            "LEFT JOIN orderitem oi ON oi.ordermain = o.orderid " +
+            "WHERE o.orderid > ? ORDER BY o.orderid, oi.id";
+
+    private static final String[] COLUMNS = {"orderId", "created", "status", "address",
+            "email", "name", "phone", "itemId", "sku", "amount", "totalPrice"};
+
+    private static final int SCAN_BLOCK = 4096;
+    private static final int CSV_SCAN_BLOCK = 1 << 16;
+
+    private final DataSource dataSource;
+    private final int fetchSize;
+    private final int bufferSize;
+
+    public OrderExporter(DataSource dataSource, int fetchSize, int bufferSize) {
+        this.dataSource = dataSource;
+        this.fetchSize = fetchSize;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Method export write orders with orderId greater than afterOrderId
+     *
+     * @param file         file for export, it is created or appended when
+     *                     afterOrderId is not 0
+     * @param format       CSV or NDJSON
+     * @param afterOrderId 0 for new export, or result of resume
+     * @return int orderId of the last exported order, afterOrderId if nothing was exported
+     * @throws IOException if file or database can't be read or written
+     */
+    public int export(Path file, EnumExportFormat format, int afterOrderId) throws IOException {
+        boolean append = afterOrderId > 0 && Files.exists(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+             Connection connection = dataSource.getConnection()) {
+
+            Writer writer = new Writer(channel, bufferSize);
+            if (format == EnumExportFormat.CSV && channel.size() == 0)
+                writer.header();
+
+            //PostgreSQL uses cursor only inside transaction
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(QUERY,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(fetchSize);
+                statement.setInt(1, afterOrderId);
+
+                int lastOrderId = afterOrderId;
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        lastOrderId = rs.getInt(1);
+                        if (format == EnumExportFormat.CSV)
+                            writer.csv(rs);
+                        else
+                            writer.json(rs);
+                    }
+                }
+                writer.flush();
+                connection.commit();
+                return lastOrderId;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new IOException("Orders were not read for export", e);
+        }
+    }
+
+    /**
+     * Method resume prepare file of stopped export for continue. Partly
+     * written last row and all rows of its order are cut, because the
+     * order could be written not fully. When orderId of that row is cut
+     * too, the last full row is taken instead.
+     *
+     * @param file   file of stopped export
+     * @param format format the file was exported in
+     * @return int orderId for export after, 0 if nothing is left in file
+     * @throws IOException if file can't be read or written
+     */
+    public int resume(Path file, EnumExportFormat format) throws IOException {
+        if (!Files.exists(file))
+            return 0;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return format == EnumExportFormat.CSV ? resumeCsv(channel) : resumeLines(channel);
+        }
+    }
+
+    //Private helpful methods
+
+    //Rows are lines, the file is scanned back from the end
+    private static int resumeLines(FileChannel channel) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(SCAN_BLOCK);
+        long size = channel.size();
+        long start = lineStart(channel, size, block);
+
+        //Order of partly written line, when its orderId was written fully
+        int lastOrderId = start < size ? orderIdAt(channel, start, block) : -1;
+        if (lastOrderId < 0) {
+            if (start == 0) {
+                channel.truncate(0);
+                return 0;
+            }
+            long end = start;
+            start = lineStart(channel, end - 1, block);
+            lastOrderId = orderIdAt(channel, start, block);
+            if (lastOrderId < 0) {
+                channel.truncate(end);
+                return 0;
+            }
+        }
+
+        while (start > 0) {
+            long previous = lineStart(channel, start - 1, block);
+            if (orderIdAt(channel, previous, block) != lastOrderId)
+                break;
+            start = previous;
+        }
+        channel.truncate(start);
+        return lastOrderId - 1;
+    }
+
+    //Line break ends row only outside of quotes, orderId is the first value of row and is never quoted
+    private static int resumeCsv(FileChannel channel) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(CSV_SCAN_BLOCK);
+        boolean quoted = false;
+        long rowStart = 0;
+        long firstRowStart = -1;
+        //Value of orderId being read at start of row
+        long id = 0;
+        boolean readingId = true;
+        //The last order with full orderId and start of its first row
+        int orderId = -1;
+        long orderStart = -1;
+
+        long position = 0;
+        int read;
+        while ((read = channel.read(block.clear(), position)) > 0) {
+            for (int i = 0; i < read; i++) {
+                byte b = block.get(i);
+                if (readingId) {
+                    if (b >= '0' && b <= '9') {
+                        id = id * 10 + b - '0';
+                        continue;
+                    }
+                    if (b == ',' && id > 0 && id != orderId) {
+                        orderId = (int) id;
+                        orderStart = rowStart;
+                    }
+                    readingId = false;
+                }
+                if (b == '"') {
+                    quoted = !quoted;
+                } else if (b == '\n' && !quoted) {
+                    rowStart = position + i + 1;
+                    if (firstRowStart < 0)
+                        firstRowStart = rowStart;
+                    id = 0;
+                    readingId = true;
+                }
+            }
+            position += read;
+        }
+
+        if (orderId < 0) {
+            //Only header is left, or not even the whole header
+            channel.truncate(Math.max(firstRowStart, 0));
+            return 0;
+        }
+        channel.truncate(orderStart);
+        return orderId - 1;
+    }
+
+    //Position after the last new line before position, 0 if there is no new line
+    private static long lineStart(FileChannel channel, long position, ByteBuffer block) throws IOException {
+        long to = position;
+        while (to > 0) {
+            long from = Math.max(0, to - block.capacity());
+            block.clear().limit((int) (to - from));
+            channel.read(block, from);
+            for (int i = (int) (to - from) - 1; i >= 0; i--)
+                if (block.get(i) == '\n')
+                    return from + i + 1;
+            to = from;
+        }
+        return 0;
+    }
+
+    //First number of the line followed by comma, it is orderId in both formats, -1 for header or cut number
+    private static int orderIdAt(FileChannel channel, long position, ByteBuffer block) throws IOException {
+        block.clear().limit(32);
+        int read = channel.read(block, position);
+        long id = -1;
+        for (int i = 0; i < read; i++) {
+            byte b = block.get(i);
+            if (b >= '0' && b <= '9')
+                id = (id < 0 ? 0 : id * 10) + b - '0';
+            else if (id >= 0 || b == '\n' || b == ',')
+                return b == ',' ? (int) id : -1;
+        }
+        return -1;
+    }
+
+    //Encodes lines into one reused buffer
+    private static final class Writer {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        private final StringBuilder line = new StringBuilder(256);
+
+        Writer(FileChannel channel, int bufferSize) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        void header() throws IOException {
+            line.setLength(0);
+            for (String column : COLUMNS)
+                line.append(column).append(',');
+            line.setCharAt(line.length() - 1, '\n');
+            write();
+        }
+
+        void csv(ResultSet rs) throws SQLException, IOException {
+            line.setLength(0);
+            line.append(rs.getInt(1)).append(',');
+            csvValue(created(rs)).append(',');
+            csvValue(status(rs)).append(',');
+            for (int column = 4; column <= COLUMNS.length; column++)
+                csvValue(rs.getString(column)).append(',');
+            line.setCharAt(line.length() - 1, '\n');
+            write();
+        }
+
+        void json(ResultSet rs) throws SQLException, IOException {
+            line.setLength(0);
+            line.append("{\"orderId\":").append(rs.getInt(1));
+            jsonString("created", created(rs));
+            jsonString("status", status(rs));
+            jsonString("address", rs.getString(4));
+            jsonString("email", rs.getString(5));
+            jsonString("name", rs.getString(6));
+            jsonString("phone", rs.getString(7));
+            jsonNumber("itemId", rs.getString(8));
+            jsonString("sku", rs.getString(9));
+            jsonNumber("amount", rs.getString(10));
+            jsonNumber("totalPrice", rs.getString(11));
+            line.append("}\n");
+            write();
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+
+        private void write() throws IOException {
+            CharBuffer chars = CharBuffer.wrap(line);
+            while (true) {
+                CoderResult result = encoder.encode(chars, buffer, true);
+                if (result.isOverflow())
+                    flush();
+                else if (result.isUnderflow())
+                    break;
+                else
+                    result.throwException();
+            }
+            encoder.reset();
+        }
+
+        private static String created(ResultSet rs) throws SQLException {
+            Timestamp created = rs.getTimestamp(2);
+            return created == null ? null : created.toLocalDateTime().toString();
+        }
+
+        private static String status(ResultSet rs) throws SQLException {
+            return EnumOrderStatus.fromCode(rs.getInt(3)).name();
+        }
+
+        //Value in quotes when it has comma, quote or line break, quotes inside are doubled
+        private StringBuilder csvValue(String value) {
+            if (value == null)
+                return line;
+            boolean quoted = false;
+            for (int i = 0; i < value.length() && !quoted; i++) {
+                char c = value.charAt(i);
+                quoted = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quoted)
+                return line.append(value);
+
+            line.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"')
+                    line.append('"');
+                line.append(c);
+            }
+            return line.append('"');
+        }
+
+        private void jsonNumber(String name, String value) {
+            line.append(",\"").append(name).append("\":").append(value == null ? "null" : value);
+        }
+
+        private void jsonString(String name, String value) {
+            line.append(",\"").append(name).append("\":");
+            if (value == null) {
+                line.append("null");
+                return;
+            }
+            line.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\')
+                    line.append('\\').append(c);
+                else if (c < 0x20)
+                    line.append(String.format("\\u%04x", (int) c));
+                else
+                    line.append(c);
+            }
+            line.append('"');
+        }
+    }
+}
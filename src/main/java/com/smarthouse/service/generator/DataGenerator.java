@@ -0,0 +1,409 @@
+package com.smarthouse.service.generator;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import javax.sql.DataSource;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * DataGenerator fills empty shop tables with synthetic data: category tree,
+ * products with attributes and images, customers and their orders. It is
+ * shared data set for benchmarks, capacity planning and regression tests.
+ * <p>
+ * Every value is computed from seed of DataSetSpec and number of the row,
+ * so the same spec gives the same data on every run. Popularity of products
+ * follows Zipf distribution: likes and ordered items go mostly to few
+ * products, which are spread over catalog instead of being the first skus.
+ * <p>
+ * Rows are generated while they are written and sent with COPY FROM STDIN,
+ * so memory does not depend on size of data set. All tables are filled in
+ * one transaction. Generated ids start from the next value of sequence of
+ * the table, and the sequence is moved after them, so they never meet ids
+ * which Hibernate has already taken from it or will take later. Other
+ * writers must not work during generation.
+ */
+public class DataGenerator {
+
+    private static final LocalDateTime ORDERS_END = LocalDateTime.of(2017, 1, 1, 0, 0);
+    private static final long ORDERS_PERIOD_SECONDS = 365L * 24 * 3600;
+
+    //Separate random streams, so change of one table doesn't change others
+    private static final long PRODUCTS = 1;
+    private static final long ATTRIBUTES = 2;
+    private static final long CUSTOMERS = 3;
+    private static final long ORDERS = 4;
+
+    private final DataSource dataSource;
+    private final int bufferSize;
+
+    /**
+     * @param bufferSize characters collected before they are sent to DB
+     */
+    public DataGenerator(DataSource dataSource, int bufferSize) {
+        this.dataSource = dataSource;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Method generate need for filling empty tables with data set
+     *
+     * @return generated rows by table
+     * @throws IllegalStateException if catalog or customers are not empty
+     */
+    public Map<String, Long> generate(DataSetSpec spec) {
+        Map<String, Long> rows = new LinkedHashMap<>();
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                checkEmpty(connection);
+                Generation generation = new Generation(spec, connection);
+
+                rows.put("category", generation.categories());
+                rows.put("productcard", generation.products());
+                rows.put("attributename", generation.attributeNames());
+                rows.put("attributevalue", generation.attributeValues());
+                rows.put("visualization", generation.visualizations());
+                rows.put("customer", generation.customers());
+                rows.put("ordermain", generation.orders(true));
+                rows.put("orderitem", generation.orders(false));
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+
+            connection.setAutoCommit(true);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("ANALYZE");
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Data set was not generated: " + spec, e);
+        }
+        return rows;
+    }
+
+    //Private helpful methods
+
+    private void checkEmpty(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT EXISTS (SELECT 1 FROM category) " +
+                     "OR EXISTS (SELECT 1 FROM productcard) OR EXISTS (SELECT 1 FROM customer)")) {
+            rs.next();
+            if (rs.getBoolean(1))
+                throw new IllegalStateException("Data set can be generated only into empty tables");
+        }
+    }
+
+    //SplitMix64 of seed, stream and index
+    private static long mix(long seed, long stream, long index) {
+        long z = seed + stream * 0x9E3779B97F4A7C15L + index * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static int bounded(long hash, int bound) {
+        return (int) Math.floorMod(hash, (long) bound);
+    }
+
+    private static String sku(long index) {
+        return "SKU-" + index;
+    }
+
+    private static String email(long index) {
+        return "customer" + index + "@example.com";
+    }
+
+    /**
+     * One run of generation. Product i has popularity rank
+     * i * inverse mod products + 1, item with rank r refers product
+     * (r - 1) * step mod products.
+     */
+    private class Generation {
+
+        private final DataSetSpec spec;
+        private final Connection connection;
+        private final long seed;
+        private final int leafStart;
+        private final int leaves;
+        private final long step;
+        private final long inverse;
+        private long categoryBase;
+        private long orderBase;
+
+        Generation(DataSetSpec spec, Connection connection) {
+            this.spec = spec;
+            this.connection = connection;
+            this.seed = spec.getSeed();
+
+            long levelSize = 1;
+            long start = 1;
+            for (int level = 1; level < spec.getCategoryDepth(); level++) {
+                levelSize *= spec.getCategoryFanout();
+                start += levelSize;
+            }
+            this.leafStart = (int) start;
+            this.leaves = (int) (levelSize * spec.getCategoryFanout());
+
+            BigInteger products = BigInteger.valueOf(spec.getProducts());
+            long candidate = Math.max(1, (long) (spec.getProducts() * 0.618));
+            while (!BigInteger.valueOf(candidate).gcd(products).equals(BigInteger.ONE))
+                candidate++;
+            this.step = candidate % spec.getProducts();
+            this.inverse = spec.getProducts() == 1 ? 0 : BigInteger.valueOf(step).modInverse(products).longValue();
+        }
+
+        //Level 1 are roots, children of category are next ids of the next level
+        long categories() throws SQLException {
+            categoryBase = nextId("category_id_seq");
+            Copy copy = new Copy("category (id, name, description, category)");
+            try (copy) {
+                long id = categoryBase;
+                long parent = 0;
+                long levelSize = spec.getCategoryFanout();
+                for (int level = 1; level <= spec.getCategoryDepth(); level++) {
+                    long levelStart = id;
+                    for (long i = 0; i < levelSize; i++, id++) {
+                        copy.field(id).field("Category " + id).field("Level " + level + " category");
+                        if (level == 1)
+                            copy.nullField();
+                        else
+                            copy.field(parent + i / spec.getCategoryFanout());
+                        copy.endRow();
+                    }
+                    parent = levelStart;
+                    levelSize *= spec.getCategoryFanout();
+                }
+            }
+            return skipIds("category_id_seq", categoryBase, copy.rows);
+        }
+
+        long products() throws SQLException {
+            try (Copy copy = new Copy("productcard (sku, name, price, amount, likes, dislikes, " +
+                    "productdescription, category)")) {
+                for (long i = 0; i < spec.getProducts(); i++) {
+                    long rank = spec.getProducts() == 1 ? 1 : Math.floorMod(i * inverse, spec.getProducts()) + 1;
+                    int likes = (int) Math.round(10000 * Math.pow(rank, -spec.getZipfExponent()));
+                    copy.field(sku(i)).field("Product " + i)
+                            .field(price(i)).field(bounded(mix(seed, PRODUCTS, i) >>> 16, 1000))
+                            .field(likes).field(bounded(mix(seed, PRODUCTS, i) >>> 32, likes / 10 + 1))
+                            .field("Synthetic product " + i + " of popularity rank " + rank)
+                            .field(categoryBase + leafStart - 1 + bounded(mix(seed, PRODUCTS, i) >>> 8, leaves))
+                            .endRow();
+                }
+                return copy.rows;
+            }
+        }
+
+        long attributeNames() throws SQLException {
+            try (Copy copy = new Copy("attributename (name)")) {
+                for (int i = 0; i < spec.getAttributeNames(); i++)
+                    copy.field(attributeName(i)).endRow();
+                return copy.rows;
+            }
+        }
+
+        //Product i has attributes with consecutive names, starting from random one
+        long attributeValues() throws SQLException {
+            long base = nextId("attributevalue_id_seq");
+            long id = base;
+            Copy copy = new Copy("attributevalue (id, attributename, value, productcard)");
+            try (copy) {
+                for (long i = 0; i < spec.getProducts(); i++) {
+                    long hash = mix(seed, ATTRIBUTES, i);
+                    int first = bounded(hash, spec.getAttributeNames());
+                    for (int j = 0; j < spec.getAttributesPerProduct(); j++) {
+                        int name = (first + j) % spec.getAttributeNames();
+                        copy.field(id++).field(attributeName(name))
+                                .field("value" + bounded(hash >>> (j % 8 * 4), 20)).field(sku(i)).endRow();
+                    }
+                }
+            }
+            return skipIds("attributevalue_id_seq", base, copy.rows);
+        }
+
+        long visualizations() throws SQLException {
+            long base = nextId("visualization_id_seq");
+            long id = base;
+            Copy copy = new Copy("visualization (id, type, url, productcard)");
+            try (copy) {
+                for (long i = 0; i < spec.getProducts(); i++)
+                    for (int j = 0; j < spec.getVisualizationsPerProduct(); j++)
+                        copy.field(id++).field(j % 2 + 1).field("/media/" + sku(i) + "/" + j + ".jpg")
+                                .field(sku(i)).endRow();
+            }
+            return skipIds("visualization_id_seq", base, copy.rows);
+        }
+
+        long customers() throws SQLException {
+            try (Copy copy = new Copy("customer (email, name, phone, subscribe)")) {
+                for (long i = 0; i < spec.getCustomers(); i++) {
+                    long hash = mix(seed, CUSTOMERS, i);
+                    copy.field(email(i)).field("Customer " + i)
+                            .field("+1555" + (1000000 + bounded(hash, 9000000)))
+                            .field((hash >>> 40 & 1) == 0).endRow();
+                }
+                return copy.rows;
+            }
+        }
+
+        /**
+         * Orders and their items are written with two COPY, so both passes
+         * take the same random values and the second one writes only items.
+         */
+        long orders(boolean main) throws SQLException {
+            String table = main ? "ordermain (orderid, customer, address, status, created)"
+                    : "orderitem (id, ordermain, productcard, amount, totalprice)";
+            String sequence = main ? "ordermain_orderid_seq" : "orderitem_id_seq";
+            SplittableRandom random = new SplittableRandom(mix(seed, ORDERS, 0));
+            ZipfDistribution popularity = new ZipfDistribution(spec.getProducts(), spec.getZipfExponent());
+
+            long base = nextId(sequence);
+            if (main)
+                orderBase = base;
+            Copy copy = new Copy(table);
+            try (copy) {
+                long orderId = orderBase - 1;
+                long itemId = base - 1;
+                for (long c = 0; c < spec.getCustomers(); c++) {
+                    int orders = random.nextInt(2 * spec.getOrdersPerCustomer() + 1);
+                    for (int o = 0; o < orders; o++) {
+                        orderId++;
+                        int status = 1 + random.nextInt(6);
+                        LocalDateTime created = ORDERS_END.minusSeconds(random.nextLong(ORDERS_PERIOD_SECONDS));
+                        if (main)
+                            copy.field(orderId).field(email(c)).field("Street " + c)
+                                    .field(status).field(created.toString()).endRow();
+
+                        int items = 1 + random.nextInt(spec.getItemsPerOrder());
+                        for (int i = 0; i < items; i++) {
+                            long product = Math.floorMod((popularity.sample(random) - 1) * step, spec.getProducts());
+                            int amount = 1 + random.nextInt(3);
+                            itemId++;
+                            if (!main)
+                                copy.field(itemId).field(orderId).field(sku(product)).field(amount)
+                                        .field((long) price(product) * amount).endRow();
+                        }
+                    }
+                }
+            }
+            return skipIds(sequence, base, copy.rows);
+        }
+
+        private long nextId(String sequence) throws SQLException {
+            try (PreparedStatement statement = connection.prepareStatement("SELECT nextval(?)")) {
+                statement.setString(1, sequence);
+                try (ResultSet rs = statement.executeQuery()) {
+                    rs.next();
+                    return rs.getLong(1);
+                }
+            }
+        }
+
+        //Next value of sequence will be after ids from base to base + rows - 1
+        private long skipIds(String sequence, long base, long rows) throws SQLException {
+            if (rows > 1) {
+                try (PreparedStatement statement = connection.prepareStatement("SELECT setval(?, ?)")) {
+                    statement.setString(1, sequence);
+                    statement.setLong(2, base + rows - 1);
+                    statement.execute();
+                }
+            }
+            return rows;
+        }
+
+        private int price(long product) {
+            return 100 + bounded(mix(seed, PRODUCTS, product) >>> 24, 99900);
+        }
+
+        private String attributeName(int index) {
+            return "attribute" + index;
+        }
+
+        /**
+         * Rows of one COPY in text format, collected in buffer and sent
+         * when it is full.
+         */
+        private class Copy implements AutoCloseable {
+
+            private final CopyIn copyIn;
+            private final StringBuilder buffer = new StringBuilder(bufferSize + 1024);
+            private boolean first = true;
+            long rows;
+
+            Copy(String table) throws SQLException {
+                copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn("COPY " + table + " FROM STDIN");
+            }
+
+            Copy field(String value) {
+                separate();
+                for (int i = 0; i < value.length(); i++) {
+                    char ch = value.charAt(i);
+                    if (ch == '\\' || ch == '\t' || ch == '\n' || ch == '\r')
+                        buffer.append('\\').append(ch == '\t' ? 't' : ch == '\n' ? 'n' : ch == '\r' ? 'r' : '\\');
+                    else
+                        buffer.append(ch);
+                }
+                return this;
+            }
+
+            Copy field(long value) {
+                separate();
+                buffer.append(value);
+                return this;
+            }
+
+            Copy field(boolean value) {
+                separate();
+                buffer.append(value ? 't' : 'f');
+                return this;
+            }
+
+            Copy nullField() {
+                separate();
+                buffer.append("\\N");
+                return this;
+            }
+
+            void endRow() throws SQLException {
+                buffer.append('\n');
+                first = true;
+                rows++;
+                if (buffer.length() >= bufferSize)
+                    flush();
+            }
+
+            @Override
+            public void close() throws SQLException {
+                if (!copyIn.isActive())
+                    return;
+                try {
+                    flush();
+                    copyIn.endCopy();
+                } finally {
+                    if (copyIn.isActive())
+                        copyIn.cancelCopy();
+                }
+            }
+
+            private void separate() {
+                if (!first)
+                    buffer.append('\t');
+                first = false;
+            }
+
+            private void flush() throws SQLException {
+                byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+                copyIn.writeToCopy(bytes, 0, bytes.length);
+                buffer.setLength(0);
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.smarthouse.service.generator;
+
+/**
+ * DataSetSpec describes synthetic data set of DataGenerator. The same spec
+ * with the same seed always gives the same rows.
+ */
+public final class DataSetSpec {
+
+    private final long seed;
+    private final int categoryDepth;
+    private final int categoryFanout;
+    private final int products;
+    private final int attributeNames;
+    private final int attributesPerProduct;
+    private final int visualizationsPerProduct;
+    private final int customers;
+    private final int ordersPerCustomer;
+    private final int itemsPerOrder;
+    private final double zipfExponent;
+
+    /**
+     * @param categoryDepth     levels of category tree, products are in leaves
+     * @param categoryFanout    children of every not leaf category
+     * @param ordersPerCustomer average orders of customer
+     * @param itemsPerOrder     max items of order
+     * @param zipfExponent      skew of product popularity, 1 is classic Zipf
+     */
+    public DataSetSpec(long seed, int categoryDepth, int categoryFanout, int products, int attributeNames,
+                       int attributesPerProduct, int visualizationsPerProduct, int customers,
+                       int ordersPerCustomer, int itemsPerOrder, double zipfExponent) {
+        if (categoryDepth < 1 || categoryFanout < 1 || products < 1 || attributeNames < 1 ||
+                attributesPerProduct < 0 || attributesPerProduct > attributeNames || visualizationsPerProduct < 0 ||
+                customers < 0 || ordersPerCustomer < 0 || itemsPerOrder < 1 || zipfExponent <= 0)
+            throw new IllegalArgumentException("Wrong data set spec");
+        if (Math.pow(categoryFanout, categoryDepth) * 2 > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Category tree is too big");
+        this.seed = seed;
+        this.categoryDepth = categoryDepth;
+        this.categoryFanout = categoryFanout;
+        this.products = products;
+        this.attributeNames = attributeNames;
+        this.attributesPerProduct = attributesPerProduct;
+        this.visualizationsPerProduct = visualizationsPerProduct;
+        this.customers = customers;
+        this.ordersPerCustomer = ordersPerCustomer;
+        this.itemsPerOrder = itemsPerOrder;
+        this.zipfExponent = zipfExponent;
+    }
+
+    //Spec of shop with given amount of products, e.g. 10k, 1M or 10M
+    public static DataSetSpec forSkus(long seed, int skus) {
+        int fanout = (int) Math.max(2, Math.round(Math.cbrt(skus / 100.0)));
+        return new DataSetSpec(seed, 3, fanout, skus, 20, 4, 2, Math.max(1, skus / 10), 3, 4, 1.0);
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getCategoryDepth() {
+        return categoryDepth;
+    }
+
+    public int getCategoryFanout() {
+        return categoryFanout;
+    }
+
+    public int getProducts() {
+        return products;
+    }
+
+    public int getAttributeNames() {
+        return attributeNames;
+    }
+
+    public int getAttributesPerProduct() {
+        return attributesPerProduct;
+    }
+
+    public int getVisualizationsPerProduct() {
+        return visualizationsPerProduct;
+    }
+
+    public int getCustomers() {
+        return customers;
+    }
+
+    public int getOrdersPerCustomer() {
+        return ordersPerCustomer;
+    }
+
+    public int getItemsPerOrder() {
+        return itemsPerOrder;
+    }
+
+    public double getZipfExponent() {
+        return zipfExponent;
+    }
+
+    @Override
+    public String toString() {
+        return "DataSetSpec{seed=" + seed + ", categories=" + categoryDepth + "x" + categoryFanout +
+                ", products=" + products + ", customers=" + customers + ", zipf=" + zipfExponent + '}';
+    }
+}
@@ -0,0 +1,64 @@
+package com.smarthouse.service.idempotency;
+
+import java.util.Arrays;
+
+/**
+ * BloomFilter of strings. Bits are set by double hashing of 64 bit
+ * FNV-1a hash of the string. Answer "no" is always right, answer "maybe"
+ * is wrong with rate given to constructor while there are at most
+ * expected strings. Not thread safe.
+ */
+final class BloomFilter {
+
+    private final long[] words;
+    private final long bits;
+    private final int hashes;
+
+    /**
+     * @param expected          strings which are added before clear
+     * @param falsePositiveRate rate of wrong "maybe", from 0 to 1
+     */
+    BloomFilter(int expected, double falsePositiveRate) {
+        if (expected <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1)
+            throw new IllegalArgumentException("Wrong expected size or false positive rate");
+        long bits = (long) Math.ceil(-expected * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.words = new long[(int) ((bits + 63) / 64)];
+        this.bits = words.length * 64L;
+        this.hashes = Math.max(1, (int) Math.round((double) this.bits / expected * Math.log(2)));
+    }
+
+    void add(String key) {
+        long hash = hash(key);
+        long step = hash >>> 32 | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Long.remainderUnsigned(hash + i * step, bits);
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    boolean mightContain(String key) {
+        long hash = hash(key);
+        long step = hash >>> 32 | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Long.remainderUnsigned(hash + i * step, bits);
+            if ((words[(int) (bit >>> 6)] & 1L << bit) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    void clear() {
+        Arrays.fill(words, 0);
+    }
+
+    //Private helpful methods
+
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,139 @@
+package com.smarthouse.service.idempotency;
+
+import com.smarthouse.pojo.IdempotencyKey;
+import com.smarthouse.repository.IdempotencyKeyDao;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IdempotencyStore remembers which order was created for idempotency key
+ * of createOrder. Keys are looked up in three steps:
+ * <ul>
+ * <li>bounded cache of orders by key, for keys used during the window</li>
+ * <li>Bloom filters of keys claimed by this node during the current and
+ * the previous window, key not found there was never used here and the
+ * table is not read</li>
+ * <li>table with unique key, which is the only truth: it is shared by all
+ * nodes and survives restart</li>
+ * </ul>
+ * Before order is created the key is claimed by inserting it into table,
+ * so of concurrent calls with the same key only one creates order, even
+ * when the key was never seen by filters of this node. Claim which did
+ * not get order for claimTimeout may be taken over by the next call.
+ * Order and its key are saved in one transaction, which is rolled back
+ * when the claim was taken over meanwhile.
+ */
+public class IdempotencyStore {
+
+    private final IdempotencyKeyDao idempotencyKeyDao;
+    private final long windowMillis;
+    private final long claimTimeoutSeconds;
+
+    private final Map<String, long[]> cache;
+    private final BloomFilter[] filters;
+    private long windowStart;
+
+    /**
+     * @param maxKeys             keys kept in cache and in one filter
+     * @param windowMinutes       time keys are kept in cache and one filter
+     * @param falsePositiveRate   rate of keys which are read from table without need
+     * @param claimTimeoutSeconds time after claim without order when the key can be claimed again
+     */
+    public IdempotencyStore(IdempotencyKeyDao idempotencyKeyDao, int maxKeys, long windowMinutes,
+                            double falsePositiveRate, long claimTimeoutSeconds) {
+        this.idempotencyKeyDao = idempotencyKeyDao;
+        this.windowMillis = TimeUnit.MINUTES.toMillis(windowMinutes);
+        this.claimTimeoutSeconds = claimTimeoutSeconds;
+        this.cache = new LinkedHashMap<String, long[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+                return size() > maxKeys;
+            }
+        };
+        this.filters = new BloomFilter[]{new BloomFilter(maxKeys, falsePositiveRate),
+                new BloomFilter(maxKeys, falsePositiveRate)};
+        this.windowStart = System.currentTimeMillis();
+    }
+
+    /**
+     * Method find need for check key before any work of createOrder
+     *
+     * @param key idempotency key
+     * @return Integer id of order created with the key, or null when
+     * there is no order yet
+     */
+    public Integer find(String key) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            rotate(now);
+            long[] cached = cache.get(key);
+            if (cached != null && now - cached[1] < windowMillis)
+                return (int) cached[0];
+            if (!filters[0].mightContain(key) && !filters[1].mightContain(key))
+                return null;
+        }
+
+        IdempotencyKey row = idempotencyKeyDao.findByIdempotencyKey(key);
+        if (row == null || row.getOrderId() == null)
+            return null;
+        remember(key, row.getOrderId());
+        return row.getOrderId();
+    }
+
+    //Time of claim when this call may create order for the key, null when it may not
+    public LocalDateTime claim(String key) {
+        //Table keeps microseconds, claim is later found by its time
+        LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+        boolean claimed = idempotencyKeyDao.claim(key, now, now.minusSeconds(claimTimeoutSeconds)) > 0;
+        synchronized (this) {
+            rotate(System.currentTimeMillis());
+            filters[0].add(key);
+        }
+        return claimed ? now : null;
+    }
+
+    /**
+     * Method complete need for save order of the key in transaction of the
+     * order, so the key gets order only when the order is committed
+     *
+     * @param claimed time returned by claim
+     * @return boolean false if claim was taken over by other call, then the
+     * order must be rolled back
+     */
+    public boolean complete(String key, LocalDateTime claimed, int orderId) {
+        return idempotencyKeyDao.complete(key, claimed, orderId) > 0;
+    }
+
+    //Order was not created, next call with the key may create it
+    public void release(String key, LocalDateTime claimed) {
+        idempotencyKeyDao.release(key, claimed);
+    }
+
+    //Remove keys of orders created before time, their retries create new orders
+    public int purge(LocalDateTime before) {
+        return idempotencyKeyDao.deleteCreatedBefore(before);
+    }
+
+    //Private helpful methods
+
+    private synchronized void remember(String key, int orderId) {
+        cache.put(key, new long[]{orderId, System.currentTimeMillis()});
+    }
+
+    //Filter of the previous window is cleared and becomes the current one
+    private void rotate(long now) {
+        if (now - windowStart < windowMillis)
+            return;
+        if (now - windowStart >= 2 * windowMillis)
+            filters[0].clear();
+        BloomFilter previous = filters[1];
+        previous.clear();
+        filters[1] = filters[0];
+        filters[0] = previous;
+        windowStart = now;
+    }
+}
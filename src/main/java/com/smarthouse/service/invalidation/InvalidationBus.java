@@ -0,0 +1,105 @@
+package com.smarthouse.service.invalidation;
+
+import com.smarthouse.service.util.enums.EnumCachedEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * InvalidationBus tells caches of all nodes which entities were changed.
+ * Listeners of the publishing node are called at once, other nodes get
+ * the keys through InvalidationTransport. Many keys are sent in one
+ * message: first line is id of node, second is type, then one key per line.
+ */
+public class InvalidationBus implements InvalidationTransport.Receiver {
+
+    private static final Logger log = LoggerFactory.getLogger(InvalidationBus.class);
+
+    //NOTIFY payload must be shorter than 8000 bytes, key chars take up to 3 bytes
+    private static final int MAX_MESSAGE_CHARS = 2000;
+
+    private final InvalidationTransport transport;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final List<InvalidationListener> listeners = new CopyOnWriteArrayList<>();
+
+    public InvalidationBus(InvalidationTransport transport) {
+        this.transport = transport;
+    }
+
+    public void setListeners(List<InvalidationListener> listeners) {
+        this.listeners.addAll(listeners);
+    }
+
+    public void addListener(InvalidationListener listener) {
+        listeners.add(listener);
+    }
+
+    public void start() {
+        transport.start(this);
+    }
+
+    public void stop() {
+        transport.stop();
+    }
+
+    public void publish(EnumCachedEntity type, String key) {
+        publish(type, Collections.singletonList(key));
+    }
+
+    public void publish(EnumCachedEntity type, Collection<String> keys) {
+        if (keys.isEmpty())
+            return;
+
+        deliver(type, keys);
+
+        String head = nodeId + '\n' + type.name();
+        StringBuilder message = new StringBuilder(head);
+        for (String key : keys) {
+            if (message.length() + key.length() + 1 > MAX_MESSAGE_CHARS && message.length() > head.length()) {
+                send(message.toString());
+                message.setLength(0);
+                message.append(head);
+            }
+            message.append('\n').append(key);
+        }
+        send(message.toString());
+    }
+
+    @Override
+    public void receive(String message) {
+        String[] lines = message.split("\n");
+        if (lines.length < 3 || lines[0].equals(nodeId))
+            return;
+
+        EnumCachedEntity type;
+        try {
+            type = EnumCachedEntity.valueOf(lines[1]);
+        } catch (IllegalArgumentException e) {
+            log.warn("Unknown invalidation message: {}", message);
+            return;
+        }
+        deliver(type, Arrays.asList(lines).subList(2, lines.length));
+    }
+
+    @Override
+    public void reset() {
+        for (InvalidationListener listener : listeners)
+            listener.invalidateAll();
+    }
+
+    private void send(String message) {
+        try {
+            transport.publish(message);
+        } catch (RuntimeException e) {
+            //Other nodes keep stale entries until their caches expire or reset
+            log.error("Invalidation was not sent to other nodes", e);
+        }
+    }
+
+    private void deliver(EnumCachedEntity type, Collection<String> keys) {
+        for (InvalidationListener listener : listeners)
+            listener.invalidate(type, keys);
+    }
+}
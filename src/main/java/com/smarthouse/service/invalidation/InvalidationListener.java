@@ -0,0 +1,15 @@
+package com.smarthouse.service.invalidation;
+
+import com.smarthouse.service.util.enums.EnumCachedEntity;
+
+import java.util.Collection;
+
+//Cache which must drop entries when entities are changed on any node
+public interface InvalidationListener {
+
+    //keys are sku for products, attributes and visualizations, id for categories and price rules
+    void invalidate(EnumCachedEntity type, Collection<String> keys);
+
+    //Called when some messages could be lost, for example after reconnect
+    void invalidateAll();
+}
@@ -0,0 +1,19 @@
+package com.smarthouse.service.invalidation;
+
+//Sends messages of InvalidationBus to all nodes, including the sender
+public interface InvalidationTransport {
+
+    void start(Receiver receiver);
+
+    void publish(String message);
+
+    void stop();
+
+    interface Receiver {
+
+        void receive(String message);
+
+        //Messages could be lost, all caches must be dropped
+        void reset();
+    }
+}
@@ -0,0 +1,30 @@
+package com.smarthouse.service.invalidation;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * LocalInvalidationTransport delivers messages to buses of the same JVM.
+ * It is enough for one node, and in tests several buses with one
+ * transport behave like several nodes.
+ */
+public class LocalInvalidationTransport implements InvalidationTransport {
+
+    private final List<Receiver> receivers = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void start(Receiver receiver) {
+        receivers.add(receiver);
+    }
+
+    @Override
+    public void publish(String message) {
+        for (Receiver receiver : receivers)
+            receiver.receive(message);
+    }
+
+    @Override
+    public void stop() {
+        receivers.clear();
+    }
+}
@@ -0,0 +1,111 @@
+package com.smarthouse.service.invalidation;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * PgNotifyTransport sends messages with PostgreSQL NOTIFY, so every node
+ * that works with the same database receives them. Listening thread keeps
+ * one connection with LISTEN and polls it for notifications. After the
+ * connection is lost notifications could be missed, so receiver is reset
+ * on every reconnect.
+ */
+public class PgNotifyTransport implements InvalidationTransport {
+
+    private static final Logger log = LoggerFactory.getLogger(PgNotifyTransport.class);
+
+    private final DataSource dataSource;
+    private final String channel;
+    private final long pollMillis;
+
+    private volatile boolean running;
+    private Thread listener;
+
+    public PgNotifyTransport(DataSource dataSource, String channel, long pollMillis) {
+        if (!channel.matches("[a-z_][a-z0-9_]*"))
+            throw new IllegalArgumentException("Wrong name of channel: " + channel);
+        this.dataSource = dataSource;
+        this.channel = channel;
+        this.pollMillis = pollMillis;
+    }
+
+    @Override
+    public synchronized void start(Receiver receiver) {
+        running = true;
+        listener = new Thread(() -> listen(receiver), "pg-notify-" + channel);
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    @Override
+    public void publish(String message) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT pg_notify(?, ?)")) {
+            statement.setString(1, channel);
+            statement.setString(2, message);
+            statement.execute();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Invalidation message was not sent", e);
+        }
+    }
+
+    //Waits until listening connection is closed
+    @Override
+    public synchronized void stop() {
+        running = false;
+        if (listener == null)
+            return;
+
+        listener.interrupt();
+        try {
+            listener.join(pollMillis + 5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void listen(Receiver receiver) {
+        while (running) {
+            try (Connection connection = dataSource.getConnection();
+                 Statement statement = connection.createStatement()) {
+
+                statement.execute("LISTEN " + channel);
+                receiver.reset();
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+
+                while (running) {
+                    //Notifications are read by driver with any query
+                    statement.execute("SELECT 1");
+                    PGNotification[] notifications = pgConnection.getNotifications();
+                    if (notifications != null)
+                        for (PGNotification notification : notifications)
+                            receiver.receive(notification.getParameter());
+                    Thread.sleep(pollMillis);
+                }
+            } catch (SQLException | RuntimeException e) {
+                log.warn("Listening of channel {} failed, reconnecting", channel, e);
+                pause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(Math.max(pollMillis, 1000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.smarthouse.service.media;
+
+//Urls of images which product tile needs, url is null if product has no such image
+public class MediaManifest {
+
+    private final String sku;
+    private final String primaryUrl;
+    private final String thumbnailUrl;
+
+    public MediaManifest(String sku, String primaryUrl, String thumbnailUrl) {
+        this.sku = sku;
+        this.primaryUrl = primaryUrl;
+        this.thumbnailUrl = thumbnailUrl;
+    }
+
+    public String getSku() {
+        return sku;
+    }
+
+    public String getPrimaryUrl() {
+        return primaryUrl;
+    }
+
+    public String getThumbnailUrl() {
+        return thumbnailUrl;
+    }
+}
@@ -0,0 +1,134 @@
+package com.smarthouse.service.media;
+
+import com.smarthouse.pojo.ProductCard;
+import com.smarthouse.repository.VisualizationDao;
+import com.smarthouse.service.catalog.CatalogSnapshotManager;
+import com.smarthouse.service.invalidation.InvalidationListener;
+import com.smarthouse.service.util.cache.LruCache;
+import com.smarthouse.service.util.enums.EnumCachedEntity;
+
+import java.util.*;
+
+/**
+ * MediaResolver gives MediaManifests for many products at once.
+ * Manifests are cached, products which are not in cache are read
+ * with one query, so a page of products needs one query or none.
+ * Products without images are cached too. When CatalogSnapshotManager
+ * is set, products missed in cache are taken from snapshot first, so
+ * a just started node does not read images from DB.
+ */
+public class MediaResolver implements InvalidationListener {
+
+    private final VisualizationDao visualizationDao;
+    private final int primaryType;
+    private final int thumbnailType;
+    private final LruCache<String, MediaManifest> cache;
+    private CatalogSnapshotManager catalogSnapshotManager;
+
+    /**
+     * @param primaryType   type of Visualization with main image of product
+     * @param thumbnailType type of Visualization with small image, main image
+     *                      is used when product has no thumbnail
+     * @param maxSize       max amount of products in cache
+     */
+    public MediaResolver(VisualizationDao visualizationDao, int primaryType, int thumbnailType, int maxSize) {
+        this.visualizationDao = visualizationDao;
+        this.primaryType = primaryType;
+        this.thumbnailType = thumbnailType;
+        this.cache = new LruCache<>(maxSize);
+    }
+
+    public void setCatalogSnapshotManager(CatalogSnapshotManager catalogSnapshotManager) {
+        this.catalogSnapshotManager = catalogSnapshotManager;
+    }
+
+    //Return manifests by sku in order of products
+    public Map<String, MediaManifest> getManifests(Collection<ProductCard> productCards) {
+        Map<String, MediaManifest> result = new LinkedHashMap<>();
+        Set<String> missed = new HashSet<>();
+
+        for (ProductCard productCard : productCards) {
+            MediaManifest manifest = cache.get(productCard.getSku());
+            result.put(productCard.getSku(), manifest);
+            if (manifest == null)
+                missed.add(productCard.getSku());
+        }
+
+        if (!missed.isEmpty()) {
+            for (MediaManifest manifest : load(missed)) {
+                cache.put(manifest.getSku(), manifest);
+                result.put(manifest.getSku(), manifest);
+            }
+        }
+        return result;
+    }
+
+    public MediaManifest getManifest(ProductCard productCard) {
+        return getManifests(Collections.singletonList(productCard)).get(productCard.getSku());
+    }
+
+    //Must be called when images of product are changed
+    public void evict(String sku) {
+        cache.remove(sku);
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    @Override
+    public void invalidate(EnumCachedEntity type, Collection<String> keys) {
+        if (type == EnumCachedEntity.PRODUCT || type == EnumCachedEntity.VISUALIZATION)
+            for (String sku : keys)
+                evict(sku);
+    }
+
+    @Override
+    public void invalidateAll() {
+        clear();
+    }
+
+    private Collection<MediaManifest> load(Set<String> skus) {
+        List<Object[]> rows = new ArrayList<>();
+        Set<String> notInSnapshot = skus;
+
+        if (catalogSnapshotManager != null) {
+            notInSnapshot = new HashSet<>();
+            for (String sku : skus) {
+                List<Object[]> snapshotRows = catalogSnapshotManager.findVisualizations(sku);
+                if (snapshotRows != null)
+                    rows.addAll(snapshotRows);
+                else
+                    notInSnapshot.add(sku);
+            }
+        }
+
+        if (!notInSnapshot.isEmpty())
+            rows.addAll(visualizationDao.findUrlsByProductCardSkuIn(notInSnapshot));
+        return toManifests(skus, rows);
+    }
+
+    private Collection<MediaManifest> toManifests(Set<String> skus, List<Object[]> rows) {
+        Map<String, String[]> urls = new HashMap<>();
+        for (String sku : skus)
+            urls.put(sku, new String[2]);
+
+        //Rows of one product are ordered by id, first image of each type wins
+        for (Object[] row : rows) {
+            String[] productUrls = urls.get((String) row[0]);
+            int type = (Integer) row[1];
+            if (type == primaryType && productUrls[0] == null)
+                productUrls[0] = (String) row[2];
+            else if (type == thumbnailType && productUrls[1] == null)
+                productUrls[1] = (String) row[2];
+        }
+
+        List<MediaManifest> manifests = new ArrayList<>(urls.size());
+        for (Map.Entry<String, String[]> entry : urls.entrySet()) {
+            String[] productUrls = entry.getValue();
+            String thumbnail = productUrls[1] != null ? productUrls[1] : productUrls[0];
+            manifests.add(new MediaManifest(entry.getKey(), productUrls[0], thumbnail));
+        }
+        return manifests;
+    }
+}
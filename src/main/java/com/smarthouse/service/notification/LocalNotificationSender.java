@@ -0,0 +1,34 @@
+package com.smarthouse.service.notification;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * LocalNotificationSender only logs notifications and keeps them in
+ * memory. It is enough for development and tests.
+ */
+public class LocalNotificationSender implements NotificationSender {
+
+    private static final Logger log = LoggerFactory.getLogger(LocalNotificationSender.class);
+
+    private final List<Notification> sent = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void send(List<Notification> notifications) {
+        for (Notification notification : notifications)
+            log.debug("Sent {}", notification);
+        sent.addAll(notifications);
+    }
+
+    public List<Notification> getSent() {
+        return new ArrayList<>(sent);
+    }
+
+    public void clear() {
+        sent.clear();
+    }
+}
@@ -0,0 +1,34 @@
+package com.smarthouse.service.notification;
+
+/**
+ * Notification that product is in stock again, a row of outbox
+ */
+public class Notification {
+
+    private final long id;
+    private final String email;
+    private final String sku;
+
+    public Notification(long id, String email, String sku) {
+        this.id = id;
+        this.email = email;
+        this.sku = sku;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getSku() {
+        return sku;
+    }
+
+    @Override
+    public String toString() {
+        return "Notification{" + email + ", " + sku + '}';
+    }
+}
@@ -0,0 +1,13 @@
+package com.smarthouse.service.notification;
+
+import java.util.List;
+
+/**
+ * Sender of notifications to customers, for example by e-mail. Batch is
+ * sent at least once: when send throws, the whole batch is sent again
+ * later, so sender should tolerate repeated notifications.
+ */
+public interface NotificationSender {
+
+    void send(List<Notification> notifications);
+}
@@ -0,0 +1,227 @@
+package com.smarthouse.service.notification;
+
+import com.smarthouse.service.util.enums.EnumOrderStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RestockNotifier tells subscribed customers that product they are
+ * interested in is in stock again.
+ * <p>
+ * Stock is never checked on the write path: trigger of productcard adds a
+ * row to restock table when amount goes from 0 to positive, whoever
+ * changes it. Background thread of any node takes restock rows and adds
+ * one outbox row for every subscribed customer interested in the products
+ * (customers who bought them and who watch them) with one INSERT ...
+ * SELECT, in the same transaction which deletes the restock rows. Interest
+ * is read from tables by indexes on sku, so watches, purchases and
+ * subscriptions made on any node are seen at once.
+ * <p>
+ * Then outbox is sent by NotificationSender in batches, at most
+ * ratePerSecond notifications per second. Rows are locked with SKIP
+ * LOCKED and marked sent after sender returns, so several nodes may send
+ * together and every notification is sent at least once.
+ */
+public class RestockNotifier {
+
+    private static final Logger log = LoggerFactory.getLogger(RestockNotifier.class);
+
+    private static final int MAX_RESTOCKS = 1000;
+
+    //Subscribed customers who bought or watch restocked products, orders not submitted are not purchases
+    private static final String FAN_OUT_SQL = "INSERT INTO notificationoutbox (customer, sku) " +
+            "SELECT i.customer, i.sku FROM (" +
+            "SELECT o.customer, oi.productcard AS sku FROM orderitem oi JOIN ordermain o ON o.orderid = oi.ordermain " +
+            "WHERE oi.productcard = ANY (?) AND o.status <> " + EnumOrderStatus.CREATED.getCode() + " " +
+            "UNION SELECT w.customer, w.sku FROM productwatch w WHERE w.sku = ANY (?)) i " +
+            "JOIN customer c ON c.email = i.customer WHERE c.subscribe";
+
+    private final DataSource dataSource;
+    private final NotificationSender sender;
+    private final int batchSize;
+    private final int perTick;
+    private final long periodMillis;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param batchSize     notifications given to sender at once
+     * @param ratePerSecond max notifications sent per second
+     * @param periodMillis  period of reading restocks and sending
+     */
+    public RestockNotifier(DataSource dataSource, NotificationSender sender, int batchSize,
+                           int ratePerSecond, long periodMillis) {
+        if (batchSize < 1 || ratePerSecond < 1 || periodMillis < 1)
+            throw new IllegalArgumentException("Batch, rate and period must be positive");
+        this.dataSource = dataSource;
+        this.sender = sender;
+        this.batchSize = batchSize;
+        this.perTick = (int) Math.max(1, ratePerSecond * periodMillis / 1000);
+        this.periodMillis = periodMillis;
+    }
+
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "restock-notifier");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::tickQuietly, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (scheduler != null)
+            scheduler.shutdown();
+    }
+
+    //Customer wants to know when the product is in stock
+    public void watch(String sku, String email) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "INSERT INTO productwatch (sku, customer) VALUES (?, ?) ON CONFLICT DO NOTHING")) {
+            statement.setString(1, sku);
+            statement.setString(2, email);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Watch of product was not saved", e);
+        }
+    }
+
+    /**
+     * Method fanOut need for turn restocks into outbox rows
+     *
+     * @return int amount of added notifications
+     */
+    public int fanOut() {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                int added = fanOut(connection);
+                connection.commit();
+                return added;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Restocks were not read", e);
+        }
+    }
+
+    /**
+     * Method send need for send notifications of outbox, no more than
+     * rate allows for one period
+     *
+     * @return int amount of sent notifications
+     */
+    public int send() {
+        int sent = 0;
+        while (sent < perTick) {
+            int batch = sendBatch(Math.min(batchSize, perTick - sent));
+            if (batch == 0)
+                break;
+            sent += batch;
+        }
+        return sent;
+    }
+
+    //Remove sent notifications older than time
+    public int purge(LocalDateTime before) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "DELETE FROM notificationoutbox WHERE sent < ?")) {
+            statement.setTimestamp(1, Timestamp.valueOf(before));
+            return statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Sent notifications were not removed", e);
+        }
+    }
+
+    //Private helpful methods
+
+    private void tickQuietly() {
+        try {
+            fanOut();
+            send();
+        } catch (RuntimeException e) {
+            log.warn("Back in stock notifications were not sent", e);
+        }
+    }
+
+    private int fanOut(Connection connection) throws SQLException {
+        List<Long> ids = new ArrayList<>();
+        Set<String> skus = new LinkedHashSet<>();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT id, sku FROM restock ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED")) {
+            statement.setInt(1, MAX_RESTOCKS);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getLong(1));
+                    skus.add(rs.getString(2));
+                }
+            }
+        }
+        if (ids.isEmpty())
+            return 0;
+
+        int added;
+        try (PreparedStatement statement = connection.prepareStatement(FAN_OUT_SQL)) {
+            Array restocked = connection.createArrayOf("varchar", skus.toArray());
+            statement.setArray(1, restocked);
+            statement.setArray(2, restocked);
+            added = statement.executeUpdate();
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement("DELETE FROM restock WHERE id = ANY (?)")) {
+            statement.setArray(1, connection.createArrayOf("bigint", ids.toArray()));
+            statement.executeUpdate();
+        }
+        if (added > 0)
+            log.info("{} notifications for {} restocked products", added, skus.size());
+        return added;
+    }
+
+    private int sendBatch(int limit) {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                List<Notification> batch = new ArrayList<>(limit);
+                try (PreparedStatement statement = connection.prepareStatement(
+                        "SELECT id, customer, sku FROM notificationoutbox WHERE sent IS NULL " +
+                                "ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED")) {
+                    statement.setInt(1, limit);
+                    try (ResultSet rs = statement.executeQuery()) {
+                        while (rs.next())
+                            batch.add(new Notification(rs.getLong(1), rs.getString(2), rs.getString(3)));
+                    }
+                }
+
+                if (!batch.isEmpty()) {
+                    sender.send(batch);
+                    try (PreparedStatement statement = connection.prepareStatement(
+                            "UPDATE notificationoutbox SET sent = now() WHERE id = ANY (?)")) {
+                        statement.setArray(1, connection.createArrayOf("bigint",
+                                batch.stream().map(Notification::getId).toArray()));
+                        statement.executeUpdate();
+                    }
+                }
+                connection.commit();
+                return batch.size();
+            } catch (SQLException | RuntimeException e) {
+                //Batch stays in outbox and is sent again
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Notifications were not sent", e);
+        }
+    }
+}
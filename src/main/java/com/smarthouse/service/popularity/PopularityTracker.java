@@ -0,0 +1,267 @@
+package com.smarthouse.service.popularity;
+
+import com.smarthouse.pojo.ProductCard;
+import com.smarthouse.repository.ProductCardDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PopularityTracker counts likes, dislikes and purchases of products in memory
+ * and keeps a top of most popular products for every category.
+ * <p>
+ * Events only increment LongAdder counters, so clicks never touch the database.
+ * Every flush period the counters are drained: votes are written with one update
+ * per changed product, and products get a new score. Score is the Wilson lower
+ * bound of positive (likes and purchases) against negative (dislikes) events,
+ * where older events are decayed with the configured half-life.
+ * Purchases are not saved by the tracker, because they are already saved as OrderItems.
+ */
+public class PopularityTracker {
+
+    private static final Logger log = LoggerFactory.getLogger(PopularityTracker.class);
+
+    //z for 95% confidence
+    private static final double Z = 1.96;
+    private static final double PURCHASE_WEIGHT = 2.0;
+
+    private final ProductCardDao productCardDao;
+    private final int topSize;
+    private final long flushPeriodSeconds;
+    private final double decayPerMilli;
+
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private volatile Ranking ranking = new Ranking(Collections.<String>emptyList(),
+            Collections.<Integer, List<String>>emptyMap());
+    private ScheduledExecutorService scheduler;
+    private long lastFlush;
+
+    public PopularityTracker(ProductCardDao productCardDao, int topSize,
+                             long flushPeriodSeconds, long halfLifeHours) {
+        this.productCardDao = productCardDao;
+        this.topSize = topSize;
+        this.flushPeriodSeconds = flushPeriodSeconds;
+        this.decayPerMilli = Math.log(2) / TimeUnit.HOURS.toMillis(halfLifeHours);
+    }
+
+    public void start() {
+        reload();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "popularity-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushQuietly,
+                flushPeriodSeconds, flushPeriodSeconds, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        if (scheduler != null)
+            scheduler.shutdown();
+        flushQuietly();
+    }
+
+    //Drop all counters and read likes and dislikes of all products from DB again
+    public synchronized void reload() {
+        counters.clear();
+        lastFlush = System.currentTimeMillis();
+        for (Object[] row : productCardDao.findAllVotes()) {
+            Counter counter = new Counter((Integer) row[1]);
+            counter.positive = (Integer) row[2];
+            counter.negative = (Integer) row[3];
+            counter.score = wilsonLowerBound(counter.positive, counter.negative);
+            counters.put((String) row[0], counter);
+        }
+        ranking = rank();
+    }
+
+    //Return false if product with this sku not exist
+    public boolean like(String sku) {
+        Counter counter = counter(sku);
+        if (counter == null)
+            return false;
+        counter.likes.increment();
+        return true;
+    }
+
+    public boolean dislike(String sku) {
+        Counter counter = counter(sku);
+        if (counter == null)
+            return false;
+        counter.dislikes.increment();
+        return true;
+    }
+
+    public boolean purchase(String sku, int amount) {
+        Counter counter = counter(sku);
+        if (counter == null)
+            return false;
+        counter.purchases.add(amount);
+        return true;
+    }
+
+    /**
+     * Method getTopSkus return most popular products from last flush
+     *
+     * @param categoryId id of category, or null for products of all categories
+     * @param limit      max amount of products
+     * @return List<String> skus ordered from most popular
+     */
+    public List<String> getTopSkus(Integer categoryId, int limit) {
+        Ranking current = ranking;
+        List<String> top = categoryId == null ? current.all : current.byCategory.get(categoryId);
+        if (top == null)
+            return Collections.emptyList();
+        return top.subList(0, Math.min(limit, top.size()));
+    }
+
+    public synchronized void flush() {
+        long now = System.currentTimeMillis();
+        double decay = Math.exp(-decayPerMilli * (now - lastFlush));
+        lastFlush = now;
+        int failed = 0;
+
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            Counter counter = entry.getValue();
+            long likes = counter.likes.sumThenReset();
+            long dislikes = counter.dislikes.sumThenReset();
+            long purchases = counter.purchases.sumThenReset();
+
+            if ((likes != 0 || dislikes != 0) && !saveVotes(entry.getKey(), likes, dislikes)) {
+                //Keep events for next flush
+                counter.likes.add(likes);
+                counter.dislikes.add(dislikes);
+                counter.purchases.add(purchases);
+                likes = dislikes = purchases = 0;
+                failed++;
+            }
+
+            counter.positive = counter.positive * decay + likes + PURCHASE_WEIGHT * purchases;
+            counter.negative = counter.negative * decay + dislikes;
+            counter.score = wilsonLowerBound(counter.positive, counter.negative);
+        }
+
+        if (failed > 0)
+            log.warn("Votes of {} products were not saved and will be saved with next flush", failed);
+
+        ranking = rank();
+    }
+
+    static double wilsonLowerBound(double positive, double negative) {
+        double n = positive + negative;
+        if (n <= 0)
+            return 0;
+        double p = positive / n;
+        double z2 = Z * Z;
+        return (p + z2 / (2 * n) - Z * Math.sqrt((p * (1 - p) + z2 / (4 * n)) / n)) / (1 + z2 / n);
+    }
+
+    //Private helpful methods
+
+    private Counter counter(String sku) {
+        Counter counter = counters.get(sku);
+        if (counter != null)
+            return counter;
+
+        ProductCard productCard = productCardDao.findBySku(sku);
+        if (productCard == null)
+            return null;
+
+        Integer categoryId = productCard.getCategory() == null ? null : productCard.getCategory().getId();
+        Counter created = new Counter(categoryId);
+        created.positive = productCard.getLikes();
+        created.negative = productCard.getDislikes();
+        counter = counters.putIfAbsent(sku, created);
+        return counter == null ? created : counter;
+    }
+
+    private boolean saveVotes(String sku, long likes, long dislikes) {
+        try {
+            productCardDao.addVotes(sku, (int) likes, (int) dislikes);
+            return true;
+        } catch (RuntimeException e) {
+            log.debug("Votes of product {} not saved", sku, e);
+            return false;
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.warn("Flush of popularity counters failed", e);
+        }
+    }
+
+    private Ranking rank() {
+        Comparator<Map.Entry<String, Counter>> byScore =
+                Comparator.<Map.Entry<String, Counter>>comparingDouble(e -> e.getValue().score)
+                        .thenComparing(Map.Entry::getKey, Comparator.reverseOrder());
+
+        PriorityQueue<Map.Entry<String, Counter>> all = new PriorityQueue<>(byScore);
+        Map<Integer, PriorityQueue<Map.Entry<String, Counter>>> heaps = new HashMap<>();
+
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            offer(all, entry);
+            Integer categoryId = entry.getValue().categoryId;
+            if (categoryId != null)
+                offer(heaps.computeIfAbsent(categoryId, k -> new PriorityQueue<>(byScore)), entry);
+        }
+
+        Map<Integer, List<String>> byCategory = new HashMap<>();
+        for (Map.Entry<Integer, PriorityQueue<Map.Entry<String, Counter>>> heap : heaps.entrySet())
+            byCategory.put(heap.getKey(), drain(heap.getValue()));
+
+        return new Ranking(drain(all), byCategory);
+    }
+
+    //Heap keeps topSize best products, the worst of them is on the top of heap
+    private void offer(PriorityQueue<Map.Entry<String, Counter>> heap, Map.Entry<String, Counter> entry) {
+        if (heap.size() < topSize) {
+            heap.add(entry);
+        } else if (heap.comparator().compare(entry, heap.peek()) > 0) {
+            heap.poll();
+            heap.add(entry);
+        }
+    }
+
+    private static List<String> drain(PriorityQueue<Map.Entry<String, Counter>> heap) {
+        String[] skus = new String[heap.size()];
+        for (int i = skus.length - 1; i >= 0; i--)
+            skus[i] = heap.poll().getKey();
+        return Collections.unmodifiableList(Arrays.asList(skus));
+    }
+
+    private static final class Counter {
+        final Integer categoryId;
+        final LongAdder likes = new LongAdder();
+        final LongAdder dislikes = new LongAdder();
+        final LongAdder purchases = new LongAdder();
+
+        //Decayed totals and score, changed only under lock of tracker
+        double positive;
+        double negative;
+        double score;
+
+        Counter(Integer categoryId) {
+            this.categoryId = categoryId;
+        }
+    }
+
+    private static final class Ranking {
+        final List<String> all;
+        final Map<Integer, List<String>> byCategory;
+
+        Ranking(List<String> all, Map<Integer, List<String>> byCategory) {
+            this.all = all;
+            this.byCategory = byCategory;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.smarthouse.service.pricing;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * CartQuote is price of every line of cart with discount and the total.
+ * Products which not exist are not priced and are listed in missing.
+ */
+public final class CartQuote {
+
+    private final Map<String, Money> lines;
+    private final Set<String> missing;
+    private final Money total;
+
+    public CartQuote(Map<String, Money> lines, Set<String> missing, Money total) {
+        this.lines = Collections.unmodifiableMap(lines);
+        this.missing = Collections.unmodifiableSet(missing);
+        this.total = total;
+    }
+
+    //Price of lines by sku, in order of cart
+    public Map<String, Money> getLines() {
+        return lines;
+    }
+
+    public Set<String> getMissing() {
+        return missing;
+    }
+
+    public Money getTotal() {
+        return total;
+    }
+}
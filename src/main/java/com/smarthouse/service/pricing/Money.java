@@ -0,0 +1,67 @@
+package com.smarthouse.service.pricing;
+
+/**
+ * Money is an amount in the same units as ProductCard price, kept in long.
+ * Operations never overflow silently: result which does not fit in long
+ * throws ArithmeticException.
+ */
+public final class Money implements Comparable<Money> {
+
+    public static final Money ZERO = new Money(0);
+
+    private static final int BASIS_POINTS = 10000;
+
+    private final long amount;
+
+    private Money(long amount) {
+        this.amount = amount;
+    }
+
+    public static Money of(long amount) {
+        return amount == 0 ? ZERO : new Money(amount);
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public Money plus(Money other) {
+        return of(Math.addExact(amount, other.amount));
+    }
+
+    public Money times(int quantity) {
+        return of(Math.multiplyExact(amount, quantity));
+    }
+
+    //Amount less discount in basis points (100 is 1%), rounded half up
+    public Money discount(int basisPoints) {
+        if (basisPoints < 0 || basisPoints > BASIS_POINTS)
+            throw new IllegalArgumentException("Wrong discount: " + basisPoints);
+
+        //Split amount so that multiplication can't overflow
+        int left = BASIS_POINTS - basisPoints;
+        long whole = amount / BASIS_POINTS * left;
+        long rest = amount % BASIS_POINTS * left;
+        return of(whole + Math.floorDiv(rest + BASIS_POINTS / 2, BASIS_POINTS));
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(amount, other.amount);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof Money && ((Money) o).amount == amount;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(amount);
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(amount);
+    }
+}
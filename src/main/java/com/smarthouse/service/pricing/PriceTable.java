@@ -0,0 +1,91 @@
+package com.smarthouse.service.pricing;
+
+import java.util.*;
+
+/**
+ * PriceTable is PriceRules compiled for lookup without DB. Rules of one
+ * product, of one category and of all products are kept as tiers sorted
+ * by min amount, so discount is found by binary search. Fitting rule of
+ * product wins over rule of category, which wins over rule for all products.
+ */
+final class PriceTable {
+
+    static final PriceTable EMPTY = compile(Collections.<Object[]>emptyList());
+
+    private final Map<String, Tiers> bySku;
+    private final Map<Integer, Tiers> byCategory;
+    private final Tiers all;
+
+    private PriceTable(Map<String, Tiers> bySku, Map<Integer, Tiers> byCategory, Tiers all) {
+        this.bySku = bySku;
+        this.byCategory = byCategory;
+        this.all = all;
+    }
+
+    //Rows of sku, category id, min amount and discount, as from PriceRuleDao.findAllForTable
+    static PriceTable compile(List<Object[]> rows) {
+        Map<String, TreeMap<Integer, Integer>> skuRules = new HashMap<>();
+        Map<Integer, TreeMap<Integer, Integer>> categoryRules = new HashMap<>();
+        TreeMap<Integer, Integer> allRules = new TreeMap<>();
+
+        for (Object[] row : rows) {
+            TreeMap<Integer, Integer> rules = row[0] != null
+                    ? skuRules.computeIfAbsent((String) row[0], k -> new TreeMap<>())
+                    : row[1] != null
+                    ? categoryRules.computeIfAbsent((Integer) row[1], k -> new TreeMap<>())
+                    : allRules;
+            //Bigger discount wins when two rules have the same min amount
+            rules.merge((Integer) row[2], (Integer) row[3], Math::max);
+        }
+
+        Map<String, Tiers> bySku = new HashMap<>();
+        skuRules.forEach((sku, rules) -> bySku.put(sku, new Tiers(rules)));
+        Map<Integer, Tiers> byCategory = new HashMap<>();
+        categoryRules.forEach((id, rules) -> byCategory.put(id, new Tiers(rules)));
+        return new PriceTable(bySku, byCategory, allRules.isEmpty() ? null : new Tiers(allRules));
+    }
+
+    /**
+     * Method discount find discount for order line
+     *
+     * @param sku        unique id of product
+     * @param categoryId id of category of product, or null
+     * @param amount     amount of product in line
+     * @return int discount in basis points, 0 if no rule fits
+     */
+    int discount(String sku, Integer categoryId, int amount) {
+        int discount = discount(bySku.get(sku), amount);
+        if (discount < 0 && categoryId != null)
+            discount = discount(byCategory.get(categoryId), amount);
+        if (discount < 0)
+            discount = discount(all, amount);
+        return Math.max(discount, 0);
+    }
+
+    private static int discount(Tiers tiers, int amount) {
+        return tiers == null ? -1 : tiers.discount(amount);
+    }
+
+    private static final class Tiers {
+        final int[] minAmounts;
+        final int[] discounts;
+
+        Tiers(SortedMap<Integer, Integer> rules) {
+            minAmounts = new int[rules.size()];
+            discounts = new int[rules.size()];
+            int i = 0;
+            for (Map.Entry<Integer, Integer> rule : rules.entrySet()) {
+                minAmounts[i] = rule.getKey();
+                discounts[i++] = rule.getValue();
+            }
+        }
+
+        //Discount of the rule with the biggest min amount not above amount, -1 if no rule fits
+        int discount(int amount) {
+            int index = Arrays.binarySearch(minAmounts, amount);
+            if (index < 0)
+                index = -index - 2;
+            return index < 0 ? -1 : discounts[index];
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.smarthouse.service.pricing;
+
+import com.smarthouse.pojo.ProductCard;
+import com.smarthouse.repository.PriceRuleDao;
+import com.smarthouse.repository.ProductCardDao;
+import com.smarthouse.service.catalog.CatalogSnapshotManager;
+import com.smarthouse.service.catalog.ProductView;
+import com.smarthouse.service.invalidation.InvalidationListener;
+import com.smarthouse.service.util.enums.EnumCachedEntity;
+
+import java.util.*;
+
+/**
+ * PricingEngine computes prices of order lines with discounts of PriceRules.
+ * Rules are read from DB once and compiled to PriceTable, which is built
+ * again when rules are changed on any node.
+ * <p>
+ * Cart is priced from CatalogSnapshot, so prices of products are not
+ * loaded as entities one by one. Products which are not in the snapshot
+ * yet, or were changed after it, are read from DB with one query, so
+ * quote has the same prices as the order created from the cart.
+ */
+public class PricingEngine implements InvalidationListener {
+
+    private final PriceRuleDao priceRuleDao;
+    private final ProductCardDao productCardDao;
+    private final CatalogSnapshotManager catalogSnapshotManager;
+
+    private volatile PriceTable table = PriceTable.EMPTY;
+
+    public PricingEngine(PriceRuleDao priceRuleDao, ProductCardDao productCardDao,
+                         CatalogSnapshotManager catalogSnapshotManager) {
+        this.priceRuleDao = priceRuleDao;
+        this.productCardDao = productCardDao;
+        this.catalogSnapshotManager = catalogSnapshotManager;
+    }
+
+    public void reload() {
+        table = PriceTable.compile(priceRuleDao.findAllForTable());
+    }
+
+    //Return discount in basis points for amount of product
+    public int discount(String sku, Integer categoryId, int amount) {
+        return table.discount(sku, categoryId, amount);
+    }
+
+    public Money price(ProductCard productCard, int amount) {
+        Integer categoryId = productCard.getCategory() == null ? null : productCard.getCategory().getId();
+        return price(productCard.getSku(), categoryId, productCard.getPrice(), amount);
+    }
+
+    /**
+     * Method price compute price of order line
+     *
+     * @param sku        unique id of product
+     * @param categoryId id of category of product, or null
+     * @param unitPrice  price of one product
+     * @param amount     amount of product
+     * @return Money price of all amount less discount
+     * @throws ArithmeticException if price does not fit in long
+     */
+    public Money price(String sku, Integer categoryId, int unitPrice, int amount) {
+        return Money.of(unitPrice).times(amount).discount(table.discount(sku, categoryId, amount));
+    }
+
+    /**
+     * Method quote compute prices of all lines of cart and the total
+     *
+     * @param items amounts of products by sku
+     * @return CartQuote prices of lines, the total and unknown products
+     */
+    public CartQuote quote(Map<String, Integer> items) {
+        Map<String, Money> lines = new LinkedHashMap<>();
+        Set<String> notInSnapshot = new LinkedHashSet<>();
+
+        for (Map.Entry<String, Integer> item : items.entrySet()) {
+            ProductView view = catalogSnapshotManager == null ? null : catalogSnapshotManager.findProduct(item.getKey());
+            if (view == null) {
+                notInSnapshot.add(item.getKey());
+                lines.put(item.getKey(), null);
+                continue;
+            }
+            Integer categoryId = view.getCategoryId() == 0 ? null : view.getCategoryId();
+            lines.put(item.getKey(), price(item.getKey(), categoryId, view.getPrice(), item.getValue()));
+        }
+
+        if (!notInSnapshot.isEmpty()) {
+            for (ProductCard productCard : productCardDao.findBySkuIn(notInSnapshot)) {
+                lines.put(productCard.getSku(), price(productCard, items.get(productCard.getSku())));
+                notInSnapshot.remove(productCard.getSku());
+            }
+            lines.keySet().removeAll(notInSnapshot);
+        }
+
+        Money total = Money.ZERO;
+        for (Money line : lines.values())
+            total = total.plus(line);
+        return new CartQuote(lines, notInSnapshot, total);
+    }
+
+    @Override
+    public void invalidate(EnumCachedEntity type, Collection<String> keys) {
+        if (type == EnumCachedEntity.PRICE_RULE)
+            reload();
+    }
+
+    @Override
+    public void invalidateAll() {
+        reload();
+    }
+}
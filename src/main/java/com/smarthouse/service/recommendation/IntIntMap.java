@@ -0,0 +1,82 @@
+package com.smarthouse.service.recommendation;
+
+/**
+ * IntIntMap is open addressing map from not negative int to int count,
+ * without boxing. Keys are kept plus one, so 0 means an empty slot.
+ */
+final class IntIntMap {
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+
+    IntIntMap(int expected) {
+        int capacity = 4;
+        while (capacity * 3 < expected * 4)
+            capacity <<= 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+    }
+
+    void add(int key, int delta) {
+        int slot = slot(keys, key);
+        if (keys[slot] == 0) {
+            keys[slot] = key + 1;
+            if (++size * 4 > keys.length * 3)
+                grow();
+            slot = slot(keys, key);
+        }
+        values[slot] += delta;
+    }
+
+    int get(int key) {
+        int slot = slot(keys, key);
+        return keys[slot] == 0 ? 0 : values[slot];
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return keys.length;
+    }
+
+    //Key in slot, or -1 for empty slot
+    int keyAt(int slot) {
+        return keys[slot] - 1;
+    }
+
+    int valueAt(int slot) {
+        return values[slot];
+    }
+
+    void addAll(IntIntMap other) {
+        for (int slot = 0; slot < other.keys.length; slot++)
+            if (other.keys[slot] != 0)
+                add(other.keys[slot] - 1, other.values[slot]);
+    }
+
+    private static int slot(int[] keys, int key) {
+        int mask = keys.length - 1;
+        int hash = key * 0x9E3779B9;
+        int slot = (hash ^ hash >>> 16) & mask;
+        while (keys[slot] != 0 && keys[slot] != key + 1)
+            slot = slot + 1 & mask;
+        return slot;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = slot(keys, oldKeys[i] - 1);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.smarthouse.service.recommendation;
+
+import com.smarthouse.repository.OrderItemDao;
+import com.smarthouse.service.util.enums.EnumOrderStatus;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * RecommendationEngine keeps "also bought" products: for every sku the
+ * products which were most often in the same submitted orders.
+ * <p>
+ * Skus get int ids, and the sparse sku x sku matrix of co-occurrence
+ * is kept as one IntIntMap per sku. On rebuild orders are read by one
+ * cursor in batches, and the next batch is read while the previous one is
+ * counted. Orders of a batch are split between tasks of ForkJoinPool, every
+ * task counts pairs of its orders into own rows of only the skus it met,
+ * and the smaller rows are added to the bigger ones. Then top of every row
+ * is taken in parallel. After rebuild every submitted order only adds its
+ * pairs and takes top of its rows again.
+ * <p>
+ * Orders with more than maxOrderItems products give only pairs of their
+ * first products by order of items, so one big order can't take quadratic
+ * time. Cancelled orders are removed from counts only by the next rebuild.
+ */
+public class RecommendationEngine {
+
+    //Statuses of orders which are counted
+    public static final Set<EnumOrderStatus> SUBMITTED_STATUSES = EnumSet.of(EnumOrderStatus.SUBMITTED,
+            EnumOrderStatus.PROCESSING, EnumOrderStatus.SHIPPED, EnumOrderStatus.DELIVERED);
+
+    //Orders counted by one batch of tasks
+    private static final int BATCH = 100_000;
+
+    private final OrderItemDao orderItemDao;
+    private final PlatformTransactionManager transactionManager;
+    private final int topSize;
+    private final int maxOrderItems;
+    private final ForkJoinPool pool;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> skus = new ArrayList<>();
+    private IntIntMap[] matrix = new IntIntMap[0];
+    private final ConcurrentMap<String, List<String>> related = new ConcurrentHashMap<>();
+
+    /**
+     * @param topSize       related products kept for every sku
+     * @param maxOrderItems products of one order which are counted
+     * @param parallelism   threads of rebuild
+     */
+    public RecommendationEngine(OrderItemDao orderItemDao, PlatformTransactionManager transactionManager,
+                                int topSize, int maxOrderItems, int parallelism) {
+        this.orderItemDao = orderItemDao;
+        this.transactionManager = transactionManager;
+        this.topSize = topSize;
+        this.maxOrderItems = maxOrderItems;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    public void stop() {
+        pool.shutdown();
+    }
+
+    /**
+     * Method getRelated return products bought together with the product
+     *
+     * @param sku   unique id of product
+     * @param limit max amount of products
+     * @return List<String> skus from the most often bought together
+     */
+    public List<String> getRelated(String sku, int limit) {
+        List<String> top = related.get(sku);
+        if (top == null)
+            return Collections.emptyList();
+        return top.subList(0, Math.min(limit, top.size()));
+    }
+
+    //Count all submitted orders again
+    public synchronized void rebuild() {
+        ids.clear();
+        skus.clear();
+
+        //Cursor of PostgreSQL is kept open only inside transaction
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(true);
+        Rows rows = transaction.execute(status -> countOrders());
+
+        int skuCount = skus.size();
+        IntIntMap[] counted = rows.toMatrix(skuCount);
+        matrix = counted;
+
+        Map<String, List<String>> tops = new ConcurrentHashMap<>();
+        pool.submit(() -> IntStream.range(0, skuCount).parallel().forEach(id -> {
+            if (counted[id] != null)
+                tops.put(skus.get(id), top(counted[id]));
+        })).join();
+
+        related.keySet().retainAll(tops.keySet());
+        related.putAll(tops);
+    }
+
+    //Add pairs of one submitted order, skus are in order of its items
+    public synchronized void orderSubmitted(Collection<String> orderSkus) {
+        int[] order = distinct(orderSkus.stream().map(this::id).collect(Collectors.toList()));
+        if (order.length < 2)
+            return;
+        if (matrix.length < skus.size())
+            matrix = Arrays.copyOf(matrix, Math.max(skus.size(), matrix.length * 2));
+
+        addPairs(matrix, order);
+        for (int id : order)
+            related.put(skus.get(id), top(matrix[id]));
+    }
+
+    //Private helpful methods
+
+    private Rows countOrders() {
+        Rows total = new Rows();
+        ForkJoinTask<Rows> counting = null;
+        List<int[]> batch = new ArrayList<>();
+
+        //Rows are ordered by orderId, so items of one order are together
+        List<Integer> order = new ArrayList<>();
+        Object lastOrderId = null;
+        try (Stream<Object[]> rows = orderItemDao.streamSkusOfOrders(SUBMITTED_STATUSES)) {
+            for (Iterator<Object[]> iterator = rows.iterator(); iterator.hasNext(); ) {
+                Object[] row = iterator.next();
+                if (!row[0].equals(lastOrderId)) {
+                    addOrder(batch, order);
+                    lastOrderId = row[0];
+                    if (batch.size() >= BATCH) {
+                        counting = count(total, counting, batch);
+                        batch = new ArrayList<>();
+                    }
+                }
+                order.add(id((String) row[1]));
+            }
+        }
+        addOrder(batch, order);
+        total.addAll(count(total, counting, batch).join());
+        return total;
+    }
+
+    //Start counting of batch and add counts of the previous batch to total
+    private ForkJoinTask<Rows> count(Rows total, ForkJoinTask<Rows> previous, List<int[]> batch) {
+        int chunk = Math.max(1000, batch.size() / (pool.getParallelism() * 4) + 1);
+        ForkJoinTask<Rows> task = pool.submit(new CountTask(batch, 0, batch.size(), chunk));
+        if (previous != null)
+            total.addAll(previous.join());
+        return task;
+    }
+
+    private int id(String sku) {
+        Integer id = ids.get(sku);
+        if (id == null) {
+            id = skus.size();
+            ids.put(sku, id);
+            skus.add(sku);
+        }
+        return id;
+    }
+
+    private void addOrder(List<int[]> orders, List<Integer> order) {
+        int[] distinct = distinct(order);
+        if (distinct.length > 1)
+            orders.add(distinct);
+        order.clear();
+    }
+
+    private int[] distinct(List<Integer> order) {
+        return order.stream().mapToInt(Integer::intValue).distinct().limit(maxOrderItems).toArray();
+    }
+
+    private static void addPairs(IntIntMap[] matrix, int[] order) {
+        for (int a : order) {
+            if (matrix[a] == null)
+                matrix[a] = new IntIntMap(order.length);
+            for (int b : order)
+                if (a != b)
+                    matrix[a].add(b, 1);
+        }
+    }
+
+    //Skus of row with the greatest counts, of equal counts the first by id
+    private List<String> top(IntIntMap row) {
+        long[] entries = new long[row.size()];
+        int n = 0;
+        for (int slot = 0; slot < row.capacity(); slot++) {
+            int key = row.keyAt(slot);
+            if (key >= 0)
+                entries[n++] = (long) row.valueAt(slot) << 32 | (Integer.MAX_VALUE - key);
+        }
+        Arrays.sort(entries);
+
+        List<String> top = new ArrayList<>(Math.min(topSize, n));
+        for (int i = n - 1; i >= 0 && top.size() < topSize; i--)
+            top.add(skus.get(Integer.MAX_VALUE - (int) entries[i]));
+        return top;
+    }
+
+    /**
+     * Rows of co-occurrence matrix only for skus which have them
+     */
+    private static final class Rows {
+
+        //Position of row plus one by sku id
+        private final IntIntMap positions = new IntIntMap(16);
+        private final List<IntIntMap> rows = new ArrayList<>();
+
+        void addPairs(int[] order) {
+            for (int a : order) {
+                IntIntMap row = row(a, order.length);
+                for (int b : order)
+                    if (a != b)
+                        row.add(b, 1);
+            }
+        }
+
+        //Rows of other are added, the smaller row of one sku is added to the bigger one
+        void addAll(Rows other) {
+            for (int slot = 0; slot < other.positions.capacity(); slot++) {
+                int id = other.positions.keyAt(slot);
+                if (id < 0)
+                    continue;
+                IntIntMap row = other.rows.get(other.positions.valueAt(slot) - 1);
+                int position = positions.get(id) - 1;
+                if (position < 0) {
+                    rows.add(row);
+                    positions.add(id, rows.size());
+                } else if (rows.get(position).size() >= row.size()) {
+                    rows.get(position).addAll(row);
+                } else {
+                    row.addAll(rows.get(position));
+                    rows.set(position, row);
+                }
+            }
+        }
+
+        int size() {
+            return rows.size();
+        }
+
+        IntIntMap[] toMatrix(int skuCount) {
+            IntIntMap[] matrix = new IntIntMap[skuCount];
+            for (int slot = 0; slot < positions.capacity(); slot++) {
+                int id = positions.keyAt(slot);
+                if (id >= 0)
+                    matrix[id] = rows.get(positions.valueAt(slot) - 1);
+            }
+            return matrix;
+        }
+
+        private IntIntMap row(int id, int expected) {
+            int position = positions.get(id);
+            if (position > 0)
+                return rows.get(position - 1);
+            IntIntMap row = new IntIntMap(expected);
+            rows.add(row);
+            positions.add(id, rows.size());
+            return row;
+        }
+    }
+
+    /**
+     * Counts pairs of orders from..to, halves are counted by own tasks
+     */
+    private static final class CountTask extends RecursiveTask<Rows> {
+
+        private final List<int[]> orders;
+        private final int from;
+        private final int to;
+        private final int chunk;
+
+        CountTask(List<int[]> orders, int from, int to, int chunk) {
+            this.orders = orders;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected Rows compute() {
+            if (to - from <= chunk) {
+                Rows rows = new Rows();
+                for (int i = from; i < to; i++)
+                    rows.addPairs(orders.get(i));
+                return rows;
+            }
+
+            int middle = (from + to) >>> 1;
+            CountTask right = new CountTask(orders, middle, to, chunk);
+            right.fork();
+            Rows rows = new CountTask(orders, from, middle, chunk).compute();
+            Rows other = right.join();
+            if (rows.size() >= other.size()) {
+                rows.addAll(other);
+                return rows;
+            }
+            other.addAll(rows);
+            return other;
+        }
+    }
+}
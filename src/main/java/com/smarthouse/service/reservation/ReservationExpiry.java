@@ -0,0 +1,144 @@
+package com.smarthouse.service.reservation;
+
+import com.smarthouse.pojo.OrderMain;
+import com.smarthouse.repository.OrderMainDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.smarthouse.service.util.enums.EnumOrderStatus.CANCELLED;
+import static com.smarthouse.service.util.enums.EnumOrderStatus.CREATED;
+
+/**
+ * ReservationExpiry cancels orders which were created but not submitted
+ * for timeout. Every created order is scheduled on TimingWheel, and
+ * submitted or cancelled orders are taken off it. Every tick background
+ * thread takes due orders and cancels them with one bulk update, which
+ * changes only orders still in CREATED, so order submitted at the same
+ * moment is not cancelled.
+ * <p>
+ * Wheel is kept only in memory, on start it is filled again from orders
+ * in CREATED and their created time. Orders which expired while the node
+ * was down are cancelled on the first tick.
+ */
+public class ReservationExpiry {
+
+    private static final Logger log = LoggerFactory.getLogger(ReservationExpiry.class);
+
+    //Ids in one update, under limit of bind parameters
+    private static final int MAX_BATCH = 10_000;
+
+    private final OrderMainDao orderMainDao;
+    private final long timeoutMillis;
+    private final long tickMillis;
+    private final TimingWheel wheel;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param timeoutMinutes time after creation when order is cancelled
+     * @param tickMillis     period of checking due orders
+     * @param wheelSize      buckets of wheel, power of two
+     */
+    public ReservationExpiry(OrderMainDao orderMainDao, long timeoutMinutes, long tickMillis, int wheelSize) {
+        this.orderMainDao = orderMainDao;
+        this.timeoutMillis = TimeUnit.MINUTES.toMillis(timeoutMinutes);
+        this.tickMillis = tickMillis;
+        this.wheel = new TimingWheel(tickMillis, wheelSize, System.currentTimeMillis());
+    }
+
+    public void start() {
+        recover();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "reservation-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::expireQuietly, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (scheduler != null)
+            scheduler.shutdown();
+    }
+
+    //Schedule all orders in CREATED again, return amount of orders
+    public synchronized int recover() {
+        wheel.clear(System.currentTimeMillis());
+        for (Object[] row : orderMainDao.findCreatedByStatus(CREATED))
+            wheel.schedule((Integer) row[0], deadline((LocalDateTime) row[1]));
+        log.info("{} reservations scheduled", wheel.size());
+        return wheel.size();
+    }
+
+    public synchronized void orderCreated(OrderMain orderMain) {
+        wheel.schedule(orderMain.getOrderId(), deadline(orderMain.getCreated()));
+    }
+
+    //Orders left CREATED, they must not be expired
+    public synchronized void ordersClosed(Collection<Integer> orderIds) {
+        for (Integer orderId : orderIds)
+            wheel.cancel(orderId);
+    }
+
+    public synchronized int size() {
+        return wheel.size();
+    }
+
+    /**
+     * Method expire need for cancel orders which are due at the time
+     *
+     * @param now current time
+     * @return int amount of cancelled orders
+     */
+    public int expire(LocalDateTime now) {
+        List<Integer> due;
+        synchronized (this) {
+            due = wheel.advance(millis(now));
+        }
+
+        int cancelled = 0;
+        for (int from = 0; from < due.size(); from += MAX_BATCH) {
+            List<Integer> batch = due.subList(from, Math.min(due.size(), from + MAX_BATCH));
+            try {
+                cancelled += orderMainDao.updateStatus(batch, CREATED, CANCELLED);
+            } catch (RuntimeException e) {
+                //Not cancelled orders are tried again on the next tick
+                reschedule(due.subList(from, due.size()), millis(now));
+                throw e;
+            }
+        }
+        if (cancelled > 0)
+            log.info("{} reservations expired", cancelled);
+        return cancelled;
+    }
+
+    //Private helpful methods
+
+    private void expireQuietly() {
+        try {
+            expire(LocalDateTime.now());
+        } catch (RuntimeException e) {
+            log.warn("Reservations were not expired", e);
+        }
+    }
+
+    private synchronized void reschedule(List<Integer> orderIds, long nowMillis) {
+        for (Integer orderId : orderIds)
+            wheel.schedule(orderId, nowMillis + tickMillis);
+    }
+
+    private long deadline(LocalDateTime created) {
+        return (created == null ? System.currentTimeMillis() : millis(created)) + timeoutMillis;
+    }
+
+    private static long millis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,110 @@
+package com.smarthouse.service.reservation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TimingWheel is hashed wheel of int ids with deadlines. Time is split
+ * into ticks, and id is kept in bucket of its deadline tick modulo size of
+ * wheel, so schedule is O(1) and one tick looks only at its own bucket.
+ * Deadlines further than one turn of wheel stay in bucket for next turns.
+ * <p>
+ * Cancelled and rescheduled ids are only forgotten in the map of
+ * deadlines, their old entries are dropped when the bucket is visited.
+ * Not thread safe.
+ */
+final class TimingWheel {
+
+    private static final int[] EMPTY = new int[0];
+
+    private final long tickMillis;
+    private final int mask;
+    private final int[][] buckets;
+    private final int[] sizes;
+    private final Map<Integer, Long> deadlines = new HashMap<>();
+    //Next tick which was not visited yet
+    private long tick;
+
+    /**
+     * @param wheelSize buckets of wheel, power of two
+     */
+    TimingWheel(long tickMillis, int wheelSize, long startMillis) {
+        if (tickMillis <= 0 || wheelSize <= 0 || Integer.bitCount(wheelSize) != 1)
+            throw new IllegalArgumentException("Tick must be positive and size of wheel power of two");
+        this.tickMillis = tickMillis;
+        this.mask = wheelSize - 1;
+        this.buckets = new int[wheelSize][];
+        this.sizes = new int[wheelSize];
+        clear(startMillis);
+    }
+
+    void clear(long startMillis) {
+        Arrays.fill(buckets, EMPTY);
+        Arrays.fill(sizes, 0);
+        deadlines.clear();
+        tick = Math.floorDiv(startMillis, tickMillis);
+    }
+
+    int size() {
+        return deadlines.size();
+    }
+
+    //Deadline in the past is due on the next visited tick
+    void schedule(int id, long deadlineMillis) {
+        long deadline = Math.max(-Math.floorDiv(-deadlineMillis, tickMillis), tick);
+        deadlines.put(id, deadline);
+
+        int bucket = (int) deadline & mask;
+        if (sizes[bucket] == buckets[bucket].length)
+            buckets[bucket] = Arrays.copyOf(buckets[bucket], Math.max(4, sizes[bucket] * 2));
+        buckets[bucket][sizes[bucket]++] = id;
+    }
+
+    void cancel(int id) {
+        deadlines.remove(id);
+    }
+
+    /**
+     * Visit ticks up to nowMillis and take ids which are due. When more
+     * than one turn passed every bucket is visited only once.
+     *
+     * @return List<Integer> ids in order of visited buckets
+     */
+    List<Integer> advance(long nowMillis) {
+        long now = Math.floorDiv(nowMillis, tickMillis);
+        List<Integer> expired = new ArrayList<>();
+        if (now < tick)
+            return expired;
+
+        long last = Math.min(now, tick + mask);
+        for (long t = tick; t <= last; t++)
+            sweep((int) t & mask, now, expired);
+        tick = now + 1;
+        return expired;
+    }
+
+    //Private helpful methods
+
+    private void sweep(int bucket, long now, List<Integer> expired) {
+        int[] ids = buckets[bucket];
+        int kept = 0;
+        for (int i = 0; i < sizes[bucket]; i++) {
+            int id = ids[i];
+            Long deadline = deadlines.get(id);
+            //Cancelled, or rescheduled into other bucket
+            if (deadline == null || ((int) (long) deadline & mask) != bucket)
+                continue;
+            if (deadline <= now) {
+                deadlines.remove(id);
+                expired.add(id);
+            } else
+                ids[kept++] = id;
+        }
+        sizes[bucket] = kept;
+        if (kept == 0)
+            buckets[bucket] = EMPTY;
+    }
+}
@@ -0,0 +1,364 @@
+package com.smarthouse.service.search;
+
+import com.smarthouse.pojo.Category;
+import com.smarthouse.pojo.ProductCard;
+import com.smarthouse.repository.CategoryDao;
+import com.smarthouse.repository.OrderItemDao;
+import com.smarthouse.repository.ProductCardDao;
+import com.smarthouse.service.invalidation.InvalidationListener;
+import com.smarthouse.service.util.enums.EnumCachedEntity;
+import com.smarthouse.service.util.enums.EnumCompletionType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Autocomplete suggests products by name or sku and categories by name
+ * for every typed prefix, from memory only. Products are weighted by
+ * popularity: likes and purchased amount, which counts twice. Category
+ * weight is the sum of weights of its products.
+ * <p>
+ * When nothing or too little starts with the prefix, prefixes within one
+ * typo (missed, extra, wrong or swapped letter) are completed too, after
+ * exact completions.
+ * <p>
+ * Changed products and categories come from invalidation and are read
+ * from DB by background thread into a small overlay over the index, changed
+ * products with their sold amounts of now. When the overlay grows over
+ * maxChanges, the whole index is built again. It is built again every
+ * rebuild period too, so weights of categories and of products which were
+ * sold but not changed follow sales.
+ */
+public class Autocomplete implements InvalidationListener {
+
+    private static final Logger log = LoggerFactory.getLogger(Autocomplete.class);
+
+    private static final int PURCHASE_WEIGHT = 2;
+    private static final int MIN_TYPO_LENGTH = 3;
+
+    private final ProductCardDao productCardDao;
+    private final CategoryDao categoryDao;
+    private final OrderItemDao orderItemDao;
+    private final int maxChanges;
+    private final long checkPeriodSeconds;
+    private long rebuildPeriodMinutes = 60;
+
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean allChanged = new AtomicBoolean();
+    private volatile State state = new State(AutocompleteIndex.EMPTY, Collections.emptyMap(), Collections.emptySet());
+
+    //Weights of categories from the last build, for changed categories
+    private Map<Integer, Long> categoryWeights = Collections.emptyMap();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param maxChanges         changed entities kept over index before it is built again
+     * @param checkPeriodSeconds period of reading changed entities
+     */
+    public Autocomplete(ProductCardDao productCardDao, CategoryDao categoryDao, OrderItemDao orderItemDao,
+                        int maxChanges, long checkPeriodSeconds) {
+        this.productCardDao = productCardDao;
+        this.categoryDao = categoryDao;
+        this.orderItemDao = orderItemDao;
+        this.maxChanges = maxChanges;
+        this.checkPeriodSeconds = checkPeriodSeconds;
+    }
+
+    public void setRebuildPeriodMinutes(long rebuildPeriodMinutes) {
+        this.rebuildPeriodMinutes = rebuildPeriodMinutes;
+    }
+
+    public void start() {
+        rebuild();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "autocomplete");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::applyChangesQuietly,
+                checkPeriodSeconds, checkPeriodSeconds, TimeUnit.SECONDS);
+        scheduler.scheduleWithFixedDelay(this::rebuildQuietly,
+                rebuildPeriodMinutes, rebuildPeriodMinutes, TimeUnit.MINUTES);
+    }
+
+    public void stop() {
+        if (scheduler != null)
+            scheduler.shutdown();
+    }
+
+    /**
+     * Method complete need for suggestions while user types
+     *
+     * @param prefix typed text, case and extra spaces are ignored
+     * @param limit  max amount of completions
+     * @return List<Completion> exact completions from the heaviest, then
+     * completions of prefixes with one typo
+     */
+    public List<Completion> complete(String prefix, int limit) {
+        String query = AutocompleteIndex.normalize(prefix);
+        if (query.isEmpty() || limit <= 0)
+            return Collections.emptyList();
+
+        State current = state;
+        Map<String, Completion> result = new LinkedHashMap<>();
+        collect(current, Collections.singletonList(query), limit, result, false);
+        if (result.size() < limit && query.length() >= MIN_TYPO_LENGTH)
+            collect(current, typos(query, current.index.getAlphabet()), limit, result, true);
+        return new ArrayList<>(result.values());
+    }
+
+    public int size() {
+        return state.index.size();
+    }
+
+    @Override
+    public void invalidate(EnumCachedEntity type, Collection<String> keys) {
+        if (type != EnumCachedEntity.PRODUCT && type != EnumCachedEntity.CATEGORY)
+            return;
+        EnumCompletionType completionType = type == EnumCachedEntity.PRODUCT
+                ? EnumCompletionType.PRODUCT : EnumCompletionType.CATEGORY;
+        for (String key : keys)
+            pending.add(completionType.name() + ':' + key);
+    }
+
+    @Override
+    public void invalidateAll() {
+        allChanged.set(true);
+    }
+
+    public synchronized void rebuild() {
+        allChanged.set(false);
+        pending.clear();
+
+        Map<String, Long> sold = sold(orderItemDao.sumAmountsBySku());
+
+        List<Completion> completions = new ArrayList<>();
+        Map<Integer, Long> categoryWeights = new HashMap<>();
+        for (Object[] row : productCardDao.findAllForSnapshot()) {
+            String sku = (String) row[0];
+            long weight = weight((Integer) row[4], sold.get(sku));
+            completions.add(new Completion(EnumCompletionType.PRODUCT, sku, (String) row[1], weight));
+            if (row[7] != null)
+                categoryWeights.merge((Integer) row[7], weight, Long::sum);
+        }
+        for (Object[] row : categoryDao.findAllForSnapshot()) {
+            Integer id = (Integer) row[0];
+            completions.add(new Completion(EnumCompletionType.CATEGORY, String.valueOf(id), (String) row[1],
+                    categoryWeights.getOrDefault(id, 0L)));
+        }
+
+        this.categoryWeights = categoryWeights;
+        state = new State(AutocompleteIndex.build(completions), Collections.emptyMap(), Collections.emptySet());
+    }
+
+    //Read pending changed entities from DB into overlay
+    public synchronized void applyChanges() {
+        if (allChanged.get()) {
+            rebuild();
+            return;
+        }
+        if (pending.isEmpty())
+            return;
+
+        List<String> ids = new ArrayList<>(pending);
+        pending.removeAll(ids);
+        try {
+            applyChanges(ids);
+        } catch (RuntimeException e) {
+            //Try again with next check
+            pending.addAll(ids);
+            throw e;
+        }
+    }
+
+    //Private helpful methods
+
+    private void applyChanges(List<String> ids) {
+        Map<String, Completion> overlay = new HashMap<>(state.overlay);
+        Set<String> removed = new HashSet<>(state.removed);
+        List<String> skus = new ArrayList<>();
+        for (String id : ids) {
+            String key = id.substring(id.indexOf(':') + 1);
+            if (id.startsWith(EnumCompletionType.PRODUCT.name())) {
+                skus.add(key);
+                continue;
+            }
+            Category category = categoryDao.findById(Integer.valueOf(key));
+            if (category == null)
+                put(overlay, removed, id, null);
+            else
+                put(overlay, removed, id, new Completion(EnumCompletionType.CATEGORY, key, category.getName(),
+                        categoryWeights.getOrDefault(category.getId(), 0L)));
+        }
+
+        if (!skus.isEmpty()) {
+            Map<String, Long> sold = sold(orderItemDao.sumAmountsBySkuIn(skus));
+            Set<String> missing = new HashSet<>(skus);
+            for (ProductCard productCard : productCardDao.findBySkuIn(skus)) {
+                Completion completion = new Completion(EnumCompletionType.PRODUCT, productCard.getSku(),
+                        productCard.getName(), weight(productCard.getLikes(), sold.get(productCard.getSku())));
+                put(overlay, removed, completion.id(), completion);
+                missing.remove(productCard.getSku());
+            }
+            for (String sku : missing)
+                put(overlay, removed, EnumCompletionType.PRODUCT.name() + ':' + sku, null);
+        }
+
+        if (overlay.size() + removed.size() > maxChanges)
+            rebuild();
+        else
+            state = new State(state.index, overlay, removed);
+    }
+
+    private void collect(State current, List<String> prefixes, int limit, Map<String, Completion> result,
+                         boolean typo) {
+        Set<String> skip = current.skip();
+        List<int[]> ranges = new ArrayList<>();
+        for (String prefix : prefixes) {
+            int[] range = current.index.range(prefix);
+            if (range[0] < range[1])
+                ranges.add(range);
+        }
+
+        //Changed completions are merged with the same limit, then the heaviest are taken
+        Map<String, Completion> found = new LinkedHashMap<>();
+        skip.addAll(result.keySet());
+        current.index.collect(ranges, limit, skip, found);
+        if (!current.overlay.isEmpty()) {
+            for (Completion completion : current.overlay.values())
+                if (!result.containsKey(completion.id()) && matches(completion, prefixes.get(0), typo))
+                    found.put(completion.id(), completion);
+        }
+
+        found.values().stream()
+                .sorted(Comparator.comparingLong(Completion::getWeight).reversed())
+                .limit(limit - result.size())
+                .forEach(completion -> result.put(completion.id(), completion));
+    }
+
+    private static boolean matches(Completion completion, String query, boolean typo) {
+        for (String term : AutocompleteIndex.terms(completion)) {
+            if (typo ? startsWithinOneTypo(term, query) : term.startsWith(query))
+                return true;
+        }
+        return false;
+    }
+
+    //Prefixes of query with one missed, extra, wrong or swapped letter
+    private static List<String> typos(String query, char[] alphabet) {
+        Set<String> typos = new LinkedHashSet<>();
+        typos.add(query);
+        StringBuilder typo = new StringBuilder(query.length() + 1);
+        for (int i = 0; i < query.length(); i++) {
+            typo.setLength(0);
+            typos.add(typo.append(query, 0, i).append(query, i + 1, query.length()).toString());
+            if (i + 1 < query.length()) {
+                typo.setLength(0);
+                typos.add(typo.append(query, 0, i).append(query.charAt(i + 1)).append(query.charAt(i))
+                        .append(query, i + 2, query.length()).toString());
+            }
+            for (char ch : alphabet) {
+                typo.setLength(0);
+                typos.add(typo.append(query, 0, i).append(ch).append(query, i + 1, query.length()).toString());
+                typo.setLength(0);
+                typos.add(typo.append(query, 0, i).append(ch).append(query, i, query.length()).toString());
+            }
+        }
+        typos.remove(query);
+        List<String> result = new ArrayList<>(typos.size() + 1);
+        //The first one is used for overlay, where distance is checked directly
+        result.add(query);
+        result.addAll(typos);
+        return result;
+    }
+
+    private static boolean startsWithinOneTypo(String term, String query) {
+        for (int length = query.length() - 1; length <= query.length() + 1; length++)
+            if (length > 0 && length <= term.length() && withinOneEdit(term.substring(0, length), query))
+                return true;
+        return false;
+    }
+
+    private static boolean withinOneEdit(String a, String b) {
+        if (Math.abs(a.length() - b.length()) > 1)
+            return false;
+        int i = 0;
+        while (i < a.length() && i < b.length() && a.charAt(i) == b.charAt(i))
+            i++;
+        if (a.length() == b.length()) {
+            if (i >= a.length() - 1)
+                return true;
+            //Wrong letter or two swapped letters
+            return a.substring(i + 1).equals(b.substring(i + 1)) ||
+                    a.charAt(i) == b.charAt(i + 1) && a.charAt(i + 1) == b.charAt(i) &&
+                            a.substring(i + 2).equals(b.substring(i + 2));
+        }
+        return a.length() > b.length() ? a.substring(i + 1).equals(b.substring(i)) : b.substring(i + 1).equals(a.substring(i));
+    }
+
+    private static Map<String, Long> sold(List<Object[]> rows) {
+        Map<String, Long> sold = new HashMap<>();
+        for (Object[] row : rows)
+            sold.put((String) row[0], ((Number) row[1]).longValue());
+        return sold;
+    }
+
+    private static long weight(int likes, Long sold) {
+        return Math.max(0, likes) + PURCHASE_WEIGHT * (sold == null ? 0 : sold);
+    }
+
+    private static void put(Map<String, Completion> overlay, Set<String> removed, String id, Completion completion) {
+        if (completion == null) {
+            overlay.remove(id);
+            removed.add(id);
+        } else {
+            overlay.put(id, completion);
+            removed.remove(id);
+        }
+    }
+
+    private void rebuildQuietly() {
+        try {
+            rebuild();
+        } catch (RuntimeException e) {
+            log.warn("Autocomplete was not built again", e);
+        }
+    }
+
+    private void applyChangesQuietly() {
+        try {
+            applyChanges();
+        } catch (RuntimeException e) {
+            log.warn("Changes of autocomplete were not applied", e);
+        }
+    }
+
+    /**
+     * Index with changed completions over it, removed ones are only hidden
+     */
+    private static final class State {
+
+        private final AutocompleteIndex index;
+        private final Map<String, Completion> overlay;
+        private final Set<String> removed;
+
+        State(AutocompleteIndex index, Map<String, Completion> overlay, Set<String> removed) {
+            this.index = index;
+            this.overlay = overlay;
+            this.removed = removed;
+        }
+
+        //Completions of index which are changed or removed
+        Set<String> skip() {
+            Set<String> skip = new HashSet<>(removed);
+            skip.addAll(overlay.keySet());
+            return skip;
+        }
+    }
+}
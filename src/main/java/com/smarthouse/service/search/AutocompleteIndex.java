@@ -0,0 +1,297 @@
+package com.smarthouse.service.search;
+
+import com.smarthouse.service.util.enums.EnumCompletionType;
+
+import java.util.*;
+
+/**
+ * AutocompleteIndex is immutable index of completions. Every completion
+ * has terms: its normalized text, the text from every next word, and sku
+ * for products. Normalized texts and skus are kept one after another in
+ * one char array, and a term is only start and end in it, so suffixes of
+ * words take no extra strings. Terms are sorted, so terms with a prefix
+ * are one range found by binary search. Over weights of terms there is a
+ * segment tree, so the heaviest completions of a range are taken with
+ * O(log n) steps each, without looking at all terms of a short prefix.
+ */
+final class AutocompleteIndex {
+
+    static final AutocompleteIndex EMPTY = build(Collections.emptyList());
+
+    private final Completion[] entries;
+    private final char[] chars;
+    //Term i is chars from termStarts[i] to termEnds[i] of completion termEntries[i]
+    private final int[] termStarts;
+    private final int[] termEnds;
+    private final int[] termEntries;
+    private final int leaves;
+    //Index of the heaviest term under node, leaves start from index leaves, -1 is empty
+    private final int[] tree;
+    private final char[] alphabet;
+
+    private AutocompleteIndex(Completion[] entries, char[] chars, int[] termStarts, int[] termEnds,
+                              int[] termEntries, char[] alphabet) {
+        this.entries = entries;
+        this.chars = chars;
+        this.termStarts = termStarts;
+        this.termEnds = termEnds;
+        this.termEntries = termEntries;
+        this.alphabet = alphabet;
+
+        int leaves = 1;
+        while (leaves < termStarts.length)
+            leaves <<= 1;
+        this.leaves = leaves;
+        this.tree = new int[2 * leaves];
+        Arrays.fill(tree, -1);
+        for (int i = 0; i < termStarts.length; i++)
+            tree[leaves + i] = i;
+        for (int node = leaves - 1; node > 0; node--)
+            tree[node] = heavier(tree[2 * node], tree[2 * node + 1]);
+    }
+
+    static AutocompleteIndex build(List<Completion> completions) {
+        int size = completions.size();
+        StringBuilder pool = new StringBuilder(size * 24);
+        //Text of completion i is from textStarts[i] to skuStarts[i], its own sku to skuEnds[i]
+        int[] textStarts = new int[size];
+        int[] skuStarts = new int[size];
+        int[] skuEnds = new int[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            Completion completion = completions.get(i);
+            textStarts[i] = pool.length();
+            appendNormalized(pool, completion.getText());
+            skuStarts[i] = pool.length();
+            if (completion.getType() == EnumCompletionType.PRODUCT) {
+                appendNormalized(pool, completion.getKey());
+                if (isTextTerm(pool, textStarts[i], skuStarts[i], pool.length()))
+                    pool.setLength(skuStarts[i]);
+            }
+            skuEnds[i] = pool.length();
+
+            if (skuStarts[i] > textStarts[i])
+                count++;
+            for (int c = textStarts[i]; c < skuStarts[i]; c++)
+                if (pool.charAt(c) == ' ')
+                    count++;
+            if (skuEnds[i] > skuStarts[i])
+                count++;
+        }
+
+        char[] chars = new char[pool.length()];
+        pool.getChars(0, chars.length, chars, 0);
+        int[] termStarts = new int[count];
+        int[] termEnds = new int[count];
+        int[] termEntries = new int[count];
+        int term = 0;
+        for (int i = 0; i < size; i++) {
+            int text = textStarts[i];
+            int end = skuStarts[i];
+            for (int c = text; c < end; c++) {
+                if (c == text || chars[c - 1] == ' ') {
+                    termStarts[term] = c;
+                    termEnds[term] = end;
+                    termEntries[term++] = i;
+                }
+            }
+            if (skuEnds[i] > end) {
+                termStarts[term] = end;
+                termEnds[term] = skuEnds[i];
+                termEntries[term++] = i;
+            }
+        }
+        sortTerms(chars, termStarts, termEnds, termEntries);
+
+        BitSet used = new BitSet(128);
+        for (char ch : chars)
+            used.set(ch);
+        char[] alphabet = new char[used.cardinality()];
+        for (int ch = used.nextSetBit(0), i = 0; ch >= 0; ch = used.nextSetBit(ch + 1))
+            alphabet[i++] = (char) ch;
+
+        return new AutocompleteIndex(completions.toArray(new Completion[0]), chars, termStarts, termEnds,
+                termEntries, alphabet);
+    }
+
+    static String normalize(String text) {
+        return appendNormalized(new StringBuilder(), text).toString();
+    }
+
+    static List<String> terms(Completion completion) {
+        String text = normalize(completion.getText());
+        List<String> terms = new ArrayList<>();
+        if (!text.isEmpty())
+            terms.add(text);
+        for (int i = text.indexOf(' '); i >= 0; i = text.indexOf(' ', i + 1))
+            terms.add(text.substring(i + 1));
+        if (completion.getType() == EnumCompletionType.PRODUCT) {
+            String sku = normalize(completion.getKey());
+            if (!sku.isEmpty() && !terms.contains(sku))
+                terms.add(sku);
+        }
+        return terms;
+    }
+
+    int size() {
+        return entries.length;
+    }
+
+    char[] getAlphabet() {
+        return alphabet;
+    }
+
+    //Range of terms with prefix as {from, to}, empty when from == to
+    int[] range(String prefix) {
+        return new int[]{bound(prefix, false), bound(prefix, true)};
+    }
+
+    /**
+     * Add the heaviest completions of ranges to result in order of weight,
+     * until result has limit completions or all terms of ranges are seen
+     *
+     * @param skip ids of completions which must not be added
+     */
+    void collect(List<int[]> ranges, int limit, Set<String> skip, Map<String, Completion> result) {
+        PriorityQueue<int[]> queue = new PriorityQueue<>((a, b) -> a[2] == b[2] ? 0 : heavier(a[2], b[2]) == a[2] ? -1 : 1);
+        for (int[] range : ranges)
+            offer(queue, range[0], range[1]);
+
+        //Terms of one completion are taken once, the others are skipped
+        while (result.size() < limit && !queue.isEmpty()) {
+            int[] top = queue.poll();
+            Completion completion = entries[termEntries[top[2]]];
+            String id = completion.id();
+            if (!skip.contains(id))
+                result.putIfAbsent(id, completion);
+            offer(queue, top[0], top[2]);
+            offer(queue, top[2] + 1, top[1]);
+        }
+    }
+
+    //Private helpful methods
+
+    //Trimmed lower case text with one space between words
+    private static StringBuilder appendNormalized(StringBuilder to, String text) {
+        if (text == null)
+            return to;
+        boolean space = false;
+        boolean first = true;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (Character.isWhitespace(ch)) {
+                space = !first;
+                continue;
+            }
+            if (space)
+                to.append(' ');
+            to.append(Character.toLowerCase(ch));
+            space = false;
+            first = false;
+        }
+        return to;
+    }
+
+    //Sku from skuStart to skuEnd is the text or its suffix from a word
+    private static boolean isTextTerm(StringBuilder pool, int textStart, int skuStart, int skuEnd) {
+        int length = skuEnd - skuStart;
+        int start = skuStart - length;
+        if (length == 0)
+            return true;
+        if (start < textStart || start > textStart && pool.charAt(start - 1) != ' ')
+            return false;
+        for (int i = 0; i < length; i++)
+            if (pool.charAt(start + i) != pool.charAt(skuStart + i))
+                return false;
+        return true;
+    }
+
+    //Stable merge sort of terms by their chars, one buffer for all merges
+    private static void sortTerms(char[] chars, int[] starts, int[] ends, int[] entries) {
+        int count = starts.length;
+        int[] order = new int[count];
+        int[] buffer = new int[count];
+        for (int i = 0; i < count; i++)
+            order[i] = i;
+        for (int width = 1; width < count; width <<= 1) {
+            for (int from = 0; from < count - width; from += width << 1) {
+                int middle = from + width;
+                int to = Math.min(from + (width << 1), count);
+                int left = from;
+                int right = middle;
+                for (int i = from; i < to; i++)
+                    buffer[i] = right >= to || left < middle &&
+                            compare(chars, starts[order[left]], ends[order[left]], starts[order[right]], ends[order[right]]) <= 0
+                            ? order[left++] : order[right++];
+                System.arraycopy(buffer, from, order, from, to - from);
+            }
+        }
+
+        for (int[] values : new int[][]{starts, ends, entries}) {
+            for (int i = 0; i < count; i++)
+                buffer[i] = values[order[i]];
+            System.arraycopy(buffer, 0, values, 0, count);
+        }
+    }
+
+    private static int compare(char[] chars, int startA, int endA, int startB, int endB) {
+        int length = Math.min(endA - startA, endB - startB);
+        for (int i = 0; i < length; i++)
+            if (chars[startA + i] != chars[startB + i])
+                return chars[startA + i] - chars[startB + i];
+        return (endA - startA) - (endB - startB);
+    }
+
+    private void offer(PriorityQueue<int[]> queue, int from, int to) {
+        if (from < to)
+            queue.add(new int[]{from, to, heaviest(from, to)});
+    }
+
+    private int heaviest(int from, int to) {
+        int best = -1;
+        for (int l = from + leaves, r = to + leaves; l < r; l >>= 1, r >>= 1) {
+            if ((l & 1) == 1)
+                best = heavier(best, tree[l++]);
+            if ((r & 1) == 1)
+                best = heavier(best, tree[--r]);
+        }
+        return best;
+    }
+
+    //Heavier of two terms, of equal weights the first by order
+    private int heavier(int a, int b) {
+        if (a < 0)
+            return b;
+        if (b < 0)
+            return a;
+        long weightA = entries[termEntries[a]].getWeight();
+        long weightB = entries[termEntries[b]].getWeight();
+        return weightA > weightB || weightA == weightB && a < b ? a : b;
+    }
+
+    //First term not less than key, or first term greater than key when terms with prefix key are skipped
+    private int bound(String key, boolean afterPrefix) {
+        int low = 0;
+        int high = termStarts.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int compared = compareTerm(middle, key, afterPrefix);
+            if (afterPrefix ? compared <= 0 : compared < 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    //Term starting with key is equal to it when prefix is true
+    private int compareTerm(int term, String key, boolean prefix) {
+        int start = termStarts[term];
+        int length = termEnds[term] - start;
+        int common = Math.min(length, key.length());
+        for (int i = 0; i < common; i++)
+            if (chars[start + i] != key.charAt(i))
+                return chars[start + i] - key.charAt(i);
+        return prefix && length >= key.length() ? 0 : length - key.length();
+    }
+}
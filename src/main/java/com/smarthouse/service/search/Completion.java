@@ -0,0 +1,48 @@
+package com.smarthouse.service.search;
+
+import com.smarthouse.service.util.enums.EnumCompletionType;
+
+/**
+ * Completion is one suggestion of Autocomplete: product or category
+ * with the text shown to user and weight of its popularity.
+ */
+public final class Completion {
+
+    private final EnumCompletionType type;
+    private final String key;
+    private final String text;
+    private final long weight;
+
+    public Completion(EnumCompletionType type, String key, String text, long weight) {
+        this.type = type;
+        this.key = key;
+        this.text = text;
+        this.weight = weight;
+    }
+
+    public EnumCompletionType getType() {
+        return type;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public long getWeight() {
+        return weight;
+    }
+
+    //Type and key, unique for all completions
+    String id() {
+        return type.name() + ':' + key;
+    }
+
+    @Override
+    public String toString() {
+        return type + ":" + key + " " + text + " (" + weight + ")";
+    }
+}
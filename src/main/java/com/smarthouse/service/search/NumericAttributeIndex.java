@@ -0,0 +1,137 @@
+package com.smarthouse.service.search;
+
+import com.smarthouse.repository.AttributeValueDao;
+import com.smarthouse.service.invalidation.InvalidationListener;
+import com.smarthouse.service.util.enums.EnumCachedEntity;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * NumericAttributeIndex finds products by range of numeric attribute,
+ * for example "screen size from 50". Values of attributes are strings,
+ * they are parsed once on build: the leading number is taken, so "55",
+ * "55.5" and "55,5 inch" are numbers, other values are skipped.
+ * <p>
+ * Every attribute is kept as two parallel arrays, double values and skus,
+ * sorted by value. Start of range is found by binary search, so query
+ * takes O(log n) plus size of the result.
+ * <p>
+ * Changed attributes only mark index as changed, it is built again by the
+ * next query. Attributes are changed rarely, mostly by catalog import.
+ */
+public class NumericAttributeIndex implements InvalidationListener {
+
+    private static final Pattern NUMBER = Pattern.compile("^\\s*([-+]?\\d+(?:[.,]\\d+)?)");
+
+    private final AttributeValueDao attributeValueDao;
+
+    private volatile Map<String, Column> columns = Collections.emptyMap();
+    private volatile boolean changed;
+
+    public NumericAttributeIndex(AttributeValueDao attributeValueDao) {
+        this.attributeValueDao = attributeValueDao;
+    }
+
+    /**
+     * Method range need for filter products by value of attribute
+     *
+     * @param attributeName name of attribute
+     * @param from          min value, inclusive
+     * @param to            max value, inclusive
+     * @param limit         max amount of skus
+     * @return List<String> skus from the least value, of equal values by sku
+     */
+    public List<String> range(String attributeName, double from, double to, int limit) {
+        if (changed)
+            rebuildIfChanged();
+
+        Column column = columns.get(attributeName);
+        if (column == null || from > to || limit <= 0)
+            return Collections.emptyList();
+
+        //Product with several values of attribute is returned once
+        Set<String> skus = new LinkedHashSet<>();
+        for (int i = lowerBound(column.values, from); i < column.values.length && column.values[i] <= to
+                && skus.size() < limit; i++)
+            skus.add(column.skus[i]);
+        return new ArrayList<>(skus);
+    }
+
+    public synchronized void rebuild() {
+        changed = false;
+
+        Map<String, List<Object[]>> byName = new HashMap<>();
+        for (Object[] row : attributeValueDao.findAllForSnapshot()) {
+            Double value = parse((String) row[2]);
+            if (value != null)
+                byName.computeIfAbsent((String) row[1], name -> new ArrayList<>()).add(new Object[]{value, row[0]});
+        }
+
+        Map<String, Column> built = new HashMap<>();
+        for (Map.Entry<String, List<Object[]>> entry : byName.entrySet()) {
+            List<Object[]> pairs = entry.getValue();
+            pairs.sort(Comparator.comparingDouble((Object[] pair) -> (Double) pair[0])
+                    .thenComparing(pair -> (String) pair[1]));
+            double[] values = new double[pairs.size()];
+            String[] skus = new String[pairs.size()];
+            for (int i = 0; i < pairs.size(); i++) {
+                values[i] = (Double) pairs.get(i)[0];
+                skus[i] = (String) pairs.get(i)[1];
+            }
+            built.put(entry.getKey(), new Column(values, skus));
+        }
+        columns = built;
+    }
+
+    @Override
+    public void invalidate(EnumCachedEntity type, Collection<String> keys) {
+        if (type == EnumCachedEntity.ATTRIBUTE)
+            changed = true;
+    }
+
+    @Override
+    public void invalidateAll() {
+        changed = true;
+    }
+
+    //Leading number of value, null when value is not a number
+    public static Double parse(String value) {
+        if (value == null)
+            return null;
+        Matcher matcher = NUMBER.matcher(value);
+        return matcher.find() ? Double.valueOf(matcher.group(1).replace(',', '.')) : null;
+    }
+
+    //Private helpful methods
+
+    private synchronized void rebuildIfChanged() {
+        if (changed)
+            rebuild();
+    }
+
+    private static int lowerBound(double[] values, double key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] < key)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    private static final class Column {
+
+        private final double[] values;
+        private final String[] skus;
+
+        Column(double[] values, String[] skus) {
+            this.values = values;
+            this.skus = skus;
+        }
+    }
+}
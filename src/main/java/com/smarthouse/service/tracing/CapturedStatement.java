@@ -0,0 +1,32 @@
+package com.smarthouse.service.tracing;
+
+import java.util.List;
+
+/**
+ * Statement executed while SqlTracer captured statements: SQL as it was
+ * sent to the driver and values of its parameters, so the same statement
+ * can be run again, for example with EXPLAIN.
+ */
+public final class CapturedStatement {
+
+    private final String sql;
+    private final List<Object> parameters;
+
+    CapturedStatement(String sql, List<Object> parameters) {
+        this.sql = sql;
+        this.parameters = parameters;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public List<Object> getParameters() {
+        return parameters;
+    }
+
+    @Override
+    public String toString() {
+        return sql + " " + parameters;
+    }
+}
@@ -0,0 +1,76 @@
+package com.smarthouse.service.tracing;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SqlStats keeps executions of one normalized statement: how many times
+ * it was executed, total and max time, shape of its last bind parameters
+ * and ShopManager operations in which it was logged.
+ */
+public class SqlStats {
+
+    private static final int MAX_OPERATIONS = 8;
+
+    private final String sql;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final Set<String> operations = ConcurrentHashMap.newKeySet();
+    private volatile String shape;
+
+    SqlStats(String sql) {
+        this.sql = sql;
+    }
+
+    void add(long nanos, String shape) {
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+        this.shape = shape;
+    }
+
+    void addOperation(String operation) {
+        if (operations.size() < MAX_OPERATIONS)
+            operations.add(operation);
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public long getAverageMicros() {
+        long executions = count.sum();
+        return executions == 0 ? 0 : totalNanos.sum() / executions / 1000;
+    }
+
+    //Types of bind parameters like "(String, Int)", with "x N" for batch of N rows
+    public String getShape() {
+        return shape;
+    }
+
+    public Set<String> getOperations() {
+        return Collections.unmodifiableSet(operations);
+    }
+
+    @Override
+    public String toString() {
+        return "SqlStats{count=" + getCount() + ", totalMillis=" + getTotalNanos() / 1_000_000 +
+                ", maxMillis=" + getMaxNanos() / 1_000_000 + ", operations=" + operations + ", sql=" + sql + '}';
+    }
+}
@@ -0,0 +1,174 @@
+package com.smarthouse.service.tracing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * SqlTracer collects timing of statements executed through
+ * TracingDataSource. Statements are normalized: literals are replaced
+ * with "?" and lists of parameters in IN are folded, so the same query
+ * with other values is counted together.
+ * <p>
+ * Every execution is only added to counters. Statements slower than
+ * threshold are logged with WARN, and sampled part of other statements
+ * with INFO. Only for logged statements the operation is found: the
+ * outermost method of operation class (ShopManager) on the stack.
+ * <p>
+ * At most topSize * 16 statements are kept, when there are more, the half
+ * with the least total time is dropped.
+ * <p>
+ * Between startCapture and stopCapture every statement executed by the
+ * same thread is also kept with values of its parameters, for checks of
+ * query plans. Statements of background threads are not captured.
+ */
+public class SqlTracer {
+
+    private static final Logger log = LoggerFactory.getLogger(SqlTracer.class);
+
+    private static final Pattern STRING = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER = Pattern.compile("(?<![\\w$])\\d+(?:\\.\\d+)?(?![\\w$])");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+    private static final Pattern IN_LIST = Pattern.compile("(?i)\\bin \\(\\?(?:, ?\\?)*\\)");
+    private static final int MAX_NORMALIZED = 4096;
+
+    private final long slowNanos;
+    private final double sampleRate;
+    private final int topSize;
+    private final String operationClass;
+    private final int maxStatements;
+
+    private final ConcurrentMap<String, SqlStats> stats = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> normalized = new ConcurrentHashMap<>();
+    private final ThreadLocal<List<CapturedStatement>> captured = new ThreadLocal<>();
+
+    /**
+     * @param slowMillis     statements from this time are logged always
+     * @param sampleRate     part of other statements which are logged, from 0 to 1
+     * @param topSize        size of top of the most expensive statements
+     * @param operationClass class which public methods are operations, or null
+     */
+    public SqlTracer(long slowMillis, double sampleRate, int topSize, String operationClass) {
+        if (sampleRate < 0 || sampleRate > 1 || topSize < 1)
+            throw new IllegalArgumentException("Wrong sample rate or size of top");
+        this.slowNanos = slowMillis * 1_000_000;
+        this.sampleRate = sampleRate;
+        this.topSize = topSize;
+        this.operationClass = operationClass;
+        this.maxStatements = topSize * 16;
+    }
+
+    //Statements with the greatest total time
+    public List<SqlStats> getTop() {
+        return stats.values().stream()
+                .sorted(Comparator.comparingLong(SqlStats::getTotalNanos).reversed())
+                .limit(topSize)
+                .collect(Collectors.toList());
+    }
+
+    public SqlStats getStats(String sql) {
+        return stats.get(normalize(sql));
+    }
+
+    public void reset() {
+        stats.clear();
+    }
+
+    public void startCapture() {
+        captured.set(new ArrayList<>());
+    }
+
+    //Statements executed by this thread since startCapture, in order of execution
+    public List<CapturedStatement> stopCapture() {
+        List<CapturedStatement> result = captured.get();
+        captured.remove();
+        return result == null ? Collections.emptyList() : result;
+    }
+
+    public String normalize(String sql) {
+        String result = normalized.get(sql);
+        if (result == null) {
+            result = normalizeSql(sql);
+            if (normalized.size() >= MAX_NORMALIZED)
+                normalized.clear();
+            normalized.put(sql, result);
+        }
+        return result;
+    }
+
+    void record(String sql, String shape, long nanos) {
+        SqlStats statement = stats.computeIfAbsent(sql, SqlStats::new);
+        statement.add(nanos, shape);
+        if (stats.size() > maxStatements)
+            trim();
+
+        boolean slow = nanos >= slowNanos;
+        if (!slow && (sampleRate == 0 || ThreadLocalRandom.current().nextDouble() >= sampleRate))
+            return;
+
+        String operation = operation();
+        statement.addOperation(operation);
+        if (slow)
+            log.warn("Slow SQL {} ms in {} {}: {}", nanos / 1_000_000, operation, shape, sql);
+        else
+            log.info("SQL {} us in {} {}: {}", nanos / 1000, operation, shape, sql);
+    }
+
+    boolean isCapturing() {
+        return captured.get() != null;
+    }
+
+    void capture(String sql, Object[] parameters) {
+        List<CapturedStatement> statements = captured.get();
+        if (statements != null)
+            statements.add(new CapturedStatement(sql, Collections.unmodifiableList(Arrays.asList(parameters))));
+    }
+
+    //Private helpful methods
+
+    static String normalizeSql(String sql) {
+        String result = STRING.matcher(sql).replaceAll("?");
+        result = NUMBER.matcher(result).replaceAll("?");
+        result = SPACES.matcher(result).replaceAll(" ").trim();
+        return IN_LIST.matcher(result).replaceAll("in (?...)");
+    }
+
+    private synchronized void trim() {
+        if (stats.size() <= maxStatements)
+            return;
+        List<Map.Entry<String, SqlStats>> entries = new ArrayList<>(stats.entrySet());
+        entries.sort(Comparator.comparingLong(entry -> entry.getValue().getTotalNanos()));
+        for (int i = 0; i < entries.size() - maxStatements / 2; i++)
+            stats.remove(entries.get(i).getKey(), entries.get(i).getValue());
+    }
+
+    private String operation() {
+        if (operationClass == null)
+            return "-";
+        return StackWalker.getInstance().walk(frames -> frames
+                .filter(frame -> frame.getClassName().equals(operationClass))
+                .reduce((inner, outer) -> outer)
+                .map(frame -> methodName(frame.getMethodName()))
+                .orElse("-"));
+    }
+
+    //lambda$createOrder$0 is a part of createOrder
+    private static String methodName(String name) {
+        if (name.startsWith("lambda$")) {
+            int end = name.indexOf('$', 7);
+            return end < 0 ? name.substring(7) : name.substring(7, end);
+        }
+        return name;
+    }
+}
@@ -0,0 +1,196 @@
+package com.smarthouse.service.tracing;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * TracingDataSource wraps connections of other DataSource, so time of
+ * every executed statement goes to SqlTracer with types of its bind
+ * parameters. Only statements are traced, everything else including
+ * unwrap goes straight to the real connection.
+ */
+public class TracingDataSource implements DataSource {
+
+    private final DataSource dataSource;
+    private final SqlTracer tracer;
+
+    public TracingDataSource(DataSource dataSource, SqlTracer tracer) {
+        this.dataSource = dataSource;
+        this.tracer = tracer;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return wrap(dataSource.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return wrap(dataSource.getConnection(username, password));
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return dataSource.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        dataSource.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        dataSource.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return dataSource.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return dataSource.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return iface.isInstance(this) ? iface.cast(this) : dataSource.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || dataSource.isWrapperFor(iface);
+    }
+
+    //Private helpful methods
+
+    private Connection wrap(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    if (isIdentityMethod(method))
+                        return identity(proxy, method, args);
+                    Object result = invoke(connection, method, args);
+                    if (result instanceof Statement && Statement.class.isAssignableFrom(method.getReturnType())) {
+                        String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+                        return wrap((Statement) result, method.getReturnType(), sql);
+                    }
+                    return result;
+                });
+    }
+
+    private Object wrap(Statement statement, Class<?> type, String sql) {
+        return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{type},
+                new TracedStatement(statement, sql));
+    }
+
+    private static boolean isIdentityMethod(Method method) {
+        return method.getDeclaringClass() == Object.class;
+    }
+
+    private static Object identity(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                return "Traced" + Integer.toHexString(System.identityHashCode(proxy));
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Statement which remembers types of parameters set by index and
+     * rows added to batch, and measures every execute method. Values of
+     * parameters are kept only while tracer captures statements.
+     */
+    private class TracedStatement implements InvocationHandler {
+
+        private final Statement statement;
+        private String rawSql;
+        private String sql;
+        private String[] parameters = new String[8];
+        private Object[] values = new Object[8];
+        private int parameterCount;
+        private int batch;
+
+        TracedStatement(Statement statement, String sql) {
+            this.statement = statement;
+            this.rawSql = sql;
+            this.sql = sql == null ? null : tracer.normalize(sql);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (isIdentityMethod(method))
+                return identity(proxy, method, args);
+
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer)
+                parameter((Integer) args[0], name.substring(3), name.equals("setNull") ? null : args[1]);
+            else if (name.equals("addBatch"))
+                batch++;
+            else if (name.startsWith("execute")) {
+                if (args != null && args.length > 0 && args[0] instanceof String) {
+                    rawSql = (String) args[0];
+                    sql = tracer.normalize(rawSql);
+                }
+                if (batch == 0 && rawSql != null && tracer.isCapturing())
+                    tracer.capture(rawSql, Arrays.copyOf(values, parameterCount));
+                long start = System.nanoTime();
+                try {
+                    return TracingDataSource.invoke(statement, method, args);
+                } finally {
+                    tracer.record(sql == null ? "batch" : sql, shape(), System.nanoTime() - start);
+                    if (name.endsWith("Batch"))
+                        batch = 0;
+                }
+            }
+            return TracingDataSource.invoke(statement, method, args);
+        }
+
+        private void parameter(int index, String type, Object value) {
+            if (index < 1 || index > 1024)
+                return;
+            if (index > parameters.length) {
+                parameters = Arrays.copyOf(parameters, Math.max(index, parameters.length * 2));
+                values = Arrays.copyOf(values, parameters.length);
+            }
+            parameters[index - 1] = type;
+            values[index - 1] = tracer.isCapturing() ? value : null;
+            parameterCount = Math.max(parameterCount, index);
+        }
+
+        private String shape() {
+            StringBuilder shape = new StringBuilder("(");
+            for (int i = 0; i < parameterCount; i++) {
+                if (i > 0)
+                    shape.append(", ");
+                shape.append(parameters[i]);
+            }
+            shape.append(')');
+            if (batch > 1)
+                shape.append(" x ").append(batch);
+            return shape.toString();
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package com.smarthouse.service.util.enums;
+
+//Kinds of entities whose changes are sent to caches of all nodes
+public enum EnumCachedEntity {
+    PRODUCT, CATEGORY, ATTRIBUTE, VISUALIZATION, PRICE_RULE
+}
@@ -0,0 +1,6 @@
+package com.smarthouse.service.util.enums;
+
+//What is completed by Autocomplete, key of PRODUCT is sku and key of CATEGORY is id
+public enum EnumCompletionType {
+    PRODUCT, CATEGORY
+}
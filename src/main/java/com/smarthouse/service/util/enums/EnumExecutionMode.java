@@ -0,0 +1,5 @@
+package com.smarthouse.service.util.enums;
+
+public enum EnumExecutionMode {
+    VIRTUAL_THREADS, PLATFORM_THREADS
+}
@@ -0,0 +1,6 @@
+package com.smarthouse.service.util.enums;
+
+//Formats of OrderExporter, CSV has header line, NDJSON has one JSON object per line
+public enum EnumExportFormat {
+    CSV, NDJSON
+}
@@ -0,0 +1,53 @@
+package com.smarthouse.service.util.enums;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lifecycle of OrderMain. Each status keeps the int code that is stored
+ * in the ordermain.status column, so existing rows stay readable.
+ */
+public enum EnumOrderStatus {
+    CREATED(1), SUBMITTED(2), PROCESSING(3), SHIPPED(4), DELIVERED(5), CANCELLED(6);
+
+    private static final EnumOrderStatus[] BY_CODE = new EnumOrderStatus[values().length + 1];
+    private static final Map<EnumOrderStatus, Set<EnumOrderStatus>> TRANSITIONS = new EnumMap<>(EnumOrderStatus.class);
+
+    static {
+        for (EnumOrderStatus status : values())
+            BY_CODE[status.code] = status;
+
+        TRANSITIONS.put(CREATED, EnumSet.of(SUBMITTED, CANCELLED));
+        TRANSITIONS.put(SUBMITTED, EnumSet.of(PROCESSING, CANCELLED));
+        TRANSITIONS.put(PROCESSING, EnumSet.of(SHIPPED, CANCELLED));
+        TRANSITIONS.put(SHIPPED, EnumSet.of(DELIVERED));
+        TRANSITIONS.put(DELIVERED, EnumSet.noneOf(EnumOrderStatus.class));
+        TRANSITIONS.put(CANCELLED, EnumSet.noneOf(EnumOrderStatus.class));
+    }
+
+    private final int code;
+
+    EnumOrderStatus(int code) {
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public boolean canTransitionTo(EnumOrderStatus next) {
+        return TRANSITIONS.get(this).contains(next);
+    }
+
+    public boolean isTerminal() {
+        return TRANSITIONS.get(this).isEmpty();
+    }
+
+    public static EnumOrderStatus fromCode(int code) {
+        if (code <= 0 || code >= BY_CODE.length || BY_CODE[code] == null)
+            throw new IllegalArgumentException("Unknown order status code: " + code);
+        return BY_CODE[code];
+    }
+}
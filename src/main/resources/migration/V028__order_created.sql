@@ -0,0 +1,5 @@
+-- Time of creation of orders for sales reports by day, run once on databases created before it
+-- Orders which already exist get time of migration, there is no other time of them
+ALTER TABLE ordermain ADD COLUMN created TIMESTAMP NOT NULL DEFAULT now();
+CREATE INDEX ordermain_created_idx ON ordermain (created);
+CREATE INDEX orderitem_ordermain_idx ON orderitem (ordermain);
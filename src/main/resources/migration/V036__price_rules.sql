@@ -0,0 +1,18 @@
+-- Rules of discounts and prices of order lines in long, run once on databases created before them
+ALTER TABLE orderitem ALTER COLUMN totalprice TYPE BIGINT;
+
+CREATE TABLE pricerule
+(
+  id INTEGER PRIMARY KEY NOT NULL,
+  productcard VARCHAR(255),
+  category INTEGER,
+  minamount INTEGER NOT NULL,
+  discount INTEGER NOT NULL,
+  CONSTRAINT pricerule_productcard_fk FOREIGN KEY (productcard) REFERENCES productcard (sku),
+  CONSTRAINT pricerule_category_fk FOREIGN KEY (category) REFERENCES category (id),
+  CONSTRAINT pricerule_discount_check CHECK (discount BETWEEN 0 AND 10000)
+);
+
+CREATE SEQUENCE pricerule_id_seq NO MINVALUE NO MAXVALUE NO CYCLE;
+ALTER TABLE pricerule ALTER COLUMN id SET DEFAULT nextval('pricerule_id_seq');
+ALTER SEQUENCE pricerule_id_seq OWNED BY pricerule.id;
@@ -0,0 +1,47 @@
+-- Catalog change log for start of nodes from snapshot file, run once on databases created before it
+-- Rows are written by triggers of catalog tables in the transaction of the change, stock and votes
+-- of products are not logged. Rows older than retention are removed, catalogchangehorizon keeps
+-- txid below which changes were removed
+CREATE TABLE catalogchange
+(
+  version BIGSERIAL PRIMARY KEY,
+  txid BIGINT NOT NULL DEFAULT txid_current(),
+  entity VARCHAR(32) NOT NULL,
+  changedkey VARCHAR(255) NOT NULL,
+  created TIMESTAMP NOT NULL DEFAULT now()
+);
+
+CREATE INDEX catalogchange_txid_idx ON catalogchange (txid);
+CREATE INDEX catalogchange_created_idx ON catalogchange (created);
+
+CREATE TABLE catalogchangehorizon
+(
+  txid BIGINT NOT NULL
+);
+
+CREATE FUNCTION log_catalog_change() RETURNS TRIGGER AS $$
+  DECLARE
+    changed JSON;
+  BEGIN
+    IF TG_OP = 'DELETE' THEN
+      changed := row_to_json(OLD);
+    ELSE
+      changed := row_to_json(NEW);
+    END IF;
+    INSERT INTO catalogchange (entity, changedkey) VALUES (TG_ARGV[0], COALESCE(changed ->> TG_ARGV[1], ''));
+    RETURN NULL;
+  END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER productcard_change AFTER INSERT OR DELETE ON productcard
+  FOR EACH ROW EXECUTE PROCEDURE log_catalog_change('PRODUCT', 'sku');
+CREATE TRIGGER productcard_update AFTER UPDATE ON productcard
+  FOR EACH ROW WHEN (OLD.name IS DISTINCT FROM NEW.name OR OLD.price IS DISTINCT FROM NEW.price
+    OR OLD.productdescription IS DISTINCT FROM NEW.productdescription OR OLD.category IS DISTINCT FROM NEW.category)
+  EXECUTE PROCEDURE log_catalog_change('PRODUCT', 'sku');
+CREATE TRIGGER category_change AFTER INSERT OR UPDATE OR DELETE ON category
+  FOR EACH ROW EXECUTE PROCEDURE log_catalog_change('CATEGORY', 'id');
+CREATE TRIGGER attributevalue_change AFTER INSERT OR UPDATE OR DELETE ON attributevalue
+  FOR EACH ROW EXECUTE PROCEDURE log_catalog_change('ATTRIBUTE', 'productcard');
+CREATE TRIGGER visualization_change AFTER INSERT OR UPDATE OR DELETE ON visualization
+  FOR EACH ROW EXECUTE PROCEDURE log_catalog_change('VISUALIZATION', 'productcard');
@@ -0,0 +1,7 @@
+-- Ids of entities are taken from sequences by 50 (pooled-lo), run once on databases created before it
+ALTER SEQUENCE attributevalue_id_seq INCREMENT BY 50;
+ALTER SEQUENCE category_id_seq INCREMENT BY 50;
+ALTER SEQUENCE orderitem_id_seq INCREMENT BY 50;
+ALTER SEQUENCE ordermain_orderid_seq INCREMENT BY 50;
+ALTER SEQUENCE pricerule_id_seq INCREMENT BY 50;
+ALTER SEQUENCE visualization_id_seq INCREMENT BY 50;
@@ -0,0 +1,10 @@
+-- Keys of createOrder calls, a retried call returns the order of the first call
+CREATE TABLE idempotencykey
+(
+  idempotencykey VARCHAR(64) PRIMARY KEY NOT NULL,
+  orderid INTEGER,
+  created TIMESTAMP NOT NULL,
+  CONSTRAINT idempotencykey_orderid_fk FOREIGN KEY (orderid) REFERENCES ordermain (orderid)
+);
+
+CREATE INDEX idempotencykey_created_idx ON idempotencykey (created);
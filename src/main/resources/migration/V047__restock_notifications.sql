@@ -0,0 +1,37 @@
+-- Back in stock notifications: watches, restock events written by trigger and outbox of notifications
+CREATE TABLE productwatch
+(
+  sku VARCHAR(255) NOT NULL,
+  customer VARCHAR(255) NOT NULL,
+  CONSTRAINT productwatch_pkey PRIMARY KEY (sku, customer),
+  CONSTRAINT productwatch_sku_fk FOREIGN KEY (sku) REFERENCES productcard (sku) ON DELETE CASCADE,
+  CONSTRAINT productwatch_customer_fk FOREIGN KEY (customer) REFERENCES customer (email) ON DELETE CASCADE
+);
+
+CREATE TABLE restock
+(
+  id BIGSERIAL PRIMARY KEY,
+  sku VARCHAR(255) NOT NULL,
+  created TIMESTAMP NOT NULL DEFAULT now()
+);
+
+CREATE TABLE notificationoutbox
+(
+  id BIGSERIAL PRIMARY KEY,
+  customer VARCHAR(255) NOT NULL,
+  sku VARCHAR(255) NOT NULL,
+  created TIMESTAMP NOT NULL DEFAULT now(),
+  sent TIMESTAMP
+);
+
+CREATE INDEX notificationoutbox_unsent_idx ON notificationoutbox (id) WHERE sent IS NULL;
+
+CREATE FUNCTION log_restock() RETURNS TRIGGER AS $$
+  BEGIN
+    INSERT INTO restock (sku) VALUES (NEW.sku);
+    RETURN NULL;
+  END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER productcard_restock AFTER UPDATE OF amount ON productcard
+  FOR EACH ROW WHEN (OLD.amount <= 0 AND NEW.amount > 0) EXECUTE PROCEDURE log_restock();
@@ -0,0 +1,3 @@
+-- Ranges of price in category and in the whole catalog are read from indexes in order of price
+CREATE INDEX productcard_category_price_idx ON productcard (category, price, sku);
+CREATE INDEX productcard_price_idx ON productcard (price, sku);
@@ -0,0 +1,6 @@
+-- Indexes of repository finders which read whole tables before, checked by query plan tests
+CREATE INDEX productcard_upper_name_idx ON productcard (upper(name) text_pattern_ops);
+CREATE INDEX productcard_upper_description_idx ON productcard (upper(productdescription));
+CREATE INDEX attributevalue_productcard_idx ON attributevalue (productcard);
+CREATE INDEX attributevalue_attributename_idx ON attributevalue (attributename);
+CREATE INDEX orderitem_productcard_idx ON orderitem (productcard);
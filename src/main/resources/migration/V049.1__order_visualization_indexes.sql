@@ -0,0 +1,5 @@
+-- Indexes of order and visualization finders, checked by query plan tests
+DROP INDEX IF EXISTS ordermain_customer_created_idx;
+CREATE INDEX ordermain_customer_status_idx ON ordermain (customer, status);
+CREATE INDEX IF NOT EXISTS ordermain_open_status_idx ON ordermain (status, orderid) WHERE status IN (1, 2, 3, 4);
+CREATE INDEX visualization_productcard_idx ON visualization (productcard);
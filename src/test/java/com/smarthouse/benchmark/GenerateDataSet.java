@@ -0,0 +1,34 @@
+package com.smarthouse.benchmark;
+
+import com.smarthouse.service.generator.DataGenerator;
+import com.smarthouse.service.generator.DataSetSpec;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.Map;
+
+/**
+ * Fills empty database with synthetic data set of given amount of products,
+ * e.g. 10000, 1000000 or 10000000.
+ * <p>
+ * Run: gradle generateDataSet -Pargs="skus seed jdbcUrl user password"
+ */
+public class GenerateDataSet {
+
+    public static void main(String[] args) {
+        int skus = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        String url = args.length > 2 ? args[2] : "jdbc:postgresql://localhost:5432/testdb";
+        String user = args.length > 3 ? args[3] : "postgres";
+        String password = args.length > 4 ? args[4] : "";
+
+        DataSetSpec spec = DataSetSpec.forSkus(seed, skus);
+        DataGenerator generator = new DataGenerator(new DriverManagerDataSource(url, user, password), 1 << 20);
+
+        long start = System.nanoTime();
+        Map<String, Long> rows = generator.generate(spec);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.printf("%s generated in %d ms%n", spec, millis);
+        rows.forEach((table, count) -> System.out.printf("%-16s %,d rows%n", table, count));
+    }
+}
@@ -0,0 +1,80 @@
+package com.smarthouse.benchmark;
+
+import com.smarthouse.service.execution.ShopExecutor;
+import com.zaxxer.hikari.HikariDataSource;
+
+import javax.sql.DataSource;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+
+import static com.smarthouse.service.util.enums.EnumExecutionMode.PLATFORM_THREADS;
+import static com.smarthouse.service.util.enums.EnumExecutionMode.VIRTUAL_THREADS;
+
+/**
+ * Compares ShopExecutor on virtual threads with the platform thread pool
+ * on real JDBC calls. Every request takes connection of the pool and runs
+ * query which waits latency ms in database. Both executors get one permit
+ * per connection, as in app-config.xml.
+ * <p>
+ * Run: gradle benchmarkExecutor -Pargs="requests latencyMillis poolSize jdbcUrl user password"
+ */
+public class ShopExecutorBenchmark {
+
+    public static void main(String[] args) {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int latency = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int poolSize = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        String url = args.length > 3 ? args[3] : "jdbc:postgresql://localhost:5432/testdb";
+        String user = args.length > 4 ? args[4] : "postgres";
+        String password = args.length > 5 ? args[5] : "";
+
+        try (HikariDataSource pool = new HikariDataSource()) {
+            pool.setJdbcUrl(url);
+            pool.setUsername(user);
+            pool.setPassword(password);
+            pool.setMaximumPoolSize(poolSize);
+
+            run("platform threads", new ShopExecutor(PLATFORM_THREADS, poolSize, 600000), pool, requests, latency);
+            run("virtual threads", new ShopExecutor(VIRTUAL_THREADS, poolSize, 600000), pool, requests, latency);
+        }
+    }
+
+    private static void run(String name, ShopExecutor executor, DataSource pool, int requests, int latency) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        //Warm up, connections of pool are opened
+        submitAll(executor, pool, Math.min(requests, 200), latency).join();
+
+        threads.resetPeakThreadCount();
+        long start = System.nanoTime();
+        submitAll(executor, pool, requests, latency).join();
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.printf("%-16s %7d requests in %6d ms, %7.0f req/s, peak OS threads %5d%n",
+                name, requests, millis, requests * 1000.0 / Math.max(millis, 1), threads.getPeakThreadCount());
+        executor.stop();
+    }
+
+    private static CompletableFuture<Void> submitAll(ShopExecutor executor, DataSource pool, int requests, int latency) {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[requests];
+        for (int i = 0; i < requests; i++)
+            futures[i] = executor.submit(() -> query(pool, latency));
+        return CompletableFuture.allOf(futures);
+    }
+
+    private static int query(DataSource pool, int latency) throws SQLException {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT 1 FROM pg_sleep(?)")) {
+            statement.setDouble(1, latency / 1000.0);
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.smarthouse.benchmark;
+
+import com.smarthouse.repository.ProductCardDao;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compares time from start of JVM to ready context of app-config.xml:
+ * default start and start with AppCDS archive of classes. Every start is
+ * a new JVM, time of the first query is printed too. Start of test context
+ * also creates test database, this time is the same for both modes.
+ * <p>
+ * Run: gradle benchmarkStartup -Pargs="runs", archive is made by task appCdsArchive
+ */
+public class StartupBenchmark {
+
+    private static final String READY = "READY ";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("start")) {
+            start();
+            return;
+        }
+
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        String archive = System.getProperty("cds.archive");
+
+        run("default", runs, Collections.emptyList());
+        if (archive != null && new File(archive).isFile())
+            run("CDS", runs, Arrays.asList("-XX:SharedArchiveFile=" + archive, "-Xshare:auto"));
+        else
+            System.out.println("No AppCDS archive, run gradle appCdsArchive");
+    }
+
+    //Start of one node: context is started, one query is done and JVM exits
+    private static void start() {
+        long ready;
+        long firstQuery;
+        try (ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext("app-config.xml")) {
+            ready = ManagementFactory.getRuntimeMXBean().getUptime();
+            long start = System.nanoTime();
+            context.getBean(ProductCardDao.class).findBySku("SKU-1");
+            firstQuery = (System.nanoTime() - start) / 1_000_000;
+        }
+        System.out.println(READY + ready + " " + firstQuery);
+        //Background threads of services must not delay exit
+        System.exit(0);
+    }
+
+    private static void run(String name, int runs, List<String> options) throws IOException, InterruptedException {
+        long[] ready = new long[runs];
+        long[] firstQuery = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            long[] times = startNode(options);
+            ready[i] = times[0];
+            firstQuery[i] = times[1];
+        }
+        Arrays.sort(ready);
+        Arrays.sort(firstQuery);
+        System.out.printf("%-18s ready median %6d ms, min %6d ms, first query median %5d ms%n",
+                name, ready[runs / 2], ready[0], firstQuery[runs / 2]);
+    }
+
+    private static long[] startNode(List<String> options) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        //Options which open JDK modules for Hibernate and Spring Data
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments())
+            if (argument.startsWith("--add-opens"))
+                command.add(argument);
+        command.addAll(options);
+        command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"),
+                StartupBenchmark.class.getName(), "start"));
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        long[] times = null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null)
+                if (line.startsWith(READY)) {
+                    String[] parts = line.substring(READY.length()).split(" ");
+                    times = new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1])};
+                }
+        }
+        if (process.waitFor() != 0 || times == null)
+            throw new IllegalStateException("Node was not started: " + command);
+        return times;
+    }
+}
@@ -1,18 +1,34 @@
 package com.smarthouse.service;
 
 import java.io.*;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.SQLException;
-import java.sql.Statement;
-
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * DbRecreator prepares test database. Tables are created from SQL file
+ * only once, into template database, which is copied to the test database.
+ * Between tests tables are emptied with one TRUNCATE. Sequences are not restarted: Hibernate keeps
+ * ids already taken from them, and they must not be given again.
+ * <p>
+ * Template database keeps checksum of SQL file in its comment and is
+ * created again when the file is changed.
+ * <p>
+ * There is one test database, so test classes must run in one JVM.
+ */
 public final class DbRecreator {
 
-    private String urlPostgres;
-    private String urlDb;
-    private String user;
-    private String psw;
-    private String nameSQLFile;
+    private final String urlPostgres;
+    private final String urlDb;
+    private final String user;
+    private final String psw;
+    private final String nameSQLFile;
+
+    private final String dbName;
+    private final String templateName;
+    private String truncate;
 
     public DbRecreator(String urlPostgres, String urlDb, String user, String psw, String nameSQLFile) {
         this.urlPostgres = urlPostgres;
@@ -20,61 +36,104 @@ public final class DbRecreator {
         this.user = user;
         this.psw = psw;
         this.nameSQLFile = nameSQLFile;
+
+        String path = urlDb.contains("?") ? urlDb.substring(0, urlDb.indexOf('?')) : urlDb;
+        this.dbName = path.substring(path.lastIndexOf('/') + 1);
+        this.templateName = dbName + "_template";
+    }
+
+    //Empty all tables, tables are created with the first call
+    public synchronized void resetTables() {
+        if (truncate == null) {
+            dropCreateDbAndTables();
+            return;
+        }
+        execute(urlDb, truncate);
     }
 
-    public void dropCreateDbAndTables() {
+    //Create tables again, database is copied from template
+    public synchronized void dropCreateDbAndTables() {
+        createTemplate(readSQL());
         dropDB();
         createDB();
-        createTables();
+        truncate = truncateStatement();
     }
 
-    public void createDB(){
-
-        try (Connection c = DriverManager.getConnection(urlPostgres, user, psw);
-        Statement statement = c.createStatement()) {
-            statement.executeUpdate("CREATE DATABASE testdb");
-        }
-        catch (SQLException e) {
-            e.printStackTrace();
-        }
+    public void createDB() {
+        execute(urlPostgres, "CREATE DATABASE " + dbName + " TEMPLATE " + templateName);
     }
 
+    public void createTables() {
+        execute(urlDb, readSQL());
+        truncate = truncateStatement();
+    }
 
-    public void createTables(){
+    public void dropDB() {
+        execute(urlPostgres, "DROP DATABASE IF EXISTS " + dbName);
+    }
 
-        String query = "";
+    //Private helpful methods
 
-        try(InputStream inputStream =
-                    getClass().getClassLoader().getResourceAsStream(nameSQLFile);
-        BufferedReader bufferedReader =
-                new BufferedReader(new InputStreamReader(inputStream)))
-        {
-            String readline;
-            while((readline = bufferedReader.readLine()) !=null){
-                query  = query + readline;
+    private void createTemplate(String sql) {
+        String checksum = checksum(sql);
+        try (Connection c = DriverManager.getConnection(urlPostgres, user, psw);
+             PreparedStatement statement = c.prepareStatement(
+                     "SELECT shobj_description(oid, 'pg_database') FROM pg_database WHERE datname = ?")) {
+            statement.setString(1, templateName);
+            try (ResultSet rs = statement.executeQuery()) {
+                if (rs.next() && checksum.equals(rs.getString(1)))
+                    return;
             }
-        } catch (IOException e){
-            e.printStackTrace();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Template database was not checked", e);
         }
 
-        try (Connection c = DriverManager.getConnection(urlDb, user, psw);
-        Statement statement = c.createStatement()){
+        execute(urlPostgres, "DROP DATABASE IF EXISTS " + templateName);
+        execute(urlPostgres, "CREATE DATABASE " + templateName);
+        execute(urlDb.replaceFirst("/" + dbName + "(\\?|$)", "/" + templateName + "$1"), sql);
+        execute(urlPostgres, "COMMENT ON DATABASE " + templateName + " IS '" + checksum + "'");
+    }
 
-            statement.executeUpdate(query);
+    private String truncateStatement() {
+        List<String> tables = new ArrayList<>();
+        try (Connection c = DriverManager.getConnection(urlDb, user, psw);
+             Statement statement = c.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT tablename FROM pg_tables WHERE schemaname = 'public'")) {
+            while (rs.next())
+                tables.add(rs.getString(1));
         } catch (SQLException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Tables of test database were not read", e);
         }
+        return "TRUNCATE TABLE " + String.join(", ", tables) + " CASCADE";
     }
 
-    public void dropDB() {
-
-        try (Connection c = DriverManager.getConnection(urlPostgres, user, psw);
-        Statement statement = c.createStatement()) {
-
-            statement.executeUpdate("DROP DATABASE testdb");
+    private void execute(String url, String query) {
+        try (Connection c = DriverManager.getConnection(url, user, psw);
+             Statement statement = c.createStatement()) {
+            statement.execute(query);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Query was not executed: " +
+                    query.substring(0, Math.min(query.length(), 100)), e);
         }
-        catch (SQLException e) {
-            e.printStackTrace();
+    }
+
+    private String readSQL() {
+        StringBuilder query = new StringBuilder();
+        try (InputStream inputStream = getClass().getClassLoader().getResourceAsStream(nameSQLFile);
+             BufferedReader bufferedReader =
+                     new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            String readline;
+            while ((readline = bufferedReader.readLine()) != null)
+                query.append(readline).append('\n');
+        } catch (IOException e) {
+            throw new IllegalStateException("SQL file " + nameSQLFile + " was not read", e);
         }
+        return query.toString();
+    }
+
+    private static String checksum(String sql) {
+        CRC32 crc = new CRC32();
+        crc.update(sql.getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
     }
 }
@@ -2,15 +2,87 @@ package com.smarthouse.service;
 
 import com.smarthouse.repository.*;
 import com.smarthouse.pojo.*;
+import com.smarthouse.service.analytics.SalesAnalytics;
+import com.smarthouse.service.analytics.SalesTotal;
+import com.smarthouse.service.cart.CartStore;
+import com.smarthouse.service.catalog.CatalogLookup;
+import com.smarthouse.service.catalog.CatalogSnapshot;
+import com.smarthouse.service.catalog.CatalogSnapshotManager;
+import com.smarthouse.service.catalog.CategoryView;
+import com.smarthouse.service.catalog.ProductView;
+import com.smarthouse.service.execution.AdmissionController;
+import com.smarthouse.service.export.OrderExporter;
+import com.smarthouse.service.execution.OverloadedException;
+import com.smarthouse.service.execution.ShopExecutor;
+import com.smarthouse.service.generator.DataGenerator;
+import com.smarthouse.service.generator.DataSetSpec;
+import com.smarthouse.service.idempotency.IdempotencyStore;
+import com.smarthouse.service.invalidation.*;
+import com.smarthouse.service.media.MediaManifest;
+import com.smarthouse.service.media.MediaResolver;
+import com.smarthouse.service.notification.LocalNotificationSender;
+import com.smarthouse.service.notification.Notification;
+import com.smarthouse.service.notification.RestockNotifier;
+import com.smarthouse.service.popularity.PopularityTracker;
+import com.smarthouse.service.pricing.CartQuote;
+import com.smarthouse.service.pricing.Money;
+import com.smarthouse.service.pricing.PricingEngine;
+import com.smarthouse.service.recommendation.RecommendationEngine;
+import com.smarthouse.service.reservation.ReservationExpiry;
+import com.smarthouse.service.search.Autocomplete;
+import com.smarthouse.service.search.Completion;
+import com.smarthouse.service.search.NumericAttributeIndex;
+import com.smarthouse.service.tracing.CapturedStatement;
+import com.smarthouse.service.tracing.SqlStats;
+import com.smarthouse.service.tracing.SqlTracer;
+import com.smarthouse.service.tracing.TracingDataSource;
+import com.smarthouse.service.util.enums.EnumCachedEntity;
+import com.smarthouse.service.util.enums.EnumExecutionMode;
+import com.smarthouse.service.util.enums.EnumExportFormat;
 import org.junit.*;
 import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.AnnotatedBeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
+import org.springframework.core.type.filter.AnnotationTypeFilter;
+import org.springframework.core.type.filter.AssignableTypeFilter;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.repository.Repository;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.annotation.Resource;
+import javax.persistence.Entity;
+import javax.persistence.EntityManagerFactory;
 import javax.persistence.NoResultException;
+import javax.sql.DataSource;
+import javax.validation.ValidationException;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import static com.smarthouse.service.util.enums.EnumOrderStatus.*;
 import static com.smarthouse.service.util.enums.EnumProductSorter.*;
 import static com.smarthouse.service.util.enums.EnumSearcher.*;
 import static org.hamcrest.Matchers.*;
@@ -20,6 +92,15 @@ import static org.junit.Assert.*;
 @ContextConfiguration("/app-config.xml")
 public class ShopManagerTest {
 
+    private static final Pattern SEQ_SCAN = Pattern.compile("\"Node Type\": \"Seq Scan\",[^{}]*?\"Relation Name\": \"(\\w+)\"");
+    private static final Pattern PLAN_ROWS = Pattern.compile("\"Plan Rows\": (\\d+)");
+    //Tables small enough to be read whole
+    private static final Set<String> SMALL_TABLES = new HashSet<>(Arrays.asList("category", "attributename"));
+    //Finders which read whole tables by design: snapshots, full lists and reports, and version of catalog change log
+    private static final Set<String> FULL_READS = new HashSet<>(Arrays.asList("findAllVotes", "findAllForSnapshot",
+            "findAllSkus", "findAllBy", "sumAmountsBySku", "streamSkusOfOrders", "sumSalesBySku", "sumSalesByCategory",
+            "sumSalesByDay", "findAllForTable", "findCurrentVersion", "findHorizon"));
+
     @Resource
     private ShopManager shopManager;
     @Resource
@@ -39,11 +120,68 @@ public class ShopManagerTest {
     @Resource
     private VisualizationDao visualizationDao;
     @Resource
+    private PopularityTracker popularityTracker;
+    @Resource
+    private SalesAnalytics salesAnalytics;
+    @Resource
+    private MediaResolver mediaResolver;
+    @Resource
+    private CatalogSnapshotManager catalogSnapshotManager;
+    @Resource
+    private DataSource dataSource;
+    @Resource
+    private CatalogLookup catalogLookup;
+    @Resource
+    private ShopExecutor shopExecutor;
+    @Resource
+    private AdmissionController admissionController;
+    @Resource
+    private CartStore cartStore;
+    @Resource
+    private PricingEngine pricingEngine;
+    @Resource
+    private OrderExporter orderExporter;
+    @Resource
+    private CatalogChangeDao catalogChangeDao;
+    @Resource
+    private PriceRuleDao priceRuleDao;
+    @Resource
     private DbRecreator dbRecreator;
+    @Resource
+    private DataGenerator dataGenerator;
+    @Resource
+    private SqlTracer sqlTracer;
+    @Resource
+    private Autocomplete autocomplete;
+    @Resource
+    private InvalidationBus invalidationBus;
+    @Resource
+    private RecommendationEngine recommendationEngine;
+    @Resource
+    private ReservationExpiry reservationExpiry;
+    @Resource
+    private IdempotencyKeyDao idempotencyKeyDao;
+    @Resource
+    private RestockNotifier restockNotifier;
+    @Resource
+    private LocalNotificationSender notificationSender;
+    @Resource
+    private NumericAttributeIndex numericAttributeIndex;
+    @Resource
+    private EntityManagerFactory entityManagerFactory;
+    @Resource
+    private PlatformTransactionManager transactionManager;
 
     @Before
     public void before() {
-        dbRecreator.dropCreateDbAndTables();
+        dbRecreator.resetTables();
+        pricingEngine.reload();
+        catalogSnapshotManager.rebuild();
+        autocomplete.rebuild();
+        recommendationEngine.rebuild();
+        reservationExpiry.recover();
+        notificationSender.clear();
+        numericAttributeIndex.rebuild();
     }
 
     @Test
@@ -91,7 +229,7 @@ public class ShopManagerTest {
         List<OrderMain> orderMains = orderMainDao.findByCustomer(customerDao.findByEmail("kya@bk.ru"));
 
         for (OrderMain om : orderMains) {
-            assertThat(om.getStatus() == 1, is(true));
+            assertThat(om.getStatus() == CREATED, is(true));
             List<OrderItem> orderItems = orderItemDao.findByOrderMain(om);
             for (OrderItem oi : orderItems)
                 assertThat(productCardDao.findBySku(oi.getProductCard().getSku()).getAmount(), oneOf(100, 50, 10));
@@ -102,7 +240,7 @@ public class ShopManagerTest {
         orderMains = orderMainDao.findByCustomer(customerDao.findByEmail("kya@bk.ru"));
 
         for (OrderMain om : orderMains) {
-            assertThat(om.getStatus() != 1, is(true));
+            assertThat(om.getStatus() != CREATED, is(true));
             assertThat(om.getCustomer().getEmail(), is(equalTo("kya@bk.ru")));
             List<OrderItem> orderItems = orderItemDao.findByOrderMain(om);
             for (OrderItem oi : orderItems)
@@ -110,6 +248,1155 @@ public class ShopManagerTest {
         }
     }
 
+    @Test
+    public void shouldShareOneQueryForConcurrentLookupsOfProduct() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger queries = new AtomicInteger();
+        final ProductCard bell = new ProductCard("bell", "bell signal", 1234, 100, 1, 1, "bell desc", null);
+
+        //Slow DB that counts queries
+        ProductCardDao slowDao = (ProductCardDao) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{ProductCardDao.class}, (proxy, method, args) -> {
+                    queries.incrementAndGet();
+                    release.await();
+                    return "bell".equals(args[0]) ? bell : null;
+                });
+        final CatalogLookup lookup = new CatalogLookup(slowDao, categoryDao, 60000, 100);
+
+        ExecutorService executor = Executors.newFixedThreadPool(50);
+        List<Future<ProductCard>> results = new ArrayList<>();
+        for (int i = 0; i < 50; i++)
+            results.add(executor.submit(() -> lookup.findBySku("bell")));
+        Thread.sleep(300);
+        release.countDown();
+
+        for (Future<ProductCard> result : results)
+            assertThat(result.get(), is(sameInstance(bell)));
+        executor.shutdown();
+        assertThat(queries.get(), is(equalTo(1)));
+
+        //Unknown sku is asked from DB only once until it is invalidated
+        assertThat(lookup.findBySku("ring"), is(nullValue()));
+        assertThat(lookup.findBySku("ring"), is(nullValue()));
+        assertThat(queries.get(), is(equalTo(2)));
+        lookup.invalidate(EnumCachedEntity.PRODUCT, Collections.singletonList("ring"));
+        lookup.findBySku("ring");
+        assertThat(queries.get(), is(equalTo(3)));
+    }
+
+    @Test
+    public void shouldReadProductOfTransactionByItsOwnContext() throws Exception {
+        Category category = categoryDao.save(new Category("desc", "catname", null));
+        productCardDao.save(new ProductCard("bell", "bell signal", 100, 100, 1, 1, "bell desc", category));
+
+        //Query of other thread is slow, it waits until the transaction has read the product or a second is over
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread caller = Thread.currentThread();
+        ProductCardDao slowDao = (ProductCardDao) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{ProductCardDao.class}, (proxy, method, args) -> {
+                    if (Thread.currentThread() != caller) {
+                        started.countDown();
+                        release.await(1, TimeUnit.SECONDS);
+                    }
+                    return method.invoke(productCardDao, args);
+                });
+        CatalogLookup lookup = new CatalogLookup(slowDao, categoryDao, 60000, 100);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<ProductCard> other = executor.submit(() -> lookup.findBySku("bell"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        //Entity of the other thread's query belongs to no transaction of the caller
+        new TransactionTemplate(transactionManager).execute(status -> {
+            ProductCard own = productCardDao.findBySku("bell");
+            assertThat(lookup.findBySku("bell"), is(sameInstance(own)));
+            return null;
+        });
+        release.countDown();
+        assertThat(other.get().getSku(), is(equalTo("bell")));
+        executor.shutdown();
+    }
+
+    @Test
+    public void shouldFindProductAfterSaveOfUnknownSku() {
+        catalogLookup.invalidateAll();
+        Category category = categoryDao.save(new Category("desc", "catname", null));
+
+        assertThat(shopManager.getProductCard("bell"), is(nullValue()));
+
+        //Saved by DAO, lookup still remembers sku as missing
+        productCardDao.save(new ProductCard("bell", "bell signal", 1234, 100, 1, 1, "bell desc", category));
+        assertThat(shopManager.getProductCard("bell"), is(nullValue()));
+
+        //Saved by ShopManager, missing sku is invalidated
+        shopManager.saveProductCard(new ProductCard("bell", "bell signal", 1234, 100, 1, 1, "bell desc", category));
+        assertThat(shopManager.getProductCard("bell").getName(), is(equalTo("bell signal")));
+        assertThat(shopManager.getCategory(category.getId()).getName(), is(equalTo("catname")));
+    }
+
+    @Test
+    public void shouldRunShopManagerCallsOnVirtualThreads() throws Exception {
+        Category category = categoryDao.save(new Category("desc", "catname", null));
+        productCardDao.save(new ProductCard("bell", "bell signal", 1234, 100, 1, 1, "bell desc", category));
+
+        assertThat(shopExecutor.call(() -> Thread.currentThread().isVirtual()), is(true));
+
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            results.add(shopExecutor.submit(() -> shopManager.isRequiredAmountOfProductCardAvailable("bell", 3)));
+        for (CompletableFuture<Boolean> result : results)
+            assertThat(result.get(), is(true));
+
+        shopExecutor.run(() -> shopManager.createOrder("kya@bk.ru", "Yuriy", "0503337178", "my address", 3, "bell")).get();
+        assertThat(orderMainDao.findByCustomer(customerDao.findByEmail("kya@bk.ru")).size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void shouldRejectCallsWhenNoPermitIsFree() throws Exception {
+        ShopExecutor executor = new ShopExecutor(EnumExecutionMode.VIRTUAL_THREADS, 1, 100);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            CompletableFuture<Void> first = executor.run(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            Thread.sleep(50);
+
+            CompletableFuture<Boolean> second = executor.submit(() -> true);
+            try {
+                second.get();
+                fail();
+            } catch (ExecutionException e) {
+                assertThat(e.getCause() instanceof RejectedExecutionException, is(true));
+            }
+
+            release.countDown();
+            first.get();
+            assertThat(executor.call(() -> true), is(true));
+        } finally {
+            release.countDown();
+            executor.stop();
+        }
+    }
+
+    @Test
+    public void shouldRejectCallsOverLimitOfAdmission() throws Exception {
+        AdmissionController controller = new AdmissionController(2, 1, 4, 1000, 200);
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService threads = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 2; i++)
+                threads.submit(() -> controller.run(() -> {
+                    started.countDown();
+                    awaitQuietly(release);
+                }));
+            started.await();
+
+            assertThat(controller.isDegraded(), is(false));
+            try {
+                controller.run(() -> fail());
+                fail();
+            } catch (OverloadedException e) {
+                assertThat(e.getRetryAfterMillis(), is(200L));
+            }
+            assertThat(controller.getRejected(), is(1L));
+            assertThat(controller.isDegraded(), is(true));
+
+            release.countDown();
+            threads.shutdown();
+            threads.awaitTermination(5, TimeUnit.SECONDS);
+            assertThat(controller.getInFlight(), is(0));
+            assertThat(controller.call(() -> true), is(true));
+        } finally {
+            release.countDown();
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldChangeLimitOfAdmissionByLatency() {
+        AdmissionController controller = new AdmissionController(8, 1, 16, 10, 100);
+
+        controller.run(() -> sleepQuietly(30));
+        assertThat(controller.getLimit(), is(4));
+        controller.run(() -> sleepQuietly(30));
+        controller.run(() -> sleepQuietly(30));
+        controller.run(() -> sleepQuietly(30));
+        assertThat(controller.getLimit(), is(1));
+
+        for (int i = 0; i < 10; i++)
+            controller.run(() -> {
+            });
+        assertThat(controller.getLimit(), is(greaterThan(1)));
+    }
+
+    @Test
+    public void shouldReadProductsFromSnapshotWhenOrdersAreOverloaded() throws Exception {
+        Category category = categoryDao.save(new Category("desc", "catname", null));
+        ProductCard productCard = productCardDao.save(new ProductCard("bell", "bell signal", 1234, 100, 1, 1, "bell desc", category));
+        catalogSnapshotManager.rebuild();
+        productCard.setAmount(5);
+        productCardDao.save(productCard);
+
+        AdmissionController controller = new AdmissionController(1, 1, 1, 1000, 60000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread blocker = new Thread(() -> controller.run(() -> {
+            started.countDown();
+            awaitQuietly(release);
+        }));
+        shopManager.setAdmissionController(controller);
+        try {
+            assertThat(shopManager.getProductCard("bell").getAmount(), is(equalTo(5)));
+
+            blocker.start();
+            started.await();
+            try {
+                shopManager.createOrder("kya@bk.ru", "Yuriy", "0503337178", "my address", 3, "bell");
+                fail();
+            } catch (OverloadedException e) {
+                assertThat(customerDao.exists("kya@bk.ru"), is(false));
+            }
+
+            ProductCard fromSnapshot = shopManager.getProductCard("bell");
+            assertThat(fromSnapshot.getAmount(), is(equalTo(100)));
+            assertThat(fromSnapshot.getCategory().getId(), is(equalTo(category.getId())));
+            assertTrue(shopManager.isRequiredAmountOfProductCardAvailable("bell", 50));
+        } finally {
+            release.countDown();
+            blocker.join();
+            shopManager.setAdmissionController(admissionController);
+        }
+
+        assertThat(shopManager.getProductCard("bell").getAmount(), is(equalTo(5)));
+    }
+
+    @Test
+    public void shouldKeepCartInMemoryUntilCheckout() {
+        cartStore.clear();
+        Category category = categoryDao.save(new Category("desc", "catname", null));
+        productCardDao.save(new ProductCard("bell", "bell signal", 100, 10, 1, 1, "bell desc", category));
+        productCardDao.save(new ProductCard("lamp", "lamp", 30, 10, 1, 1, "lamp desc", category));
+
+        shopManager.addToCart("session", "bell", 2);
+        shopManager.addToCart("session", "bell", 1);
+        shopManager.addToCart("customer", "lamp", 4);
+        shopManager.mergeCarts("session", "customer");
+        shopManager.changeCartAmount("customer", "lamp", 5);
+
+        Map<String, Integer> cart = shopManager.getCart("customer");
+        assertThat(cart.keySet(), contains("lamp", "bell"));
+        assertThat(cart.get("bell"), is(equalTo(3)));
+        assertThat(cart.get("lamp"), is(equalTo(5)));
+        assertThat(shopManager.getCart("session").isEmpty(), is(true));
+        assertThat(customerDao.exists("kya@bk.ru"), is(false));
+
+        try {
+            shopManager.addToCart("customer", "unknown", 1);
+            fail();
+        } catch (NoResultException e) {
+            assertThat(shopManager.getCart("customer").size(), is(equalTo(2)));
+        }
+
+        shopManager.changeCartAmount("customer", "bell", 11);
+        try {
+            shopManager.checkout("customer", "kya@bk.ru", "Yuriy", "0503337178", "my address");
+            fail();
+        } catch (NoResultException e) {
+            assertThat(shopManager.getCart("customer").get("bell"), is(equalTo(11)));
+            assertThat(customerDao.exists("kya@bk.ru"), is(false));
+        }
+
+        shopManager.changeCartAmount("customer", "bell", 3);
+        OrderMain orderMain = shopManager.checkout("customer", "kya@bk.ru", "Yuriy", "0503337178", "my address");
+        assertThat(orderMain.getStatus(), is(CREATED));
+        List<OrderItem> orderItems = orderItemDao.findByOrderMain(orderMain);
+        assertThat(orderItems.size(), is(equalTo(2)));
+        long total = 0;
+        for (OrderItem orderItem : orderItems)
+            total += orderItem.getTotalprice();
+        assertThat(total, is(equalTo(450L)));
+        assertThat(shopManager.getCart("customer").isEmpty(), is(true));
+
+        shopManager.removeFromCart("customer", "bell");
+        try {
+            shopManager.checkout("customer", "kya@bk.ru", "Yuriy", "0503337178", "my address");
+            fail();
+        } catch (NoResultException e) {
+        }
+    }
+
+    @Test
+    public void shouldRollBackCheckoutAndGiveCartBack() {
+        cartStore.clear();
+        Category category = categoryDao.save(new Category("desc", "catname", null));
+        productCardDao.save(new ProductCard("bell", "bell signal", 100, 10, 1, 1, "bell desc", category));
+
+        //Items of order are not saved, after customer and order were saved
+        OrderItemDao failingDao = (OrderItemDao) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{OrderItemDao.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("save"))
+                        throw new IllegalStateException("Items are not saved");
+                    return method.invoke(orderItemDao, args);
+                });
+        ShopManager failing = new ShopManager(productCardDao, categoryDao, customerDao, orderMainDao, failingDao,
+                visualizationDao, attributeValueDao);
+        failing.setCartStore(cartStore);
+        failing.setTransactionManager(transactionManager);
+
+        failing.addToCart("cart", "bell", 2);
+        try {
+            failing.checkout("cart", "kya@bk.ru", "Yuriy", "0503337178", "my address");
+            fail();
+        } catch (IllegalStateException e) {
+            assertThat(customerDao.exists("kya@bk.ru"), is(false));
+            assertThat(orderMainDao.findByStatus(CREATED, new PageRequest(0, 10)).hasContent(), is(false));
+            assertThat(failing.getCart("cart").get("bell"), is(equalTo(2)));
+        }
+
+        OrderMain orderMain = shopManager.checkout("cart", "kya@bk.ru", "Yuriy", "0503337178", "my address");
+        assertThat(orderItemDao.findByOrderMain(orderMain).size(), is(equalTo(1)));
+        assertThat(shopManager.getCart("cart").isEmpty(), is(true));
+
+        ShopManager withoutCarts = new ShopManager(productCardDao, categoryDao, customerDao, orderMainDao,
+                orderItemDao, visualizationDao, attributeValueDao);
+        try {
+            withoutCarts.getCartQuote("cart");
+            fail();
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    @Test
+    public void shouldEvictAndSnapshotCarts() throws Exception {
+        Path file = Files.createTempFile("carts", ".bin");
+        try {
+            CartStore store = new CartStore(file, 10, 60, 3600);
+            for (int i = 0; i < 11; i++) {
+                store.add("cart" + i, "bell", i + 1);
+                Thread.sleep(2);
+            }
+            assertThat(store.size(), is(equalTo(9)));
+            assertThat(store.get("cart0").isEmpty(), is(true));
+            assertThat(store.get("cart1").isEmpty(), is(true));
+            store.add("cart10", "lamp", 1);
+            store.maintain();
+
+            CartStore restarted = new CartStore(file, 10, 60, 3600);
+            restarted.start();
+            restarted.stop();
+            assertThat(restarted.size(), is(equalTo(9)));
+            assertThat(restarted.get("cart10").keySet(), containsInAnyOrder("bell", "lamp"));
+            assertThat(restarted.get("cart10").get("bell"), is(equalTo(11)));
+
+            CartStore expired = new CartStore(file, 10, 0, 3600);
+            expired.start();
+            expired.stop();
+            assertThat(expired.size(), is(equalTo(0)));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void shouldComputeMoneyWithoutOverflow() {
+        assertThat(Money.of(1234).discount(500), is(equalTo(Money.of(1172))));
+        assertThat(Money.of(1235).discount(1000), is(equalTo(Money.of(1112))));
+        assertThat(Money.of(Long.MAX_VALUE).discount(0), is(equalTo(Money.of(Long.MAX_VALUE))));
+        assertThat(Money.of(Long.MAX_VALUE).discount(10000), is(equalTo(Money.ZERO)));
+        try {
+            Money.of(Long.MAX_VALUE / 2).times(3);
+            fail();
+        } catch (ArithmeticException e) {
+        }
+
+        productCardDao.save(new ProductCard("bell", "bell signal", Integer.MAX_VALUE, 10, 1, 1, "bell desc", null));
+        shopManager.createOrder("kya@bk.ru", "Yuriy", "0503337178", "my address", 3, "bell");
+        OrderMain orderMain = orderMainDao.findByCustomer(customerDao.findByEmail("kya@bk.ru")).get(0);
+        assertThat(orderItemDao.findByOrderMain(orderMain).get(0).getTotalprice(), is(equalTo(3L * Integer.MAX_VALUE)));
+    }
+
+    @Test
+    public void shouldApplyPriceRulesToCart() {
+        cartStore.clear();
+        Category category = categoryDao.save(new Category("desc", "catname", null));
+        ProductCard bell = productCardDao.save(new ProductCard("bell", "bell signal", 100, 100, 1, 1, "bell desc", category));
+        productCardDao.save(new ProductCard("lamp", "lamp", 30, 100, 1, 1, "lamp desc", category));
+        productCardDao.save(new ProductCard("fan", "fan", 50, 100, 1, 1, "fan desc", null));
+        catalogSnapshotManager.rebuild();
+
+        shopManager.savePriceRule(new PriceRule(null, category, 1, 500));
+        shopManager.savePriceRule(new PriceRule(bell, null, 10, 1000));
+        shopManager.savePriceRule(new PriceRule(null, null, 20, 200));
+        try {
+            shopManager.savePriceRule(new PriceRule(null, null, 1, 10001));
+            fail();
+        } catch (ValidationException e) {
+        }
+
+        assertThat(pricingEngine.discount("bell", category.getId(), 9), is(equalTo(500)));
+        assertThat(pricingEngine.discount("bell", category.getId(), 10), is(equalTo(1000)));
+        assertThat(pricingEngine.discount("fan", null, 19), is(equalTo(0)));
+        assertThat(pricingEngine.discount("fan", null, 20), is(equalTo(200)));
+
+        shopManager.addToCart("cart", "bell", 10);
+        shopManager.addToCart("cart", "lamp", 2);
+        shopManager.addToCart("cart", "fan", 1);
+        CartQuote quote = shopManager.getCartQuote("cart");
+        assertThat(quote.getLines().get("bell"), is(equalTo(Money.of(900))));
+        assertThat(quote.getLines().get("lamp"), is(equalTo(Money.of(57))));
+        assertThat(quote.getLines().get("fan"), is(equalTo(Money.of(50))));
+        assertThat(quote.getTotal(), is(equalTo(Money.of(1007))));
+        assertThat(quote.getMissing().isEmpty(), is(true));
+
+        OrderMain orderMain = shopManager.checkout("cart", "kya@bk.ru", "Yuriy", "0503337178", "my address");
+        long total = 0;
+        for (OrderItem orderItem : orderItemDao.findByOrderMain(orderMain))
+            total += orderItem.getTotalprice();
+        assertThat(total, is(equalTo(1007L)));
+    }
+
+    @Test
+    public void shouldRepriceProductsWithOneUpdate() {
+        cartStore.clear();
+        Category category = categoryDao.save(new Category("desc", "catname", null));
+        productCardDao.save(new ProductCard("bell", "bell signal", 100, 100, 1, 1, "bell desc", category));
+        productCardDao.save(new ProductCard("lamp", "lamp", 35, 100, 1, 1, "lamp desc", category));
+        productCardDao.save(new ProductCard("fan", "fan", 50, 100, 1, 1, "fan desc", null));
+        catalogSnapshotManager.rebuild();
+        shopManager.addToCart("cart", "bell", 2);
+        assertThat(shopManager.getCartQuote("cart").getTotal(), is(equalTo(Money.of(200))));
+
+        assertThat(shopManager.repriceProducts(category, 10), is(equalTo(2)));
+        //Snapshot is not built again yet, changed products are read from DB
+        assertThat(shopManager.getCartQuote("cart").getTotal(), is(equalTo(Money.of(220))));
+        assertThat(productCardDao.findBySku("bell").getPrice(), is(equalTo(110)));
+        assertThat(productCardDao.findBySku("lamp").getPrice(), is(equalTo(39)));
+        assertThat(productCardDao.findBySku("fan").getPrice(), is(equalTo(50)));
+
+        assertThat(shopManager.repriceProducts(null, -50), is(equalTo(3)));
+        assertThat(productCardDao.findBySku("bell").getPrice(), is(equalTo(55)));
+        assertThat(productCardDao.findBySku("fan").getPrice(), is(equalTo(25)));
+
+        //Cheap products keep the least price, free products stay free
+        productCardDao.save(new ProductCard("pin", "pin", 1, 100, 1, 1, "pin desc", category));
+        productCardDao.save(new ProductCard("gift", "gift", 0, 100, 1, 1, "gift desc", category));
+        assertThat(shopManager.repriceProducts(category, -99), is(equalTo(4)));
+        assertThat(productCardDao.findBySku("bell").getPrice(), is(equalTo(1)));
+        assertThat(productCardDao.findBySku("pin").getPrice(), is(equalTo(1)));
+        assertThat(productCardDao.findBySku("gift").getPrice(), is(equalTo(0)));
+        assertThat(shopManager.repriceProducts(null, -60), is(equalTo(5)));
+        assertThat(productCardDao.findBySku("pin").getPrice(), is(equalTo(1)));
+        assertThat(productCardDao.findBySku("fan").getPrice(), is(equalTo(10)));
+
+        try {
+            shopManager.repriceProducts(null, -100);
+            fail();
+        } catch (ValidationException e) {
+        }
+    }
+
+    @Test
+    public void shouldExportOrdersAndResumeStoppedExport() throws Exception {
+        cartStore.clear();
+        Category category = categoryDao.save(new Category("desc", "catname", null));
+        productCardDao.save(new ProductCard("bell", "bell signal", 100, 100, 1, 1, "bell desc", category));
+        productCardDao.save(new ProductCard("lamp", "lamp", 30, 100, 1, 1, "lamp desc", category));
+        shopManager.createOrder("kya@bk.ru", "Yuriy", "0503337178", "my address\n2, flat\\3", 2, "bell");
+        shopManager.addToCart("cart", "bell", 1);
+        shopManager.addToCart("cart", "lamp", 3);
+        OrderMain last = shopManager.checkout("cart", "kya@bk.ru", "Yuriy", "0503337178", "Kyiv, \"Main\" street");
+
+        Path csv = Files.createTempFile("orders", ".csv");
+        Path json = Files.createTempFile("orders", ".ndjson");
+        try {
+            assertThat(orderExporter.export(csv, EnumExportFormat.CSV, 0), is(equalTo(last.getOrderId())));
+            List<String> lines = Files.readAllLines(csv);
+            //Line break of address is kept inside quoted value
+            assertThat(lines.size(), is(equalTo(5)));
+            assertThat(lines.get(0), is(equalTo("orderId,created,status,address,email,name,phone,itemId,sku,amount,totalPrice")));
+            assertThat(lines.get(1), endsWith(",CREATED,\"my address"));
+            assertThat(lines.get(2), startsWith("2, flat\\3\",kya@bk.ru,"));
+            assertThat(lines.get(3), startsWith(last.getOrderId() + ","));
+            assertThat(lines.get(3), containsString(",CREATED,\"Kyiv, \"\"Main\"\" street\",kya@bk.ru,Yuriy,0503337178,"));
+            assertThat(lines.get(4), endsWith(",lamp,3,90"));
+            int first = Integer.parseInt(lines.get(1).substring(0, lines.get(1).indexOf(',')));
+
+            orderExporter.export(json, EnumExportFormat.NDJSON, 0);
+            lines = Files.readAllLines(json);
+            assertThat(lines.size(), is(equalTo(3)));
+            assertThat(lines.get(1), startsWith("{\"orderId\":" + last.getOrderId() + ",\"created\":\""));
+            assertThat(lines.get(1), containsString("\"address\":\"Kyiv, \\\"Main\\\" street\""));
+            assertThat(lines.get(2), endsWith("\"sku\":\"lamp\",\"amount\":3,\"totalPrice\":90}"));
+
+            //Export stopped in the middle of the last order
+            byte[] full = Files.readAllBytes(json);
+            int cut = new String(full, "UTF-8").indexOf('\n') + 1 + 20;
+            try (FileChannel channel = FileChannel.open(json, StandardOpenOption.WRITE)) {
+                channel.truncate(cut);
+            }
+            int after = orderExporter.resume(json, EnumExportFormat.NDJSON);
+            assertThat(after, is(equalTo(last.getOrderId() - 1)));
+            assertThat(Files.readAllLines(json).size(), is(equalTo(1)));
+            assertThat(orderExporter.export(json, EnumExportFormat.NDJSON, after), is(equalTo(last.getOrderId())));
+            assertThat(Files.readAllBytes(json), is(equalTo(full)));
+
+            //Export stopped inside orderId of the last line, so the last full order is exported again
+            try (FileChannel channel = FileChannel.open(json, StandardOpenOption.WRITE)) {
+                channel.truncate(full.length - lines.get(2).length() - 2 + 12);
+            }
+            assertThat(orderExporter.resume(json, EnumExportFormat.NDJSON), is(equalTo(last.getOrderId() - 1)));
+            assertThat(Files.readAllLines(json).size(), is(equalTo(1)));
+
+            //Export of CSV stopped in the middle of the last order, address of the first order has line break
+            byte[] fullCsv = Files.readAllBytes(csv);
+            try (FileChannel channel = FileChannel.open(csv, StandardOpenOption.WRITE)) {
+                channel.truncate(fullCsv.length - 10);
+            }
+            after = orderExporter.resume(csv, EnumExportFormat.CSV);
+            assertThat(after, is(equalTo(last.getOrderId() - 1)));
+            assertThat(Files.readAllLines(csv).size(), is(equalTo(3)));
+            orderExporter.export(csv, EnumExportFormat.CSV, after);
+            assertThat(Files.readAllBytes(csv), is(equalTo(fullCsv)));
+
+            //Stopped inside the quoted address, its second line starts like a row of order 2
+            try (FileChannel channel = FileChannel.open(csv, StandardOpenOption.WRITE)) {
+                channel.truncate(new String(fullCsv, "UTF-8").indexOf("flat"));
+            }
+            after = orderExporter.resume(csv, EnumExportFormat.CSV);
+            assertThat(after, is(equalTo(first - 1)));
+            assertThat(Files.readAllLines(csv).size(), is(equalTo(1)));
+            orderExporter.export(csv, EnumExportFormat.CSV, after);
+            assertThat(Files.readAllBytes(csv), is(equalTo(fullCsv)));
+
+            //Only header of CSV was written
+            Files.write(csv, Collections.singletonList("orderId,created"));
+            assertThat(orderExporter.resume(csv, EnumExportFormat.CSV), is(equalTo(0)));
+        } finally {
+            Files.deleteIfExists(csv);
+            Files.deleteIfExists(json);
+        }
+    }
+
+    @Test
+    public void shouldCompleteProductsAndCategoriesByPopularity() {
+        Category lights = categoryDao.save(new Category("desc", "Lighting", null));
+        productCardDao.save(new ProductCard("lamp-1", "Desk lamp", 30, 100, 5, 0, "lamp", lights));
+        productCardDao.save(new ProductCard("lamp-2", "Desk lamp pro", 90, 100, 50, 0, "lamp", lights));
+        productCardDao.save(new ProductCard("led", "LED strip", 20, 100, 1, 0, "led", lights));
+        autocomplete.rebuild();
+
+        assertThat(keys(shopManager.autocomplete("  desk LA", 10)), contains("lamp-2", "lamp-1"));
+        //Word inside name and sku
+        assertThat(keys(shopManager.autocomplete("lamp", 10)), contains("lamp-2", "lamp-1"));
+        assertThat(keys(shopManager.autocomplete("l", 2)), contains(String.valueOf(lights.getId()), "lamp-2"));
+        assertThat(shopManager.autocomplete("l", 10).get(0).getText(), is(equalTo("Lighting")));
+        assertThat(shopManager.autocomplete("", 10), is(empty()));
+
+        //One typo
+        assertThat(keys(shopManager.autocomplete("dsek", 10)), contains("lamp-2", "lamp-1"));
+        assertThat(keys(shopManager.autocomplete("lihgt", 10)), contains(String.valueOf(lights.getId())));
+        assertThat(shopManager.autocomplete("xyzzy", 10), is(empty()));
+
+        //Purchases weigh twice
+        shopManager.createOrder("kya@bk.ru", "Yuriy", "0503337178", "my address", 30, "led");
+        autocomplete.rebuild();
+        assertThat(keys(shopManager.autocomplete("l", 3)), contains(String.valueOf(lights.getId()), "led", "lamp-2"));
+        assertThat(shopManager.autocomplete("led", 1).get(0).getWeight(), is(equalTo(61L)));
+    }
+
+    @Test
+    public void shouldApplyChangedProductsToAutocomplete() {
+        Category lights = categoryDao.save(new Category("desc", "Lighting", null));
+        ProductCard lamp = shopManager.saveProductCard(new ProductCard("lamp", "Desk lamp", 30, 100, 5, 0, "lamp", lights));
+        assertThat(shopManager.autocomplete("desk", 10), is(empty()));
+
+        autocomplete.applyChanges();
+        assertThat(keys(shopManager.autocomplete("desk", 10)), contains("lamp"));
+
+        lamp.setName("Floor lamp");
+        shopManager.saveProductCard(lamp);
+        autocomplete.applyChanges();
+        assertThat(shopManager.autocomplete("desk", 10), is(empty()));
+        assertThat(keys(shopManager.autocomplete("flo", 10)), contains("lamp"));
+
+        //Many terms of one heavy completion don't hide lighter ones
+        productCardDao.save(new ProductCard("echo", String.join(" ", Collections.nCopies(50, "fl")), 30, 100, 50, 0,
+                "echo", lights));
+        autocomplete.rebuild();
+        assertThat(keys(shopManager.autocomplete("fl", 2)), contains("echo", "lamp"));
+
+        //Sold amount of changed product is read again
+        buyTogether("a@bk.ru", "echo");
+        autocomplete.applyChanges();
+        assertThat(shopManager.autocomplete("fl", 1).get(0).getWeight(), is(equalTo(52L)));
+
+        lights.setName("Lamps");
+        shopManager.saveCategory(lights);
+        productCardDao.delete("lamp");
+        invalidationBus.publish(EnumCachedEntity.PRODUCT, "lamp");
+        autocomplete.applyChanges();
+        assertThat(keys(shopManager.autocomplete("lam", 10)), contains(String.valueOf(lights.getId())));
+        assertThat(keys(shopManager.autocomplete("lihgt", 10)), is(empty()));
+    }
+
+    @Test
+    public void shouldRecommendProductsBoughtTogether() {
+        Category category = categoryDao.save(new Category("desc", "catname", null));
+        for (String sku : Arrays.asList("bell", "lamp", "fan", "led"))
+            productCardDao.save(new ProductCard(sku, sku + " name", 100, 100, 1, 1, sku + " desc", category));
+
+        buyTogether("a@bk.ru", "bell", "lamp", "fan");
+        buyTogether("b@bk.ru", "bell", "lamp");
+        buyTogether("c@bk.ru", "bell", "led");
+        //Not submitted order is not counted
+        shopManager.addToCart("d@bk.ru", "bell", 1);
+        shopManager.addToCart("d@bk.ru", "led", 1);
+        shopManager.checkout("d@bk.ru", "d@bk.ru", "Yuriy", "0503337178", "my address");
+
+        //Counted on submit
+        assertThat(skus(shopManager.getAlsoBought("bell", 10)), contains("lamp", "fan", "led"));
+        assertThat(skus(shopManager.getAlsoBought("bell", 1)), contains("lamp"));
+        assertThat(skus(shopManager.getAlsoBought("led", 10)), contains("bell"));
+        assertThat(shopManager.getAlsoBought("unknown", 10), is(empty()));
+
+        //The same after rebuild and in DB
+        recommendationEngine.rebuild();
+        assertThat(skus(shopManager.getAlsoBought("bell", 10)), contains("lamp", "fan", "led"));
+        assertThat(skus(shopManager.getAlsoBought("fan", 10)), containsInAnyOrder("bell", "lamp"));
+        assertThat(orderItemDao.findAlsoBought("bell", RecommendationEngine.SUBMITTED_STATUSES,
+                new PageRequest(0, 10)), contains("lamp", "fan", "led"));
+    }
+
+    @Test
+    public void shouldCountOnlyFirstProductsOfBigOrder() {
+        RecommendationEngine engine = new RecommendationEngine(orderItemDao, transactionManager, 2, 3, 2);
+        try {
+            engine.rebuild();
+            engine.orderSubmitted(Arrays.asList("a", "b", "c", "d"));
+            engine.orderSubmitted(Arrays.asList("a", "c", "c"));
+            engine.orderSubmitted(Collections.singletonList("a"));
+
+            assertThat(engine.getRelated("a", 10), contains("c", "b"));
+            assertThat(engine.getRelated("c", 10), contains("a", "b"));
+            assertThat(engine.getRelated("d", 10), is(empty()));
+
+            //Submitted orders are read in order of items too
+            Category category = categoryDao.save(new Category("desc", "catname", null));
+            for (String sku : Arrays.asList("w", "x", "y", "z"))
+                productCardDao.save(new ProductCard(sku, sku + " name", 100, 100, 1, 1, sku + " desc", category));
+            buyTogether("w@bk.ru", "z", "y", "x", "w");
+            engine.rebuild();
+            assertThat(engine.getRelated("z", 10), contains("y", "x"));
+            assertThat(engine.getRelated("w", 10), is(empty()));
+        } finally {
+            engine.stop();
+        }
+    }
+
+    @Test
+    public void shouldExpireNotSubmittedOrders() {
+        Category category = categoryDao.save(new Category("desc", "catname", null));
+        productCardDao.save(new ProductCard("bell", "bell signal", 100, 100, 1, 1, "bell desc", category));
+        shopManager.createOrder("kya@bk.ru", "Yuriy", "0503337178", "my address", 2, "bell");
+        shopManager.createOrder("kya@bk.ru", "Yuriy", "0503337178", "my address", 3, "bell");
+        shopManager.createOrder("other@bk.ru", "Yuriy", "0503337178", "my address", 1, "bell");
+        shopManager.submitOrder("other@bk.ru");
+        assertThat(reservationExpiry.size(), is(equalTo(2)));
+
+        LocalDateTime now = LocalDateTime.now();
+        assertThat(reservationExpiry.expire(now.plusMinutes(29)), is(equalTo(0)));
+        assertThat(reservationExpiry.expire(now.plusMinutes(31)), is(equalTo(2)));
+        assertThat(reservationExpiry.size(), is(equalTo(0)));
+
+        Customer customer = customerDao.findByEmail("kya@bk.ru");
+        assertThat(shopManager.getOrdersByCustomer(customer, CREATED), is(empty()));
+        assertThat(shopManager.getOrdersByCustomer(customer, CANCELLED).size(), is(equalTo(2)));
+        assertThat(shopManager.getOrdersByCustomer(customerDao.findByEmail("other@bk.ru")).get(0).getStatus(),
+                is(equalTo(SUBMITTED)));
+        assertThat(productCardDao.findBySku("bell").getAmount(), is(equalTo(99)));
+        assertThat(reservationExpiry.expire(now.plusMinutes(61)), is(equalTo(0)));
+    }
+
+    @Test
+    public void shouldRecoverReservationsFromDatabase() {
+        Category category = categoryDao.save(new Category("desc", "catname", null));
+        productCardDao.save(new ProductCard("bell", "bell signal", 100, 100, 1, 1, "bell desc", category));
+        Customer customer = customerDao.save(new Customer("kya@bk.ru", "Yuriy", true, "0503337178"));
+        OrderMain old = new OrderMain("my address", CREATED, customer);
+        old.setCreated(LocalDateTime.now().minusHours(2));
+        old = orderMainDao.save(old);
+        shopManager.createOrder("kya@bk.ru", "Yuriy", "0503337178", "my address", 2, "bell");
+        orderMainDao.save(new OrderMain("my address", DELIVERED, customer));
+
+        //Wheel of 4 ticks keeps 30 minutes for many turns
+        ReservationExpiry restarted = new ReservationExpiry(orderMainDao, 30, 1000, 4);
+        assertThat(restarted.recover(), is(equalTo(2)));
+
+        LocalDateTime now = LocalDateTime.now();
+        assertThat(restarted.expire(now), is(equalTo(1)));
+        assertThat(orderMainDao.findByOrderId(old.getOrderId()).getStatus(), is(equalTo(CANCELLED)));
+        assertThat(restarted.expire(now.plusMinutes(29)), is(equalTo(0)));
+        assertThat(restarted.expire(now.plusMinutes(31)), is(equalTo(1)));
+        assertThat(shopManager.getOrdersByCustomer(customer, CREATED), is(empty()));
+    }
+
+    @Test
+    public void shouldReturnTheSameOrderForRetriedKey() {
+        Category category = categoryDao.save(new Category("desc", "catname", null));
+        productCardDao.save(new ProductCard("bell", "bell signal", 100, 100, 1, 1, "bell desc", category));
+
+        OrderMain first = shopManager.createOrder("key-1", "kya@bk.ru", "Yuriy", "0503337178", "my address", 2, "bell");
+        sqlTracer.reset();
+        OrderMain retried = shopManager.createOrder("key-1", "kya@bk.ru", "Yuriy", "0503337178", "my address", 2, "bell");
+        assertThat(retried.getOrderId(), is(equalTo(first.getOrderId())));
+        assertThat(sqlTracer.getTop().stream().noneMatch(stats -> stats.getSql().toLowerCase().startsWith("insert")),
+                is(true));
+
+        OrderMain other = shopManager.createOrder("key-2", "kya@bk.ru", "Yuriy", "0503337178", "my address", 1, "bell");
+        assertThat(other.getOrderId(), is(not(equalTo(first.getOrderId()))));
+        Customer customer = customerDao.findByEmail("kya@bk.ru");
+        assertThat(shopManager.getOrdersByCustomer(customer).size(), is(equalTo(2)));
+
+        //Node without cache and filters finds the key in table after its claim fails
+        IdempotencyStore restarted = new IdempotencyStore(idempotencyKeyDao, 100, 60, 0.01, 60);
+        assertNull(restarted.find("key-1"));
+        assertNull(restarted.claim("key-1"));
+        assertThat(restarted.find("key-1"), is(equalTo(first.getOrderId())));
+
+        //Claimed key without order
+        LocalDateTime claimed = restarted.claim("key-3");
+        assertNotNull(claimed);
+        try {
+            shopManager.createOrder("key-3", "kya@bk.ru", "Yuriy", "0503337178", "my address", 1, "bell");
+            fail();
+        } catch (ValidationException e) {
+            //Order is being created by other call
+        }
+        restarted.release("key-3", claimed);
+        assertThat(shopManager.createOrder("key-3", "kya@bk.ru", "Yuriy", "0503337178", "my address", 1, "bell"),
+                is(notNullValue()));
+    }
+
+    @Test
+    public void shouldRollBackOrderOfKeyAndKeepKeyFree() throws Exception {
+        Category category = categoryDao.save(new Category("desc", "catname", null));
+        productCardDao.save(new ProductCard("bell", "bell signal", 100, 10, 1, 1, "bell desc", category));
+
+        //Items of order are not saved, after customer and order were saved
+        OrderItemDao failingDao = (OrderItemDao) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{OrderItemDao.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("save"))
+                        throw new IllegalStateException("Items are not saved");
+                    return method.invoke(orderItemDao, args);
+                });
+        ShopManager failing = new ShopManager(productCardDao, categoryDao, customerDao, orderMainDao, failingDao,
+                visualizationDao, attributeValueDao);
+        failing.setTransactionManager(transactionManager);
+        failing.setIdempotencyStore(new IdempotencyStore(idempotencyKeyDao, 100, 60, 0.01, 60));
+        try {
+            failing.createOrder("key-1", "kya@bk.ru", "Yuriy", "0503337178", "my address", 2, "bell");
+            fail();
+        } catch (IllegalStateException e) {
+            assertThat(customerDao.exists("kya@bk.ru"), is(false));
+            assertThat(orderMainDao.findByStatus(CREATED, new PageRequest(0, 10)).hasContent(), is(false));
+            assertNull(idempotencyKeyDao.findByIdempotencyKey("key-1"));
+        }
+        OrderMain order = shopManager.createOrder("key-1", "kya@bk.ru", "Yuriy", "0503337178", "my address", 2, "bell");
+        assertThat(shopManager.getOrdersByCustomer(customerDao.findByEmail("kya@bk.ru")).size(), is(equalTo(1)));
+
+        //Claim taken over after timeout: the first call can neither complete nor release it
+        IdempotencyStore store = new IdempotencyStore(idempotencyKeyDao, 100, 60, 0.01, 0);
+        LocalDateTime first = store.claim("key-2");
+        Thread.sleep(5);
+        LocalDateTime second = store.claim("key-2");
+        assertNotNull(second);
+        assertFalse(store.complete("key-2", first, order.getOrderId()));
+        store.release("key-2", first);
+        assertNotNull(idempotencyKeyDao.findByIdempotencyKey("key-2"));
+        assertTrue(store.complete("key-2", second, order.getOrderId()));
+        assertThat(store.find("key-2"), is(equalTo(order.getOrderId())));
+        assertNull(store.claim("key-2"));
+    }
+
+    @Test
+    public void shouldReleaseKeyOfNotCreatedOrder() {
+        Category category = categoryDao.save(new Category("desc", "catname", null));
+        productCardDao.save(new ProductCard("bell", "bell signal", 100, 10, 1, 1, "bell desc", category));
+
+        try {
+            shopManager.createOrder("key-1", "kya@bk.ru", "Yuriy", "0503337178", "my address", 20, "bell");
+            fail();
+        } catch (NoResultException e) {
+            //Not enough products
+        }
+        assertNull(idempotencyKeyDao.findByIdempotencyKey("key-1"));
+
+        OrderMain order = shopManager.createOrder("key-1", "kya@bk.ru", "Yuriy", "0503337178", "my address", 5, "bell");
+        assertThat(idempotencyKeyDao.findByIdempotencyKey("key-1").getOrderId(), is(equalTo(order.getOrderId())));
+
+        try {
+            shopManager.createOrder("", "kya@bk.ru", "Yuriy", "0503337178", "my address", 5, "bell");
+            fail();
+        } catch (ValidationException e) {
+            //Empty key
+        }
+    }
+
+    @Test
+    public void shouldNotifyInterestedCustomersWhenProductIsBackInStock() throws Exception {
+        Category category = categoryDao.save(new Category("desc", "catname", null));
+        ProductCard bell = productCardDao.save(new ProductCard("bell", "bell signal", 100, 5, 1, 1, "bell desc", category));
+        ProductCard lamp = productCardDao.save(new ProductCard("lamp", "desk lamp", 100, 5, 1, 1, "lamp desc", category));
+
+        //Buyer of the product, watcher and watcher without subscription
+        shopManager.createOrder("buyer@bk.ru", "Yuriy", "0503337178", "my address", 5, "bell");
+        shopManager.submitOrder("buyer@bk.ru");
+        customerDao.save(new Customer("watcher@bk.ru", "Watcher", true, "0503337178"));
+        customerDao.save(new Customer("silent@bk.ru", "Silent", false, "0503337178"));
+        shopManager.watchProduct("bell", "watcher@bk.ru");
+        shopManager.watchProduct("bell", "silent@bk.ru");
+        shopManager.watchProduct("bell", "watcher@bk.ru");
+        try {
+            shopManager.watchProduct("unknown", "watcher@bk.ru");
+            fail();
+        } catch (NoResultException e) {
+            //Product not exist
+        }
+        assertThat(productCardDao.findBySku("bell").getAmount(), is(equalTo(0)));
+
+        //Only amount from 0 to positive is restock
+        bell.setAmount(10);
+        shopManager.saveProductCard(bell);
+        lamp.setAmount(0);
+        shopManager.saveProductCard(lamp);
+        lamp.setAmount(3);
+        shopManager.saveProductCard(lamp);
+        bell.setAmount(20);
+        shopManager.saveProductCard(bell);
+
+        //Background thread may take rows first, rows locked by it are skipped here
+        long deadline = System.currentTimeMillis() + 5000;
+        while (notificationSender.getSent().size() < 2 && System.currentTimeMillis() < deadline) {
+            restockNotifier.fanOut();
+            restockNotifier.send();
+            sleepQuietly(20);
+        }
+        Set<String> emails = new HashSet<>();
+        for (Notification notification : notificationSender.getSent()) {
+            assertThat(notification.getSku(), is(equalTo("bell")));
+            emails.add(notification.getEmail());
+        }
+        assertThat(notificationSender.getSent().size(), is(equalTo(2)));
+        assertThat(emails, containsInAnyOrder("buyer@bk.ru", "watcher@bk.ru"));
+        assertThat(countRows("restock"), is(equalTo(0L)));
+        assertThat(countRows("notificationoutbox"), is(equalTo(2L)));
+        assertThat(restockNotifier.purge(LocalDateTime.now().plusMinutes(1)), is(equalTo(2)));
+    }
+
+    @Test
+    public void shouldNotifyByAnyNodeAboutInterestFromOtherNodes() throws Exception {
+        Category category = categoryDao.save(new Category("desc", "catname", null));
+        ProductCard bell = productCardDao.save(new ProductCard("bell", "bell signal", 100, 5, 1, 1, "bell desc", category));
+
+        //Node started before the interest was saved by the other node
+        RestockNotifier other = new RestockNotifier(dataSource, notificationSender, 100, 1000, 200);
+        shopManager.createOrder("buyer@bk.ru", "Yuriy", "0503337178", "my address", 5, "bell");
+        shopManager.submitOrder("buyer@bk.ru");
+        customerDao.save(new Customer("watcher@bk.ru", "Watcher", false, "0503337178"));
+        shopManager.watchProduct("bell", "watcher@bk.ru");
+        //Subscription after the watch
+        customerDao.save(new Customer("watcher@bk.ru", "Watcher", true, "0503337178"));
+
+        bell.setAmount(10);
+        shopManager.saveProductCard(bell);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (notificationSender.getSent().size() < 2 && System.currentTimeMillis() < deadline) {
+            other.fanOut();
+            other.send();
+            sleepQuietly(20);
+        }
+        Set<String> emails = new HashSet<>();
+        for (Notification notification : notificationSender.getSent())
+            emails.add(notification.getEmail());
+        assertThat(emails, containsInAnyOrder("buyer@bk.ru", "watcher@bk.ru"));
+        assertThat(notificationSender.getSent().size(), is(equalTo(2)));
+    }
+
+    @Test
+    public void shouldFindProductsByPriceRange() {
+        Category tv = categoryDao.save(new Category("desc", "tv", null));
+        Category lights = categoryDao.save(new Category("desc", "lights", null));
+        productCardDao.save(new ProductCard("tv-1", "tv", 500, 1, 1, 1, "desc", tv));
+        productCardDao.save(new ProductCard("tv-2", "tv", 300, 1, 1, 1, "desc", tv));
+        productCardDao.save(new ProductCard("tv-3", "tv", 300, 1, 1, 1, "desc", tv));
+        productCardDao.save(new ProductCard("tv-4", "tv", 900, 1, 1, 1, "desc", tv));
+        productCardDao.save(new ProductCard("lamp", "lamp", 400, 1, 1, 1, "desc", lights));
+
+        assertThat(skus(shopManager.findProductsByPrice(tv, 300, 500, 0, 10)), contains("tv-2", "tv-3", "tv-1"));
+        assertThat(skus(shopManager.findProductsByPrice(tv, 300, 500, 1, 2)), contains("tv-1"));
+        assertThat(skus(shopManager.findProductsByPrice(null, 301, 500, 0, 10)), contains("lamp", "tv-1"));
+        assertThat(shopManager.findProductsByPrice(tv, 500, 300, 0, 10), is(empty()));
+    }
+
+    @Test
+    public void shouldFindProductsByNumericAttributeRange() {
+        Category tv = categoryDao.save(new Category("desc", "tv", null));
+        AttributeName size = attributeNameDao.save(new AttributeName("screen size"));
+        AttributeName color = attributeNameDao.save(new AttributeName("color"));
+        String[][] products = {{"tv-1", "42"}, {"tv-2", "55,5 inch"}, {"tv-3", "65"}, {"tv-4", "50"}, {"tv-5", "big"}};
+        for (String[] product : products) {
+            ProductCard productCard = productCardDao.save(new ProductCard(product[0], "tv", 500, 1, 1, 1, "desc", tv));
+            attributeValueDao.save(new AttributeValue(product[1], size, productCard));
+            attributeValueDao.save(new AttributeValue("black", color, productCard));
+        }
+        numericAttributeIndex.rebuild();
+
+        assertThat(skus(shopManager.findProductsByAttributeRange("screen size", 50, Double.MAX_VALUE, 10)),
+                contains("tv-4", "tv-2", "tv-3"));
+        assertThat(skus(shopManager.findProductsByAttributeRange("screen size", 42, 55.5, 2)), contains("tv-1", "tv-4"));
+        assertThat(shopManager.findProductsByAttributeRange("color", 0, 100, 10), is(empty()));
+        assertThat(shopManager.findProductsByAttributeRange("weight", 0, 100, 10), is(empty()));
+
+        //Saved attribute is seen by the index, the same as without index
+        shopManager.saveAttributeValue(new AttributeValue("70", size, productCardDao.findBySku("tv-5")));
+        assertThat(skus(shopManager.findProductsByAttributeRange("screen size", 60, 100, 10)), contains("tv-3", "tv-5"));
+        ShopManager withoutIndex = new ShopManager(productCardDao, categoryDao, customerDao, orderMainDao, orderItemDao,
+                visualizationDao, attributeValueDao);
+        assertThat(skus(withoutIndex.findProductsByAttributeRange("screen size", 50, 100, 10)),
+                contains("tv-4", "tv-2", "tv-3", "tv-5"));
+
+        //Node without bus invalidates its own index
+        NumericAttributeIndex index = new NumericAttributeIndex(attributeValueDao);
+        index.rebuild();
+        ShopManager withoutBus = new ShopManager(productCardDao, categoryDao, customerDao, orderMainDao, orderItemDao,
+                visualizationDao, attributeValueDao);
+        withoutBus.setNumericAttributeIndex(index);
+        withoutBus.saveAttributeValue(new AttributeValue("80", size, productCardDao.findBySku("tv-1")));
+        assertThat(skus(withoutBus.findProductsByAttributeRange("screen size", 75, 100, 10)), contains("tv-1"));
+    }
+
+    @Test
+    public void shouldUseIndexesInPlansOfRepositoryFinders() throws Exception {
+        dataGenerator.generate(new DataSetSpec(7, 3, 6, 20000, 200, 4, 1, 5000, 3, 4, 1.0));
+        OrderMain order = orderMainDao.findByCustomer(customerDao.findByEmail("customer1@example.com")).get(0);
+        ProductCard product = orderItemDao.findByOrderMain(order).get(0).getProductCard();
+        Category category = product.getCategory();
+        Set<String> checked = new HashSet<>();
+
+        //Generator makes no idempotency keys and price rules
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("INSERT INTO idempotencykey (idempotencykey, created) " +
+                    "SELECT 'key-' || i, now() FROM generate_series(1, 5000) i");
+            statement.execute("INSERT INTO pricerule (id, productcard, minamount, discount) " +
+                    "SELECT i, 'SKU-' || i, 2, 500 FROM generate_series(1, 5000) i");
+            statement.execute("ANALYZE idempotencykey");
+            statement.execute("ANALYZE pricerule");
+        }
+
+        checkPlan(checked, "ProductCardDao.findBySku", "productcard_pkey", 1, () -> productCardDao.findBySku("SKU-1234"));
+        checkPlan(checked, "ProductCardDao.exists", "productcard_pkey", 1, () -> productCardDao.exists("SKU-1234"));
+        checkPlan(checked, "ProductCardDao.findBySkuIn", "productcard_pkey", 10,
+                () -> productCardDao.findBySkuIn(Arrays.asList("SKU-1", "SKU-2", "SKU-3")));
+        checkPlan(checked, "ProductCardDao.findByNameIgnoreCase", "productcard_upper_name_idx", 10,
+                () -> productCardDao.findByNameIgnoreCase("product 1234"));
+        checkPlan(checked, "ProductCardDao.findByProductDescriptionIgnoreCase", "productcard_upper_description_idx", 10,
+                () -> productCardDao.findByProductDescriptionIgnoreCase(product.getProductDescription()));
+        checkPlan(checked, "ProductCardDao.findByCategory", "productcard_category_price_idx", 1000,
+                () -> productCardDao.findByCategory(category));
+        checkPlan(checked, "ProductCardDao.findByCategory", "productcard_category_price_idx", 1000,
+                () -> productCardDao.findByCategory(category, new Sort(Sort.Direction.DESC, "likes")));
+        checkPlan(checked, "ProductCardDao.findSkusByCategory", "productcard_category_price_idx", 1000,
+                () -> productCardDao.findSkusByCategory(category));
+        checkPlan(checked, "ProductCardDao.findByNameStartingWithIgnoreCaseOrderByLikesDesc", "productcard_upper_name_idx", 100,
+                () -> productCardDao.findByNameStartingWithIgnoreCaseOrderByLikesDesc("product 1234", new PageRequest(0, 10)));
+        checkPlan(checked, "ProductCardDao.findByPriceBetweenOrderByPriceAscSkuAsc", "productcard_price_idx", 100,
+                () -> productCardDao.findByPriceBetweenOrderByPriceAscSkuAsc(1000, 1500, new PageRequest(0, 20)));
+        checkPlan(checked, "ProductCardDao.findByCategoryAndPriceBetweenOrderByPriceAscSkuAsc", "productcard_category_price_idx", 100,
+                () -> productCardDao.findByCategoryAndPriceBetweenOrderByPriceAscSkuAsc(category, 1000, 50000,
+                        new PageRequest(0, 20)));
+
+        checkPlan(checked, "OrderItemDao.findByOrderMain", "orderitem_ordermain_idx", 100, () -> orderItemDao.findByOrderMain(order));
+        checkPlan(checked, "OrderItemDao.findByProductCard", "orderitem_productcard_idx", 1000,
+                () -> orderItemDao.findByProductCard(product));
+        checkPlan(checked, "OrderItemDao.sumAmountsBySkuIn", "orderitem_productcard_idx", 1000,
+                () -> orderItemDao.sumAmountsBySkuIn(Arrays.asList("SKU-1", "SKU-2")));
+        checkPlan(checked, "OrderItemDao.findAlsoBought", "orderitem_productcard_idx", 10,
+                () -> orderItemDao.findAlsoBought(product.getSku(), RecommendationEngine.SUBMITTED_STATUSES, new PageRequest(0, 10)));
+
+        checkPlan(checked, "AttributeValueDao.findByProductCard", "attributevalue_productcard_idx", 10,
+                () -> attributeValueDao.findByProductCard(product));
+        checkPlan(checked, "AttributeValueDao.findByAttributeName", "attributevalue_attributename_idx", 2000,
+                () -> attributeValueDao.findByAttributeName(new AttributeName("attribute3")));
+
+        checkPlan(checked, "OrderMainDao.findByCustomer", "ordermain_customer_status_idx", 10,
+                () -> orderMainDao.findByCustomer(order.getCustomer()));
+        checkPlan(checked, "OrderMainDao.findByOrderId", "ordermain_pkey", 1,
+                () -> orderMainDao.findByOrderId(order.getOrderId()));
+        checkPlan(checked, "OrderMainDao.findByCustomerAndStatus", "ordermain_customer_status_idx", 10,
+                () -> orderMainDao.findByCustomerAndStatus(order.getCustomer(), CREATED));
+        checkPlan(checked, "OrderMainDao.findByStatus", "ordermain_pkey", 21,
+                () -> orderMainDao.findByStatus(CREATED, new PageRequest(0, 20, Sort.Direction.ASC, "orderId")));
+        checkPlan(checked, "OrderMainDao.findCreatedByStatus", "ordermain_open_status_idx", 5000,
+                () -> orderMainDao.findCreatedByStatus(CREATED));
+
+        checkPlan(checked, "VisualizationDao.findByProductCard", "visualization_productcard_idx", 10,
+                () -> visualizationDao.findByProductCard(product));
+        checkPlan(checked, "VisualizationDao.findByProductCardSkuIn", "visualization_productcard_idx", 10,
+                () -> visualizationDao.findByProductCardSkuIn(Arrays.asList("SKU-1", "SKU-2", "SKU-3")));
+        checkPlan(checked, "VisualizationDao.findUrlsByProductCardSkuIn", "visualization_productcard_idx", 10,
+                () -> visualizationDao.findUrlsByProductCardSkuIn(Arrays.asList("SKU-1", "SKU-2", "SKU-3")));
+
+        long version = catalogChangeDao.findCurrentVersion();
+        checkPlan(checked, "CatalogChangeDao.findChangedSince", "catalogchange_txid_idx", 100,
+                () -> catalogChangeDao.findChangedSince(version));
+        checkPlan(checked, "CatalogChangeDao.findLastTxidBefore", "catalogchange_created_idx", 1,
+                () -> catalogChangeDao.findLastTxidBefore(LocalDateTime.now().minusDays(1)));
+
+        checkPlan(checked, "CustomerDao.findByEmail", "customer_pkey", 1,
+                () -> customerDao.findByEmail("customer1@example.com"));
+        checkPlan(checked, "CustomerDao.exists", "customer_pkey", 1, () -> customerDao.exists("customer1@example.com"));
+        checkPlan(checked, "IdempotencyKeyDao.findByIdempotencyKey", "idempotencykey_pkey", 1,
+                () -> idempotencyKeyDao.findByIdempotencyKey("key-1"));
+        checkPlan(checked, "PriceRuleDao.findById", "pricerule_pkey", 1, () -> priceRuleDao.findById(1));
+
+        //Categories are few, their table may be read whole
+        checkPlan(checked, "CategoryDao.findById", null, 1, () -> categoryDao.findById(category.getId()));
+        checkPlan(checked, "CategoryDao.findByNameIgnoreCase", null, 10,
+                () -> categoryDao.findByNameIgnoreCase(category.getName()));
+        checkPlan(checked, "CategoryDao.findByDescriptionIgnoreCase", null, 10,
+                () -> categoryDao.findByDescriptionIgnoreCase(category.getDescription()));
+        checkPlan(checked, "CategoryDao.findByCategory", null, 10, () -> categoryDao.findByCategory(category));
+
+        //New finder of any repository must get a plan check, or be added to full reads
+        ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(false) {
+            @Override
+            protected boolean isCandidateComponent(AnnotatedBeanDefinition definition) {
+                return definition.getMetadata().isInterface();
+            }
+        };
+        scanner.addIncludeFilter(new AssignableTypeFilter(Repository.class));
+        Set<BeanDefinition> repositories = scanner.findCandidateComponents("com.smarthouse.repository");
+        assertThat(repositories.size(), is(greaterThan(10)));
+        for (BeanDefinition repository : repositories) {
+            Class<?> dao = Class.forName(repository.getBeanClassName());
+            for (Method method : dao.getDeclaredMethods())
+                if (!method.getName().equals("save") && !method.getName().equals("delete")
+                        && !method.isAnnotationPresent(Modifying.class))
+                    assertTrue(dao.getSimpleName() + "." + method.getName() + " has no plan check",
+                            checked.contains(dao.getSimpleName() + "." + method.getName())
+                                    || FULL_READS.contains(method.getName()));
+        }
+    }
+
+    @Test
+    public void shouldListEveryEntityInPersistenceUnit() {
+        ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(false);
+        scanner.addIncludeFilter(new AnnotationTypeFilter(Entity.class));
+        Set<String> entities = new HashSet<>();
+        for (BeanDefinition candidate : scanner.findCandidateComponents("com.smarthouse.pojo"))
+            entities.add(candidate.getBeanClassName());
+
+        Set<String> managed = new HashSet<>();
+        entityManagerFactory.getMetamodel().getEntities().forEach(type -> managed.add(type.getJavaType().getName()));
+        assertThat(managed, is(entities));
+    }
+
+    @Test
+    public void shouldTraceStatementsOfShopManager() {
+        Category category = categoryDao.save(new Category("desc", "catname", null));
+        productCardDao.save(new ProductCard("bell", "bell signal", 100, 100, 1, 1, "bell desc", category));
+        sqlTracer.reset();
+        shopManager.createOrder("kya@bk.ru", "Yuriy", "0503337178", "my address", 2, "bell");
+
+        SqlStats insert = sqlTracer.getTop().stream()
+                .filter(stats -> stats.getSql().toLowerCase().startsWith("insert into ordermain"))
+                .findFirst().orElse(null);
+        assertNotNull(insert);
+        assertThat(insert.getCount(), is(equalTo(1L)));
+        assertThat(insert.getShape(), containsString("String"));
+    }
+
+    @Test
+    public void shouldNormalizeTracedStatementsAndFindOperation() throws Exception {
+        //Every statement is slow, operation is method of this test
+        SqlTracer tracer = new SqlTracer(0, 0, 5, ShopManagerTest.class.getName());
+        DataSource traced = new TracingDataSource(dataSource, tracer);
+        productCardDao.save(new ProductCard("bell", "bell signal", 100, 100, 1, 1, "bell desc", null));
+
+        try (Connection connection = traced.getConnection()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeQuery("SELECT count(*) FROM productcard WHERE sku IN ('a', 'b''c') AND amount > 5").close();
+                statement.executeQuery("SELECT count(*) FROM productcard WHERE sku IN ('d')   AND amount > 10").close();
+            }
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "UPDATE productcard SET amount = ? WHERE sku = ?")) {
+                for (int i = 0; i < 3; i++) {
+                    statement.setInt(1, i);
+                    statement.setString(2, "bell");
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+        }
+
+        SqlStats select = tracer.getStats("SELECT count(*) FROM productcard WHERE sku IN (?, ?) AND amount > ?");
+        assertThat(select.getSql(), is(equalTo("SELECT count(*) FROM productcard WHERE sku in (?...) AND amount > ?")));
+        assertThat(select.getCount(), is(equalTo(2L)));
+        assertThat(select.getShape(), is(equalTo("()")));
+        assertThat(select.getOperations(), contains("shouldNormalizeTracedStatementsAndFindOperation"));
+
+        SqlStats update = tracer.getStats("UPDATE productcard SET amount = ? WHERE sku = ?");
+        assertThat(update.getShape(), is(equalTo("(Int, String) x 3")));
+        assertThat(tracer.getTop().get(0).getCount(), is(greaterThan(0L)));
+        assertThat(productCardDao.findBySku("bell").getAmount(), is(equalTo(2)));
+    }
+
+    @Test
+    public void shouldGenerateTheSameDataSetFromSeed() throws Exception {
+        DataSetSpec spec = new DataSetSpec(42, 2, 3, 500, 10, 3, 2, 100, 3, 4, 1.0);
+        Map<String, Long> rows = dataGenerator.generate(spec);
+        assertThat(rows.get("category"), is(equalTo(12L)));
+        assertThat(rows.get("productcard"), is(equalTo(500L)));
+        assertThat(rows.get("attributevalue"), is(equalTo(1500L)));
+        assertThat(rows.get("visualization"), is(equalTo(1000L)));
+        assertThat(rows.get("customer"), is(equalTo(100L)));
+        for (Map.Entry<String, Long> table : rows.entrySet())
+            assertThat(countRows(table.getKey()), is(equalTo(table.getValue())));
+        int first = categoryDao.findByCategory(null).get(0).getId();
+        assertThat(categoryDao.findById(first + 11).getCategory().getId(), is(equalTo(first + 2)));
+        assertThat(productCardDao.findBySku("SKU-7").getCategory().getId(), is(greaterThan(first + 2)));
+
+        //Zipf popularity: the most popular product takes a big part of all items
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(
+                     "SELECT max(c) FROM (SELECT count(*) c FROM orderitem GROUP BY productcard) t")) {
+            rs.next();
+            assertThat(rs.getLong(1) * 10, is(greaterThan(rows.get("orderitem"))));
+        }
+        String checksum = dataSetChecksum();
+
+        //Generated ids are not given to new entities
+        int saved = categoryDao.save(new Category("desc", "name", null)).getId();
+        assertThat(saved, either(lessThan(first)).or(greaterThan(first + 11)));
+
+        try {
+            dataGenerator.generate(spec);
+            fail("Data set must not be generated into not empty tables");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), containsString("empty"));
+        }
+
+        dbRecreator.resetTables();
+        assertThat(dataGenerator.generate(spec), is(equalTo(rows)));
+        assertThat(dataSetChecksum(), is(equalTo(checksum)));
+    }
+
     @Test
     public void shouldCheckRightValidationOfOrderCreation() {
         Category category = categoryDao.save(new Category("desc", "catname", null));
@@ -126,9 +1413,9 @@ public class ShopManagerTest {
         Customer customer = new Customer("anniya@bk.ru", "Yuriy", false, "7585885");
         customerDao.save(customer);
 
-        OrderMain orderMain1 = new OrderMain("1OrderAddress", 1, customer);
-        OrderMain orderMain2 = new OrderMain("2OrderAddress", 1, customer);
-        OrderMain orderMain3 = new OrderMain("3OrderAddress", 1, customer);
+        OrderMain orderMain1 = new OrderMain("1OrderAddress", CREATED, customer);
+        OrderMain orderMain2 = new OrderMain("2OrderAddress", CREATED, customer);
+        OrderMain orderMain3 = new OrderMain("3OrderAddress", CREATED, customer);
 
         //Save to DB
         orderMainDao.save(orderMain1);
@@ -145,12 +1432,53 @@ public class ShopManagerTest {
         }
     }
 
+    @Test
+    public void shouldGetOrdersByCustomerAndStatus() {
+        Customer customer = customerDao.save(new Customer("anniya@bk.ru", "Yuriy", false, "7585885"));
+        orderMainDao.save(new OrderMain("1OrderAddress", CREATED, customer));
+        orderMainDao.save(new OrderMain("2OrderAddress", SUBMITTED, customer));
+        orderMainDao.save(new OrderMain("3OrderAddress", CREATED, customer));
+
+        List<OrderMain> created = shopManager.getOrdersByCustomer(customer, CREATED);
+        assertThat(created.size(), is(equalTo(2)));
+        for (OrderMain o : created)
+            assertThat(o.getStatus(), is(equalTo(CREATED)));
+
+        List<OrderMain> firstPage = shopManager.getOrdersByStatus(CREATED, 0, 1);
+        List<OrderMain> secondPage = shopManager.getOrdersByStatus(CREATED, 1, 1);
+        assertThat(firstPage.get(0).getAddress(), is(equalTo("1OrderAddress")));
+        assertThat(secondPage.get(0).getAddress(), is(equalTo("3OrderAddress")));
+        assertThat(shopManager.getOrdersByStatus(CREATED, 2, 1).isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldChangeStatusOfManyOrders() {
+        Customer customer = customerDao.save(new Customer("anniya@bk.ru", "Yuriy", false, "7585885"));
+        OrderMain orderMain1 = orderMainDao.save(new OrderMain("1OrderAddress", SUBMITTED, customer));
+        OrderMain orderMain2 = orderMainDao.save(new OrderMain("2OrderAddress", SUBMITTED, customer));
+        OrderMain orderMain3 = orderMainDao.save(new OrderMain("3OrderAddress", CREATED, customer));
+
+        int updated = shopManager.changeOrdersStatus(
+                Arrays.asList(orderMain1.getOrderId(), orderMain2.getOrderId(), orderMain3.getOrderId()),
+                SUBMITTED, PROCESSING);
+
+        assertThat(updated, is(equalTo(2)));
+        assertThat(orderMainDao.findByOrderId(orderMain1.getOrderId()).getStatus(), is(equalTo(PROCESSING)));
+        assertThat(orderMainDao.findByOrderId(orderMain2.getOrderId()).getStatus(), is(equalTo(PROCESSING)));
+        assertThat(orderMainDao.findByOrderId(orderMain3.getOrderId()).getStatus(), is(equalTo(CREATED)));
+    }
+
+    @Test(expected = ValidationException.class)
+    public void shouldNotChangeStatusOfDeliveredOrders() {
+        shopManager.changeOrdersStatus(Collections.singletonList(1), DELIVERED, CREATED);
+    }
+
     @Test
     public void shouldGetRealItemOrdersByOrderMain() {
         Category category = categoryDao.save(new Category("desc", "name", null));
         ProductCard productCard = productCardDao.save(new ProductCard("111", "name", 123, 1, 1, 1, "decs", category));
         Customer customer = customerDao.save(new Customer("anniya@bk.ru", "Yuriy", false, "7585885"));
-        OrderMain orderMain = orderMainDao.save(new OrderMain("OrderAddress", 1, customer));
+        OrderMain orderMain = orderMainDao.save(new OrderMain("OrderAddress", CREATED, customer));
         OrderItem orderItem1 = orderItemDao.save(new OrderItem(5, 555, productCard, orderMain));
         OrderItem orderItem2 = orderItemDao.save(new OrderItem(6, 555, productCard, orderMain));
         OrderItem orderItem3 = orderItemDao.save(new OrderItem(7, 555, productCard, orderMain));
@@ -175,7 +1503,7 @@ public class ShopManagerTest {
         Category category = categoryDao.save(new Category("desc", "name", null));
         ProductCard productCard = productCardDao.save(new ProductCard("111", "name", 123, 1, 1, 1, "decs", category));
         Customer customer = customerDao.save(new Customer("anniya@bk.ru", "Yuriy", false, "7585885"));
-        OrderMain orderMain = orderMainDao.save(new OrderMain("OrderAddress", 1, customer));
+        OrderMain orderMain = orderMainDao.save(new OrderMain("OrderAddress", CREATED, customer));
         OrderItem orderItem1 = orderItemDao.save(new OrderItem(5, 555, productCard, orderMain));
         OrderItem orderItem2 = orderItemDao.save(new OrderItem(6, 555, productCard, orderMain));
         OrderItem orderItem3 = orderItemDao.save(new OrderItem(7, 555, productCard, orderMain));
@@ -195,6 +1523,56 @@ public class ShopManagerTest {
         }
     }
 
+    @Test
+    public void shouldAggregateSalesInDb() {
+        Category category = categoryDao.save(new Category("desc", "catname", null));
+        productCardDao.save(new ProductCard("bell", "bell signal", 100, 100, 1, 1, "bell desc", category));
+        productCardDao.save(new ProductCard("ring", "ring signal", 10, 50, 1, 1, "bell desc", category));
+        shopManager.createOrder("kya@bk.ru", "Yuriy", "0503337178", "my address", 3, "bell");
+        shopManager.createOrder("kya@bk.ru", "Yuriy", "0503337178", "my address", 2, "bell");
+        shopManager.createOrder("kya@bk.ru", "Yuriy", "0503337178", "my address", 5, "ring");
+        shopManager.submitOrder("kya@bk.ru");
+        //Not submitted order is not a sale
+        shopManager.createOrder("kya@bk.ru", "Yuriy", "0503337178", "my address", 1, "ring");
+
+        LocalDateTime from = LocalDate.now().atStartOfDay();
+        LocalDateTime to = from.plusDays(1);
+
+        List<SalesTotal> bySku = salesAnalytics.getSalesBySku(from, to);
+        assertThat(bySku.size(), is(equalTo(2)));
+        assertThat(bySku.get(0).getKey(), is(equalTo("bell")));
+        assertThat(bySku.get(0).getAmount(), is(equalTo(5L)));
+        assertThat(bySku.get(0).getRevenue(), is(equalTo(500L)));
+        assertThat(bySku.get(1).getRevenue(), is(equalTo(50L)));
+
+        List<SalesTotal> byCategory = salesAnalytics.getSalesByCategory(from, to);
+        assertThat(byCategory.size(), is(equalTo(1)));
+        assertThat(byCategory.get(0).getName(), is(equalTo("catname")));
+        assertThat(byCategory.get(0).getRevenue(), is(equalTo(550L)));
+
+        List<SalesTotal> byDay = salesAnalytics.getSalesByDay(LocalDate.now(), LocalDate.now().plusDays(1));
+        assertThat(byDay.size(), is(equalTo(1)));
+        assertThat(byDay.get(0).getKey(), is(equalTo(LocalDate.now().toString())));
+        assertThat(byDay.get(0).getAmount(), is(equalTo(10L)));
+
+        assertThat(salesAnalytics.getSalesBySku(to, to.plusDays(1)).isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldAggregateOrderItemsInMemory() {
+        ProductCard bell = new ProductCard("bell", "bell signal", 100, 100, 1, 1, "bell desc", null);
+        ProductCard ring = new ProductCard("ring", "ring signal", 10, 50, 1, 1, "bell desc", null);
+        List<OrderItem> items = new ArrayList<>();
+        for (int i = 0; i < 50000; i++)
+            items.add(new OrderItem(1, i % 2 == 0 ? 100 : 10, i % 2 == 0 ? bell : ring, null));
+
+        Map<String, SalesTotal> bySku = salesAnalytics.aggregate(items, oi -> oi.getProductCard().getSku());
+
+        assertThat(bySku.get("bell").getAmount(), is(equalTo(25000L)));
+        assertThat(bySku.get("bell").getRevenue(), is(equalTo(2500000L)));
+        assertThat(bySku.get("ring").getRevenue(), is(equalTo(250000L)));
+    }
+
     @Test
     public void shouldCheckCorrectionOfSearchAllProductsByDifferCriteria() throws Exception {
 
@@ -366,6 +1744,135 @@ public class ShopManagerTest {
         assertThat(visualization3.getUrl(), is(equalTo("3url")));
     }
 
+    @Test
+    public void shouldGetVisualListOfManyProductsGroupedByType() throws Exception {
+        Category category = categoryDao.save(new Category("desc", "name", null));
+        ProductCard productCard1 = productCardDao.save(new ProductCard("111", "1name", 2222, 34, 45, 4, "xxx", category));
+        ProductCard productCard2 = productCardDao.save(new ProductCard("222", "2name", 2222, 34, 45, 4, "xxx", category));
+        ProductCard productCard3 = productCardDao.save(new ProductCard("333", "3name", 2222, 34, 45, 4, "xxx", category));
+
+        visualizationDao.save(new Visualization(1, "1url", productCard1));
+        visualizationDao.save(new Visualization(2, "2url", productCard1));
+        visualizationDao.save(new Visualization(2, "3url", productCard1));
+        visualizationDao.save(new Visualization(1, "4url", productCard2));
+
+        Map<String, Map<Integer, List<Visualization>>> visualizations =
+                shopManager.getVisualListByProducts(Arrays.asList(productCard1, productCard2, productCard3));
+
+        assertThat(visualizations.keySet(), contains("111", "222", "333"));
+        assertThat(visualizations.get("111").get(2).size(), is(equalTo(2)));
+        assertThat(visualizations.get("111").get(1).get(0).getUrl(), is(equalTo("1url")));
+        assertThat(visualizations.get("222").get(1).get(0).getUrl(), is(equalTo("4url")));
+        assertThat(visualizations.get("333").isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldCacheMediaManifestsOfProducts() throws Exception {
+        mediaResolver.clear();
+        Category category = categoryDao.save(new Category("desc", "name", null));
+        ProductCard productCard1 = productCardDao.save(new ProductCard("111", "1name", 2222, 34, 45, 4, "xxx", category));
+        ProductCard productCard2 = productCardDao.save(new ProductCard("222", "2name", 2222, 34, 45, 4, "xxx", category));
+
+        visualizationDao.save(new Visualization(1, "main", productCard1));
+        visualizationDao.save(new Visualization(2, "thumb", productCard1));
+        visualizationDao.save(new Visualization(1, "main2", productCard2));
+
+        Map<String, MediaManifest> manifests = mediaResolver.getManifests(Arrays.asList(productCard1, productCard2));
+        assertThat(manifests.get("111").getPrimaryUrl(), is(equalTo("main")));
+        assertThat(manifests.get("111").getThumbnailUrl(), is(equalTo("thumb")));
+        assertThat(manifests.get("222").getThumbnailUrl(), is(equalTo("main2")));
+
+        //Manifest is taken from cache until it is evicted
+        visualizationDao.save(new Visualization(2, "thumb2", productCard2));
+        assertThat(mediaResolver.getManifest(productCard2).getThumbnailUrl(), is(equalTo("main2")));
+        mediaResolver.evict("222");
+        assertThat(mediaResolver.getManifest(productCard2).getThumbnailUrl(), is(equalTo("thumb2")));
+    }
+
+    @Test
+    public void shouldInvalidateCachesOnSaveOfAttributesAndVisualizations() {
+        mediaResolver.clear();
+        Category category = categoryDao.save(new Category("desc", "name", null));
+        ProductCard productCard = productCardDao.save(new ProductCard("111", "1name", 2222, 34, 45, 4, "xxx", category));
+        AttributeName color = attributeNameDao.save(new AttributeName("color"));
+        visualizationDao.save(new Visualization(1, "main", productCard));
+        catalogSnapshotManager.rebuild();
+        assertThat(mediaResolver.getManifest(productCard).getThumbnailUrl(), is(equalTo("main")));
+        assertThat(catalogSnapshotManager.findAttributes("111").isEmpty(), is(true));
+
+        shopManager.saveVisualization(new Visualization(2, "thumb", productCard));
+        shopManager.saveAttributeValue(new AttributeValue("red", color, productCard));
+
+        //Snapshot gives nothing for changed product until rebuild, cache of manifests is evicted
+        assertThat(catalogSnapshotManager.findVisualizations("111"), is(nullValue()));
+        assertThat(catalogSnapshotManager.findAttributes("111"), is(nullValue()));
+        assertThat(mediaResolver.getManifest(productCard).getThumbnailUrl(), is(equalTo("thumb")));
+
+        catalogSnapshotManager.rebuild();
+        assertThat(catalogSnapshotManager.findAttributes("111").get("color"), is(equalTo("red")));
+        assertThat(catalogSnapshotManager.findVisualizations("111").size(), is(equalTo(2)));
+    }
+
+    @Test
+    public void shouldEvictMediaManifestOnOtherNode() throws Exception {
+        Category category = categoryDao.save(new Category("desc", "name", null));
+        ProductCard productCard = productCardDao.save(new ProductCard("111", "1name", 2222, 34, 45, 4, "xxx", category));
+        visualizationDao.save(new Visualization(1, "main", productCard));
+
+        //Two nodes with own caches and one transport
+        LocalInvalidationTransport transport = new LocalInvalidationTransport();
+        MediaResolver resolver1 = new MediaResolver(visualizationDao, 1, 2, 100);
+        MediaResolver resolver2 = new MediaResolver(visualizationDao, 1, 2, 100);
+        InvalidationBus bus1 = new InvalidationBus(transport);
+        InvalidationBus bus2 = new InvalidationBus(transport);
+        bus1.addListener(resolver1);
+        bus2.addListener(resolver2);
+        bus1.start();
+        bus2.start();
+
+        assertThat(resolver2.getManifest(productCard).getThumbnailUrl(), is(equalTo("main")));
+        visualizationDao.save(new Visualization(2, "thumb", productCard));
+        assertThat(resolver2.getManifest(productCard).getThumbnailUrl(), is(equalTo("main")));
+
+        bus1.publish(EnumCachedEntity.VISUALIZATION, "111");
+
+        assertThat(resolver2.getManifest(productCard).getThumbnailUrl(), is(equalTo("thumb")));
+        bus1.stop();
+    }
+
+    @Test
+    public void shouldSendInvalidationThroughPostgresNotify() throws Exception {
+        final List<String> received = new CopyOnWriteArrayList<>();
+        InvalidationBus sender = new InvalidationBus(new PgNotifyTransport(dataSource, "test_invalidation", 50));
+        InvalidationBus receiver = new InvalidationBus(new PgNotifyTransport(dataSource, "test_invalidation", 50));
+        receiver.addListener(new InvalidationListener() {
+            @Override
+            public void invalidate(EnumCachedEntity type, Collection<String> keys) {
+                for (String key : keys)
+                    received.add(type + ":" + key);
+            }
+
+            @Override
+            public void invalidateAll() {
+            }
+        });
+
+        receiver.start();
+        try {
+            //Wait for LISTEN of receiver
+            Thread.sleep(500);
+            sender.publish(EnumCachedEntity.PRODUCT, Arrays.asList("bell", "ring"));
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (received.size() < 2 && System.currentTimeMillis() < deadline)
+                Thread.sleep(50);
+
+            assertThat(received, contains("PRODUCT:bell", "PRODUCT:ring"));
+        } finally {
+            receiver.stop();
+        }
+    }
+
     @Test
     public void mustCorrectGetAttrValuesByProduct() throws Exception {
         Category category = new Category("desc", "name", null);
@@ -436,7 +1943,7 @@ public class ShopManagerTest {
         productCardDao.save(productCard);
 
         List<ProductCard> productCards = shopManager.sortProductCard(null, SORT_BY_POPULARITY);
-        assertThat(productCards.get(3).getLikes(), is(equalTo(4)));
+        assertThat(productCards.get(0).getLikes(), is(equalTo(4)));
         for(ProductCard p: productCards)
             assertThat(p.getLikes(), oneOf(1,2,3,4));
     }
@@ -461,7 +1968,7 @@ public class ShopManagerTest {
         productCardDao.save(productCard);
 
         List<ProductCard> productCards = shopManager.sortProductCard(category, SORT_BY_POPULARITY);
-        assertThat(productCards.get(2).getLikes(), is(equalTo(3)));
+        assertThat(productCards.get(0).getLikes(), is(equalTo(3)));
         for(ProductCard p: productCards)
             assertThat(p.getLikes(), oneOf(1,2,3));
     }
@@ -516,6 +2023,231 @@ public class ShopManagerTest {
             assertThat(p.getDislikes(), oneOf(1,2,3));
     }
 
+    @Test
+    public void shouldReadProductsFromCatalogSnapshot() throws Exception {
+        Category category = categoryDao.save(new Category("desc", "name", null));
+        productCardDao.save(new ProductCard("bell", "bell signal", 1234, 100, 1, 2, "signal desc", category));
+        productCardDao.save(new ProductCard("ring", "ring signal", 555, 50, 3, 4, "signal desc", category));
+        productCardDao.save(new ProductCard("\u043b\u0430\u043c\u043f\u0430", "lamp", 10, 5, 0, 0, null, null));
+        catalogSnapshotManager.rebuild();
+
+        CatalogSnapshot snapshot = catalogSnapshotManager.getSnapshot();
+        assertThat(snapshot.size(), is(equalTo(3)));
+
+        ProductView ring = snapshot.find("ring");
+        assertThat(ring.getName(), is(equalTo("ring signal")));
+        assertThat(ring.getPrice(), is(equalTo(555)));
+        assertThat(ring.getAmount(), is(equalTo(50)));
+        assertThat(ring.getLikes(), is(equalTo(3)));
+        assertThat(ring.getDislikes(), is(equalTo(4)));
+        assertThat(ring.getCategoryId(), is(equalTo(category.getId())));
+        assertThat(ring.getProductDescription(), is(equalTo("signal desc")));
+
+        ProductView lamp = snapshot.find("\u043b\u0430\u043c\u043f\u0430");
+        assertThat(lamp.getCategoryId(), is(equalTo(0)));
+        assertThat(lamp.getProductDescription(), is(nullValue()));
+        assertThat(snapshot.find("unknown"), is(nullValue()));
+
+        ProductView cursor = snapshot.cursor();
+        Set<String> skus = new HashSet<>();
+        for (int i = 0; i < snapshot.size(); i++)
+            skus.add(cursor.moveTo(i).getSku());
+        assertThat(skus, containsInAnyOrder("bell", "ring", "\u043b\u0430\u043c\u043f\u0430"));
+
+        //Snapshot can be saved and mapped from file
+        Path file = Files.createTempFile("catalog", ".snapshot");
+        try {
+            snapshot.write(file);
+            CatalogSnapshot mapped = CatalogSnapshot.open(file);
+            assertThat(mapped.byteSize(), is(equalTo(snapshot.byteSize())));
+            assertThat(mapped.find("bell").getPrice(), is(equalTo(1234)));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void shouldStartFromCatalogSnapshotFile() throws Exception {
+        Category root = categoryDao.save(new Category("root desc", "root", null));
+        Category sub = categoryDao.save(new Category("sub desc", "sub", root));
+        ProductCard bell = productCardDao.save(new ProductCard("bell", "bell signal", 1234, 100, 1, 2, "bell desc", sub));
+        ProductCard ring = productCardDao.save(new ProductCard("ring", "ring signal", 555, 50, 3, 4, "ring desc", sub));
+        AttributeName color = attributeNameDao.save(new AttributeName("color"));
+        AttributeName weight = attributeNameDao.save(new AttributeName("weight"));
+        attributeValueDao.save(new AttributeValue("red", color, bell));
+        attributeValueDao.save(new AttributeValue("2kg", weight, bell));
+        visualizationDao.save(new Visualization(1, "bell.png", bell));
+        visualizationDao.save(new Visualization(2, "bell-small.png", bell));
+
+        Path dir = Files.createTempDirectory("catalog");
+        Path file = dir.resolve("catalog.snapshot");
+        CatalogSnapshotManager first = snapshotManager(file);
+        CatalogSnapshotManager second = snapshotManager(file);
+        CatalogSnapshotManager third = snapshotManager(file);
+        try {
+            first.start();
+            assertTrue(Files.exists(file));
+            CatalogSnapshot built = first.getSnapshot();
+            assertTrue(catalogChangeDao.findChangedSince(built.getVersion()).isEmpty());
+            assertThat(built.categoryCount(), is(equalTo(2)));
+
+            CategoryView view = first.findCategory(sub.getId());
+            assertThat(view.getName(), is(equalTo("sub")));
+            assertThat(view.getDescription(), is(equalTo("sub desc")));
+            assertThat(view.getParentId(), is(equalTo(root.getId())));
+            assertThat(first.findCategory(root.getId()).getParentId(), is(equalTo(0)));
+
+            Map<String, String> attributes = first.findAttributes("bell");
+            assertThat(attributes.get("color"), is(equalTo("red")));
+            assertThat(attributes.get("weight"), is(equalTo("2kg")));
+            assertThat(first.findAttributes("ring").isEmpty(), is(true));
+            assertThat(first.findAttributes("unknown"), is(nullValue()));
+
+            List<Object[]> images = first.findVisualizations("bell");
+            assertThat(images.size(), is(equalTo(2)));
+            assertThat(images.get(0)[2], is(equalTo("bell.png")));
+            assertThat(images.get(1)[1], is(equalTo(2)));
+            first.stop();
+
+            //Changed while the node was stopped
+            bell.setPrice(999);
+            productCardDao.save(bell);
+
+            second.start();
+            assertThat(second.getSnapshot().getVersion(), is(equalTo(built.getVersion())));
+            assertThat(second.findProduct("bell"), is(nullValue()));
+            assertThat(second.findProduct("ring").getPrice(), is(equalTo(555)));
+            assertThat(second.findVisualizations("bell").size(), is(equalTo(2)));
+
+            second.rebuild();
+            assertThat(second.findProduct("bell").getPrice(), is(equalTo(999)));
+            assertTrue(catalogChangeDao.findChangedSince(CatalogSnapshot.open(file).getVersion()).isEmpty());
+
+            //Damaged file is not used
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(new byte[]{42}), channel.size() - 1);
+            }
+            try {
+                CatalogSnapshot.open(file);
+                fail();
+            } catch (IOException e) {
+            }
+            third.start();
+            assertThat(third.findProduct("bell").getPrice(), is(equalTo(999)));
+            CatalogSnapshot.open(file);
+        } finally {
+            first.stop();
+            second.stop();
+            third.stop();
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void shouldLogOnlyCatalogChangesAndPurgeOldRows() throws Exception {
+        Category category = categoryDao.save(new Category("desc", "catname", null));
+        ProductCard bell = productCardDao.save(new ProductCard("bell", "bell signal", 1234, 100, 1, 2, "bell desc", category));
+        long version = catalogChangeDao.findCurrentVersion();
+
+        //Stock and votes are not logged
+        bell.setAmount(99);
+        bell = productCardDao.save(bell);
+        productCardDao.addVotes("bell", 1, 0);
+        assertTrue(catalogChangeDao.findChangedSince(version).isEmpty());
+
+        bell.setPrice(999);
+        bell = productCardDao.save(bell);
+        List<Object[]> changed = catalogChangeDao.findChangedSince(version);
+        assertThat(changed.size(), is(equalTo(1)));
+        assertThat(changed.get(0)[0], is(equalTo("PRODUCT")));
+        assertThat(changed.get(0)[1], is(equalTo("bell")));
+
+        Path dir = Files.createTempDirectory("catalog");
+        Path file = dir.resolve("catalog.snapshot");
+        CatalogSnapshotManager first = snapshotManager(file);
+        CatalogSnapshotManager second = snapshotManager(file);
+        try {
+            first.start();
+            first.stop();
+            long fileVersion = CatalogSnapshot.open(file).getVersion();
+
+            //Changes after the file were removed from log, so the file is not used
+            bell.setName("bell 2");
+            productCardDao.save(bell);
+            assertThat(first.purgeChangeLog(LocalDateTime.now().plusHours(1)), is(greaterThan(0)));
+            assertTrue(catalogChangeDao.findChangedSince(0).isEmpty());
+            assertThat(catalogChangeDao.findHorizon(), is(greaterThan(fileVersion)));
+            assertThat(first.purgeChangeLog(LocalDateTime.now().plusHours(1)), is(equalTo(0)));
+
+            second.start();
+            assertThat(second.findProduct("bell").getName(), is(equalTo("bell 2")));
+            assertThat(second.findProduct("bell").getAmount(), is(equalTo(99)));
+        } finally {
+            first.stop();
+            second.stop();
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void shouldRebuildCatalogSnapshotAfterSubmitOrder() throws Exception {
+        Category category = categoryDao.save(new Category("desc", "catname", null));
+        productCardDao.save(new ProductCard("bell", "bell signal", 1234, 100, 1, 1, "bell desc", category));
+        catalogSnapshotManager.rebuild();
+
+        shopManager.createOrder("kya@bk.ru", "Yuriy", "0503337178", "my address", 3, "bell");
+        shopManager.submitOrder("kya@bk.ru");
+
+        CatalogSnapshot old = catalogSnapshotManager.getSnapshot();
+        long deadline = System.currentTimeMillis() + 15000;
+        while (catalogSnapshotManager.getSnapshot() == old && System.currentTimeMillis() < deadline)
+            Thread.sleep(100);
+
+        assertThat(old.find("bell").getAmount(), is(equalTo(100)));
+        assertThat(catalogSnapshotManager.getSnapshot().find("bell").getAmount(), is(equalTo(97)));
+    }
+
+    @Test
+    public void shouldGetMostPopularProductsFromMemory() throws Exception {
+
+        Category category = categoryDao.save(new Category("desc", "name", null));
+        Category otherCategory = categoryDao.save(new Category("desc", "other", null));
+
+        productCardDao.save(new ProductCard("111", "1name", 2222, 34, 10, 0, "xxx", category));
+        productCardDao.save(new ProductCard("222", "2name", 2222, 34, 1, 0, "xxx", category));
+        productCardDao.save(new ProductCard("333", "3name", 2222, 34, 0, 5, "xxx", category));
+        productCardDao.save(new ProductCard("444", "4name", 2222, 34, 50, 0, "xxx", otherCategory));
+        popularityTracker.reload();
+
+        List<ProductCard> productCards = shopManager.getMostPopular(category, 2);
+        assertThat(productCards.size(), is(equalTo(2)));
+        assertThat(productCards.get(0).getSku(), is(equalTo("111")));
+        assertThat(productCards.get(1).getSku(), is(equalTo("222")));
+
+        for (int i = 0; i < 30; i++)
+            shopManager.likeProduct("222");
+        shopManager.dislikeProduct("111");
+
+        //Likes are not in DB before flush
+        assertThat(productCardDao.findBySku("222").getLikes(), is(equalTo(1)));
+
+        popularityTracker.flush();
+
+        productCards = shopManager.getMostPopular(category, 3);
+        assertThat(productCards.get(0).getSku(), is(equalTo("222")));
+        assertThat(productCards.get(2).getSku(), is(equalTo("333")));
+        assertThat(productCardDao.findBySku("222").getLikes(), is(equalTo(31)));
+        assertThat(productCardDao.findBySku("111").getDislikes(), is(equalTo(1)));
+        assertThat(shopManager.getMostPopular(null, 1).get(0).getSku(), is(equalTo("444")));
+    }
+
+    @Test(expected = NoResultException.class)
+    public void shouldNotLikeNotExistedProduct() throws Exception {
+        shopManager.likeProduct("not existed");
+    }
+
     @Test
     public void shouldCorrectSortAllProductsByName() throws Exception {
 
@@ -694,4 +2426,114 @@ public class ShopManagerTest {
         List<ProductCard> productCards = shopManager.sortProductCard(category, SORT_BY_LOW_PRICE);
         assertThat(productCards.get(1).getPrice(), is(equalTo(22222)));
     }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static List<String> keys(List<Completion> completions) {
+        List<String> keys = new ArrayList<>();
+        for (Completion completion : completions)
+            keys.add(completion.getKey());
+        return keys;
+    }
+
+    private long countRows(String table) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT count(*) FROM " + table)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private String dataSetChecksum() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             //Ids depend on sequences, so only values are compared
+             ResultSet rs = statement.executeQuery("SELECT md5(string_agg(concat_ws(' ', p.sku, p.price, p.amount, " +
+                     "p.likes, p.dislikes, p.productdescription), ',' ORDER BY p.sku)) || " +
+                     "(SELECT md5(string_agg(concat_ws(' ', o.customer, o.status, o.created), ',' ORDER BY o.orderid)) " +
+                     "FROM ordermain o) || (SELECT md5(string_agg(concat_ws(' ', i.productcard, i.amount, i.totalprice), " +
+                     "',' ORDER BY i.id)) FROM orderitem i) FROM productcard p")) {
+            rs.next();
+            return rs.getString(1);
+        }
+    }
+
+    private CatalogSnapshotManager snapshotManager(Path file) {
+        return new CatalogSnapshotManager(productCardDao, categoryDao, attributeValueDao,
+                visualizationDao, catalogChangeDao, file, 3600);
+    }
+
+    private void buyTogether(String email, String... skus) {
+        for (String sku : skus)
+            shopManager.addToCart(email, sku, 1);
+        shopManager.checkout(email, email, "Yuriy", "0503337178", "my address");
+        shopManager.submitOrder(email);
+    }
+
+    private static List<String> skus(List<ProductCard> productCards) {
+        List<String> skus = new ArrayList<>();
+        for (ProductCard productCard : productCards)
+            skus.add(productCard.getSku());
+        return skus;
+    }
+
+    //EXPLAIN ANALYZE of every distinct statement of finder: no big table is read whole, the first one uses index
+    private void checkPlan(Set<String> checked, String finder, String index, long maxRows, Runnable call)
+            throws SQLException {
+        List<CapturedStatement> statements;
+        sqlTracer.startCapture();
+        try {
+            call.run();
+        } finally {
+            statements = sqlTracer.stopCapture();
+        }
+        assertFalse(finder + " executed nothing", statements.isEmpty());
+
+        Set<String> explained = new HashSet<>();
+        for (CapturedStatement statement : statements) {
+            if (!explained.add(statement.getSql()))
+                continue;
+            String plan = explain(statement);
+            Matcher seqScan = SEQ_SCAN.matcher(plan);
+            while (seqScan.find())
+                assertTrue(finder + " reads whole " + seqScan.group(1) + ": " + plan,
+                        SMALL_TABLES.contains(seqScan.group(1)));
+            if (explained.size() == 1) {
+                assertTrue(finder + " does not use " + index + ": " + plan,
+                        index == null || plan.contains("\"Index Name\": \"" + index + "\""));
+                Matcher rows = PLAN_ROWS.matcher(plan);
+                assertTrue(rows.find());
+                assertThat(finder + " estimates too many rows: " + plan, Long.parseLong(rows.group(1)),
+                        is(lessThanOrEqualTo(maxRows)));
+            }
+        }
+        checked.add(finder);
+    }
+
+    private String explain(CapturedStatement statement) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement explain = connection.prepareStatement("EXPLAIN (ANALYZE, FORMAT JSON) " + statement.getSql())) {
+            for (int i = 0; i < statement.getParameters().size(); i++)
+                explain.setObject(i + 1, statement.getParameters().get(i));
+            try (ResultSet rs = explain.executeQuery()) {
+                rs.next();
+                return rs.getString(1);
+            }
+        }
+    }
 }
@@ -20,6 +20,11 @@ CREATE TABLE productcard
   CONSTRAINT fkqb0uvey0cfqaojgi1ycpm6prj FOREIGN KEY (category) REFERENCES category (id)
 );
 
+CREATE INDEX productcard_category_price_idx ON productcard (category, price, sku);
+CREATE INDEX productcard_price_idx ON productcard (price, sku);
+CREATE INDEX productcard_upper_name_idx ON productcard (upper(name) text_pattern_ops);
+CREATE INDEX productcard_upper_description_idx ON productcard (upper(productdescription));
+
 CREATE TABLE visualization
 (
   id INTEGER PRIMARY KEY NOT NULL,
@@ -29,6 +34,8 @@ CREATE TABLE visualization
   CONSTRAINT fk8pqpd1igln97jjx2hem76flaw FOREIGN KEY (productcard) REFERENCES productcard (sku)
 );
 
+CREATE INDEX visualization_productcard_idx ON visualization (productcard);
+
 CREATE TABLE attributename
 (
   name VARCHAR(255) PRIMARY KEY NOT NULL
@@ -44,6 +51,9 @@ CREATE TABLE attributevalue
   CONSTRAINT fksn9jqunt6xcro546pltuyt5m3 FOREIGN KEY (productcard) REFERENCES productcard (sku)
 );
 
+CREATE INDEX attributevalue_productcard_idx ON attributevalue (productcard);
+CREATE INDEX attributevalue_attributename_idx ON attributevalue (attributename);
+
 CREATE TABLE customer
 (
   email VARCHAR(255) PRIMARY KEY NOT NULL,
@@ -57,37 +67,152 @@ CREATE TABLE ordermain
   orderid INTEGER PRIMARY KEY NOT NULL,
   address VARCHAR(255),
   status INTEGER NOT NULL,
+  created TIMESTAMP NOT NULL DEFAULT now(),
   customer VARCHAR(255) NOT NULL,
   CONSTRAINT fkbot9y4e73sy98lf0gf8fedsp FOREIGN KEY (customer) REFERENCES customer (email)
 );
 
+CREATE INDEX ordermain_customer_status_idx ON ordermain (customer, status);
+CREATE INDEX ordermain_open_status_idx ON ordermain (status, orderid) WHERE status IN (1, 2, 3, 4);
+CREATE INDEX ordermain_created_idx ON ordermain (created);
+
+CREATE TABLE idempotencykey
+(
+  idempotencykey VARCHAR(64) PRIMARY KEY NOT NULL,
+  orderid INTEGER,
+  created TIMESTAMP NOT NULL,
+  CONSTRAINT idempotencykey_orderid_fk FOREIGN KEY (orderid) REFERENCES ordermain (orderid)
+);
+
+CREATE INDEX idempotencykey_created_idx ON idempotencykey (created);
+
 CREATE TABLE orderitem
 (
   id INTEGER PRIMARY KEY NOT NULL,
   amount INTEGER NOT NULL,
-  totalprice INTEGER NOT NULL,
+  totalprice BIGINT NOT NULL,
   ordermain INTEGER NOT NULL,
   productcard VARCHAR(255),
   CONSTRAINT fkndgjtdkw2gsds6jgw4s5u43eu FOREIGN KEY (ordermain) REFERENCES ordermain (orderid),
   CONSTRAINT fk4rhq663krpdkhcbwc0s0waud9 FOREIGN KEY (productcard) REFERENCES productcard (sku)
 );
 
-CREATE SEQUENCE public.attributevalue_id_seq NO MINVALUE NO MAXVALUE NO CYCLE;
-ALTER TABLE public.attributevalue ALTER COLUMN id SET DEFAULT nextval('public.attributevalue_id_seq');
-ALTER SEQUENCE public.attributevalue_id_seq OWNED BY public.attributevalue.id;
+CREATE INDEX orderitem_ordermain_idx ON orderitem (ordermain);
+CREATE INDEX orderitem_productcard_idx ON orderitem (productcard);
+
+CREATE TABLE pricerule
+(
+  id INTEGER PRIMARY KEY NOT NULL,
+  productcard VARCHAR(255),
+  category INTEGER,
+  minamount INTEGER NOT NULL,
+  discount INTEGER NOT NULL,
+  CONSTRAINT pricerule_productcard_fk FOREIGN KEY (productcard) REFERENCES productcard (sku),
+  CONSTRAINT pricerule_category_fk FOREIGN KEY (category) REFERENCES category (id),
+  CONSTRAINT pricerule_discount_check CHECK (discount BETWEEN 0 AND 10000)
+);
+
+CREATE TABLE catalogchange
+(
+  version BIGSERIAL PRIMARY KEY,
+  txid BIGINT NOT NULL DEFAULT txid_current(),
+  entity VARCHAR(32) NOT NULL,
+  changedkey VARCHAR(255) NOT NULL,
+  created TIMESTAMP NOT NULL DEFAULT now()
+);
+
+CREATE INDEX catalogchange_txid_idx ON catalogchange (txid);
+CREATE INDEX catalogchange_created_idx ON catalogchange (created);
+
+CREATE TABLE catalogchangehorizon
+(
+  txid BIGINT NOT NULL
+);
+
+CREATE FUNCTION log_catalog_change() RETURNS TRIGGER AS $$
+  DECLARE
+    changed JSON;
+  BEGIN
+    IF TG_OP = 'DELETE' THEN
+      changed := row_to_json(OLD);
+    ELSE
+      changed := row_to_json(NEW);
+    END IF;
+    INSERT INTO catalogchange (entity, changedkey) VALUES (TG_ARGV[0], COALESCE(changed ->> TG_ARGV[1], ''));
+    RETURN NULL;
+  END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER productcard_change AFTER INSERT OR DELETE ON productcard
+  FOR EACH ROW EXECUTE PROCEDURE log_catalog_change('PRODUCT', 'sku');
+CREATE TRIGGER productcard_update AFTER UPDATE ON productcard
+  FOR EACH ROW WHEN (OLD.name IS DISTINCT FROM NEW.name OR OLD.price IS DISTINCT FROM NEW.price
+    OR OLD.productdescription IS DISTINCT FROM NEW.productdescription OR OLD.category IS DISTINCT FROM NEW.category)
+  EXECUTE PROCEDURE log_catalog_change('PRODUCT', 'sku');
+CREATE TRIGGER category_change AFTER INSERT OR UPDATE OR DELETE ON category
+  FOR EACH ROW EXECUTE PROCEDURE log_catalog_change('CATEGORY', 'id');
+CREATE TRIGGER attributevalue_change AFTER INSERT OR UPDATE OR DELETE ON attributevalue
+  FOR EACH ROW EXECUTE PROCEDURE log_catalog_change('ATTRIBUTE', 'productcard');
+CREATE TRIGGER visualization_change AFTER INSERT OR UPDATE OR DELETE ON visualization
+  FOR EACH ROW EXECUTE PROCEDURE log_catalog_change('VISUALIZATION', 'productcard');
+
+CREATE TABLE productwatch
+(
+  sku VARCHAR(255) NOT NULL,
+  customer VARCHAR(255) NOT NULL,
+  CONSTRAINT productwatch_pkey PRIMARY KEY (sku, customer),
+  CONSTRAINT productwatch_sku_fk FOREIGN KEY (sku) REFERENCES productcard (sku) ON DELETE CASCADE,
+  CONSTRAINT productwatch_customer_fk FOREIGN KEY (customer) REFERENCES customer (email) ON DELETE CASCADE
+);
+
+CREATE TABLE restock
+(
+  id BIGSERIAL PRIMARY KEY,
+  sku VARCHAR(255) NOT NULL,
+  created TIMESTAMP NOT NULL DEFAULT now()
+);
+
+CREATE TABLE notificationoutbox
+(
+  id BIGSERIAL PRIMARY KEY,
+  customer VARCHAR(255) NOT NULL,
+  sku VARCHAR(255) NOT NULL,
+  created TIMESTAMP NOT NULL DEFAULT now(),
+  sent TIMESTAMP
+);
+
+CREATE INDEX notificationoutbox_unsent_idx ON notificationoutbox (id) WHERE sent IS NULL;
+
+CREATE FUNCTION log_restock() RETURNS TRIGGER AS $$
+  BEGIN
+    INSERT INTO restock (sku) VALUES (NEW.sku);
+    RETURN NULL;
+  END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER productcard_restock AFTER UPDATE OF amount ON productcard
+  FOR EACH ROW WHEN (OLD.amount <= 0 AND NEW.amount > 0) EXECUTE PROCEDURE log_restock();
+
+CREATE SEQUENCE attributevalue_id_seq INCREMENT BY 50 NO MINVALUE NO MAXVALUE NO CYCLE;
+ALTER TABLE attributevalue ALTER COLUMN id SET DEFAULT nextval('attributevalue_id_seq');
+ALTER SEQUENCE attributevalue_id_seq OWNED BY attributevalue.id;
+
+CREATE SEQUENCE category_id_seq INCREMENT BY 50 NO MINVALUE NO MAXVALUE NO CYCLE;
+ALTER TABLE category ALTER COLUMN id SET DEFAULT nextval('category_id_seq');
+ALTER SEQUENCE category_id_seq OWNED BY category.id;
 
-CREATE SEQUENCE public.category_id_seq NO MINVALUE NO MAXVALUE NO CYCLE;
-ALTER TABLE public.category ALTER COLUMN id SET DEFAULT nextval('public.category_id_seq');
-ALTER SEQUENCE public.category_id_seq OWNED BY public.category.id;
+CREATE SEQUENCE orderitem_id_seq INCREMENT BY 50 NO MINVALUE NO MAXVALUE NO CYCLE;
+ALTER TABLE orderitem ALTER COLUMN id SET DEFAULT nextval('orderitem_id_seq');
+ALTER SEQUENCE orderitem_id_seq OWNED BY orderitem.id;
 
-CREATE SEQUENCE public.orderitem_id_seq NO MINVALUE NO MAXVALUE NO CYCLE;
-ALTER TABLE public.orderitem ALTER COLUMN id SET DEFAULT nextval('public.orderitem_id_seq');
-ALTER SEQUENCE public.orderitem_id_seq OWNED BY public.orderitem.id;
+CREATE SEQUENCE ordermain_orderid_seq INCREMENT BY 50 NO MINVALUE NO MAXVALUE NO CYCLE;
+ALTER TABLE ordermain ALTER COLUMN orderid SET DEFAULT nextval('ordermain_orderid_seq');
+ALTER SEQUENCE ordermain_orderid_seq OWNED BY ordermain.orderid;
 
-CREATE SEQUENCE public.ordermain_orderid_seq NO MINVALUE NO MAXVALUE NO CYCLE;
-ALTER TABLE public.ordermain ALTER COLUMN orderid SET DEFAULT nextval('public.ordermain_orderid_seq');
-ALTER SEQUENCE public.ordermain_orderid_seq OWNED BY public.ordermain.orderid;
+CREATE SEQUENCE pricerule_id_seq INCREMENT BY 50 NO MINVALUE NO MAXVALUE NO CYCLE;
+ALTER TABLE pricerule ALTER COLUMN id SET DEFAULT nextval('pricerule_id_seq');
+ALTER SEQUENCE pricerule_id_seq OWNED BY pricerule.id;
 
-CREATE SEQUENCE public.visualization_id_seq NO MINVALUE NO MAXVALUE NO CYCLE;
-ALTER TABLE public.visualization ALTER COLUMN id SET DEFAULT nextval('public.visualization_id_seq');
-ALTER SEQUENCE public.visualization_id_seq OWNED BY public.visualization.id;
\ No newline at end of file
+CREATE SEQUENCE visualization_id_seq INCREMENT BY 50 NO MINVALUE NO MAXVALUE NO CYCLE;
+ALTER TABLE visualization ALTER COLUMN id SET DEFAULT nextval('visualization_id_seq');
+ALTER SEQUENCE visualization_id_seq OWNED BY visualization.id;
\ No newline at end of file